@@ -27,6 +27,7 @@ import com.projecttango.tangoutils.Renderer;
 import com.projecttango.tangoutils.renderables.CameraFrustum;
 import com.projecttango.tangoutils.renderables.CameraFrustumAndAxis;
 import com.projecttango.tangoutils.renderables.Grid;
+import com.projecttango.tangoutils.renderables.RenderUtils;
 import com.projecttango.tangoutils.renderables.Trajectory;
 
 /**
@@ -41,14 +42,18 @@ import com.projecttango.tangoutils.renderables.Trajectory;
  */
 public class ALRenderer extends Renderer implements GLSurfaceView.Renderer {
 
-    private Trajectory mGreenTrajectory;
-    private Trajectory mBlueTrajectory;
+    /** Created on the GL thread and fed from the pose callback thread. */
+    private volatile Trajectory mGreenTrajectory;
+    private volatile Trajectory mBlueTrajectory;
     private CameraFrustum mCameraFrustum;
     private CameraFrustumAndAxis mCameraFrustumAndAxis;
     private Grid mFloorGrid;
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // Programs from a previous surface died with its context.
+        RenderUtils.clearProgramCache();
+
         // Set background color and enable depth testing
         GLES20.glClearColor(1f, 1f, 1f, 1.0f);
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
@@ -79,6 +84,7 @@ public class ALRenderer extends Renderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        beginFrame();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         mGreenTrajectory.draw(getViewMatrix(), mProjectionMatrix);
         mBlueTrajectory.draw(getViewMatrix(), mProjectionMatrix);
@@ -94,10 +100,12 @@ public class ALRenderer extends Renderer implements GLSurfaceView.Renderer {
         return mCameraFrustumAndAxis;
     }
 
+    /** Returns the trajectory, or null before the GL surface exists. */
     public Trajectory getBlueTrajectory() {
         return mBlueTrajectory;
     }
     
+    /** Returns the trajectory, or null before the GL surface exists. */
     public Trajectory getGreenTrajectory() {
         return mGreenTrajectory;
     }
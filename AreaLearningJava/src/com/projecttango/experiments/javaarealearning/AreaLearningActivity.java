@@ -35,6 +35,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -42,10 +43,12 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 
 import com.projecttango.experiments.javaarealearning.SetADFNameDialog.SetNameCommunicator;
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.PoseReadout;
 
 /**
  * Main Activity class for the Area Learning API Sample. Handles the connection to the Tango service
@@ -55,55 +58,42 @@ import com.projecttango.experiments.javaarealearning.SetADFNameDialog.SetNameCom
 public class AreaLearningActivity extends Activity implements View.OnClickListener, SetNameCommunicator {
 
     private static final String TAG = AreaLearningActivity.class.getSimpleName();
-    private static final int SECONDS_TO_MILLI = 1000;
+    /** Interval between updates of the pose readouts on screen. */
+    private static final int READOUT_UPDATE_INTERVAL_MS = 100;
     private Tango mTango;
     private TangoConfig mConfig;
     private TextView mTangoEventTextView;
-    private TextView mStart2DeviceTranslationTextView;
-    private TextView mAdf2DeviceTranslationTextView;
-    private TextView mAdf2StartTranslationTextView;
-    private TextView mStart2DeviceQuatTextView;
-    private TextView mAdf2DeviceQuatTextView;
-    private TextView mAdf2StartQuatTextView;
     private TextView mTangoServiceVersionTextView;
     private TextView mApplicationVersionTextView;
     private TextView mUUIDTextView;
-    private TextView mStart2DevicePoseStatusTextView;
-    private TextView mAdf2DevicePoseStatusTextView;
-    private TextView mAdf2StartPoseStatusTextView;
-    private TextView mStart2DevicePoseCountTextView;
-    private TextView mAdf2DevicePoseCountTextView;
-    private TextView mAdf2StartPoseCountTextView;
-    private TextView mStart2DevicePoseDeltaTextView;
-    private TextView mAdf2DevicePoseDeltaTextView;
-    private TextView mAdf2StartPoseDeltaTextView;
 
     private Button mSaveAdf;
     private Button mFirstPersonButton;
     private Button mThirdPersonButton;
     private Button mTopDownButton;
 
-    private int mStart2DevicePoseCount;
-    private int mAdf2DevicePoseCount;
-    private int mAdf2StartPoseCount;
-    private int mStart2DevicePreviousPoseStatus;
-    private int mAdf2DevicePreviousPoseStatus;
-    private int mAdf2StartPreviousPoseStatus;
-
-    private double mStart2DevicePoseDelta;
-    private double mAdf2DevicePoseDelta;
-    private double mAdf2StartPoseDelta;
-    private double mStart2DevicePreviousPoseTimeStamp;
-    private double mAdf2DevicePreviousPoseTimeStamp;
-    private double mAdf2StartPreviousPoseTimeStamp;
-
-    private boolean mIsRelocalized;
+    private PoseReadout mStart2DeviceReadout;
+    private PoseReadout mAdf2DeviceReadout;
+    private PoseReadout mAdf2StartReadout;
+    private final Handler mHandler = new Handler();
+    private final Runnable mReadoutUpdater = new Runnable() {
+        @Override
+        public void run() {
+            mStart2DeviceReadout.show();
+            mAdf2DeviceReadout.show();
+            mAdf2StartReadout.show();
+            mHandler.postDelayed(this, READOUT_UPDATE_INTERVAL_MS);
+        }
+    };
+
     private boolean mIsLearningMode;
     private boolean mIsConstantSpaceRelocalize;
     private String mCurrentUUID;
 
     private ALRenderer mRenderer;
     private GLSurfaceView mGLView;
+    private FrameScheduler mFrameScheduler;
+    private AreaLearningListener mListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -112,24 +102,24 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
 
         mTangoEventTextView = (TextView) findViewById(R.id.tangoevent);
 
-        mAdf2DeviceTranslationTextView = (TextView) findViewById(R.id.adf2devicePose);
-        mStart2DeviceTranslationTextView = (TextView) findViewById(R.id.start2devicePose);
-        mAdf2StartTranslationTextView = (TextView) findViewById(R.id.adf2startPose);
-        mAdf2DeviceQuatTextView = (TextView) findViewById(R.id.adf2deviceQuat);
-        mStart2DeviceQuatTextView = (TextView) findViewById(R.id.start2deviceQuat);
-        mAdf2StartQuatTextView = (TextView) findViewById(R.id.adf2startQuat);
-
-        mAdf2DevicePoseStatusTextView = (TextView) findViewById(R.id.adf2deviceStatus);
-        mStart2DevicePoseStatusTextView = (TextView) findViewById(R.id.start2deviceStatus);
-        mAdf2StartPoseStatusTextView = (TextView) findViewById(R.id.adf2startStatus);
-
-        mAdf2DevicePoseCountTextView = (TextView) findViewById(R.id.adf2devicePosecount);
-        mStart2DevicePoseCountTextView = (TextView) findViewById(R.id.start2devicePosecount);
-        mAdf2StartPoseCountTextView = (TextView) findViewById(R.id.adf2startPosecount);
-
-        mAdf2DevicePoseDeltaTextView = (TextView) findViewById(R.id.adf2deviceDeltatime);
-        mStart2DevicePoseDeltaTextView = (TextView) findViewById(R.id.start2deviceDeltatime);
-        mAdf2StartPoseDeltaTextView = (TextView) findViewById(R.id.adf2startDeltatime);
+        mAdf2DeviceReadout = new PoseReadout(this,
+                (TextView) findViewById(R.id.adf2devicePose),
+                (TextView) findViewById(R.id.adf2deviceQuat),
+                (TextView) findViewById(R.id.adf2deviceStatus),
+                (TextView) findViewById(R.id.adf2devicePosecount),
+                (TextView) findViewById(R.id.adf2deviceDeltatime));
+        mStart2DeviceReadout = new PoseReadout(this,
+                (TextView) findViewById(R.id.start2devicePose),
+                (TextView) findViewById(R.id.start2deviceQuat),
+                (TextView) findViewById(R.id.start2deviceStatus),
+                (TextView) findViewById(R.id.start2devicePosecount),
+                (TextView) findViewById(R.id.start2deviceDeltatime));
+        mAdf2StartReadout = new PoseReadout(this,
+                (TextView) findViewById(R.id.adf2startPose),
+                (TextView) findViewById(R.id.adf2startQuat),
+                (TextView) findViewById(R.id.adf2startStatus),
+                (TextView) findViewById(R.id.adf2startPosecount),
+                (TextView) findViewById(R.id.adf2startDeltatime));
 
         mFirstPersonButton = (Button) findViewById(R.id.first_person_button);
         mThirdPersonButton = (Button) findViewById(R.id.third_person_button);
@@ -161,10 +151,13 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
         mGLView.setEGLContextClientVersion(2);
         mGLView.setRenderer(mRenderer);
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mFrameScheduler = new FrameScheduler(mGLView);
+        mRenderer.setFrameScheduler(mFrameScheduler);
+        mListener = new AreaLearningListener(mRenderer, mStart2DeviceReadout, mAdf2DeviceReadout,
+                mAdf2StartReadout, mFrameScheduler);
 
         // Instantiate the Tango service
         mTango = new Tango(this);
-        mIsRelocalized = false;
 
         Intent intent = getIntent();
         mIsLearningMode = intent.getBooleanExtra(ALStartActivity.USE_AREA_LEARNING, false);
@@ -202,10 +195,6 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
             }
         }
 
-        // Set the number of loop closures to zero at start.
-        mStart2DevicePoseCount = 0;
-        mAdf2DevicePoseCount = 0;
-        mAdf2StartPoseCount = 0;
         mTangoServiceVersionTextView.setText(mConfig.getString("tango_service_library_version"));
     }
 
@@ -225,6 +214,8 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
                 TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE));
 
         mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+            private final PoseEvent mPoseEvent = new PoseEvent();
+
             @Override
             public void onXyzIjAvailable(TangoXyzIjData xyzij) {
                 // Not using XyzIj data for this sample
@@ -243,33 +234,9 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
 
             @Override
             public void onPoseAvailable(TangoPoseData pose) {
-
-                // Update the text views with Pose info.
-                updateTextViewWith(pose);
-                float[] translation = pose.getTranslationAsFloats();
-                boolean updateRenderer = false;
-                if (mIsRelocalized) {
-                    if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION
-                            && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
-                        updateRenderer = true;
-                        mRenderer.getGreenTrajectory().updateTrajectory(translation);
-                    }
-                } else {
-                    if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE
-                            && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
-                        updateRenderer = true;
-                        mRenderer.getBlueTrajectory().updateTrajectory(translation);
-                    }
-                }
-
-                // Update the trajectory, model matrix, and view matrix, then
-                // render the scene again
-                if (updateRenderer) {
-                    mRenderer.getModelMatCalculator().updateModelMatrix(translation,
-                            pose.getRotationAsFloats());
-                    mRenderer.updateViewMatrix();
-                    mGLView.requestRender();
-                }
+                mPoseEvent.set(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                        pose.statusCode, pose.translation, pose.rotation);
+                mListener.onPose(mPoseEvent);
             }
         });
     }
@@ -321,104 +288,10 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
                 Toast.LENGTH_SHORT).show();
     }
 
-    /**
-     * Updates the text view in UI screen with the Pose. Each pose is associated with Target and
-     * Base Frame. We need to check for that pair ad update our views accordingly.
-     * 
-     * @param pose
-     */
-    private void updateTextViewWith(final TangoPoseData pose) {
-        final DecimalFormat threeDec = new DecimalFormat("0.000");
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String translationString = "[" + threeDec.format(pose.translation[0]) + ","
-                        + threeDec.format(pose.translation[1]) + ","
-                        + threeDec.format(pose.translation[2]) + "] ";
-
-                String quaternionString = "[" + threeDec.format(pose.rotation[0]) + ","
-                        + threeDec.format(pose.rotation[1]) + ","
-                        + threeDec.format(pose.rotation[2]) + ","
-                        + threeDec.format(pose.rotation[3]) + "] ";
-
-                if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION
-                        && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
-                    if (mAdf2DevicePreviousPoseStatus != pose.statusCode) {
-                        mAdf2DevicePoseCount = 0;
-                    }
-                    mAdf2DevicePreviousPoseStatus = pose.statusCode;
-                    mAdf2DevicePoseCount++;
-                    mAdf2DevicePoseDelta = (pose.timestamp - mAdf2DevicePreviousPoseTimeStamp)
-                            * SECONDS_TO_MILLI;
-                    mAdf2DevicePreviousPoseTimeStamp = pose.timestamp;
-                    mAdf2DeviceTranslationTextView.setText(translationString);
-                    mAdf2DeviceQuatTextView.setText(quaternionString);
-                    mAdf2DevicePoseStatusTextView.setText(getPoseStatus(pose));
-                    mAdf2DevicePoseCountTextView.setText(Integer.toString(mAdf2DevicePoseCount));
-                    mAdf2DevicePoseDeltaTextView.setText(threeDec.format(mAdf2DevicePoseDelta));
-                }
-
-                if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE
-                        && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_DEVICE) {
-                    if (mStart2DevicePreviousPoseStatus != pose.statusCode) {
-                        mStart2DevicePoseCount = 0;
-                    }
-                    mStart2DevicePreviousPoseStatus = pose.statusCode;
-                    mStart2DevicePoseCount++;
-                    mStart2DevicePoseDelta = (pose.timestamp - mStart2DevicePreviousPoseTimeStamp)
-                            * SECONDS_TO_MILLI;
-                    mStart2DevicePreviousPoseTimeStamp = pose.timestamp;
-                    mStart2DeviceTranslationTextView.setText(translationString);
-                    mStart2DeviceQuatTextView.setText(quaternionString);
-                    mStart2DevicePoseStatusTextView.setText(getPoseStatus(pose));
-                    mStart2DevicePoseCountTextView
-                            .setText(Integer.toString(mStart2DevicePoseCount));
-                    mStart2DevicePoseDeltaTextView.setText(threeDec.format(mStart2DevicePoseDelta));
-                }
-
-                if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION
-                        && pose.targetFrame == TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE) {
-                    if (mAdf2StartPreviousPoseStatus != pose.statusCode) {
-                        mAdf2StartPoseCount = 0;
-                    }
-                    mAdf2StartPreviousPoseStatus = pose.statusCode;
-                    mAdf2StartPoseCount++;
-                    mAdf2StartPoseDelta = (pose.timestamp - mAdf2StartPreviousPoseTimeStamp)
-                            * SECONDS_TO_MILLI;
-                    mAdf2StartPreviousPoseTimeStamp = pose.timestamp;
-                    mAdf2StartTranslationTextView.setText(translationString);
-                    mAdf2StartQuatTextView.setText(quaternionString);
-                    mAdf2StartPoseStatusTextView.setText(getPoseStatus(pose));
-                    mAdf2StartPoseCountTextView.setText(Integer.toString(mAdf2StartPoseCount));
-                    mAdf2StartPoseDeltaTextView.setText(threeDec.format(mAdf2StartPoseDelta));
-                    if (pose.statusCode == TangoPoseData.POSE_VALID) {
-                        mIsRelocalized = true;
-                        // Set the color to green
-                    } else {
-                        mIsRelocalized = false;
-                        // Set the color blue
-                    }
-                }
-            }
-        });
-    }
-
-    private String getPoseStatus(TangoPoseData pose) {
-        switch (pose.statusCode) {
-        case TangoPoseData.POSE_INITIALIZING:
-            return getString(R.string.pose_initializing);
-        case TangoPoseData.POSE_INVALID:
-            return getString(R.string.pose_invalid);
-        case TangoPoseData.POSE_VALID:
-            return getString(R.string.pose_valid);
-        default:
-            return getString(R.string.pose_unknown);
-        }
-    }
-
     @Override
     protected void onPause() {
         super.onPause();
+        mHandler.removeCallbacks(mReadoutUpdater);
         try {
             mTango.disconnect();
         } catch (TangoErrorException e) {
@@ -448,6 +321,7 @@ public class AreaLearningActivity extends Activity implements View.OnClickListen
             Toast.makeText(getApplicationContext(), R.string.tango_error, Toast.LENGTH_SHORT)
                     .show();
         }
+        mHandler.post(mReadoutUpdater);
     }
 
     @Override
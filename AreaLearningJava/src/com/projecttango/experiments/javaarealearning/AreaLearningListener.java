@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.experiments.javaarealearning;
+
+import java.nio.FloatBuffer;
+
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.PoseReadout;
+import com.projecttango.tangoutils.SessionPlayer;
+import com.projecttango.tangoutils.renderables.Trajectory;
+
+/**
+ * Handles the poses of the Area Learning sample. {@link AreaLearningActivity} feeds it from the
+ * Tango service and {@link SessionReplay} from a recorded session, so the same code runs on a
+ * device and offline.
+ */
+public class AreaLearningListener implements SessionPlayer.Listener {
+
+    private final ALRenderer mRenderer;
+    private final PoseReadout mStart2DeviceReadout;
+    private final PoseReadout mAdf2DeviceReadout;
+    private final PoseReadout mAdf2StartReadout;
+    private final FrameScheduler mFrameScheduler;
+    // Only used on the pose callback thread
+    private boolean mIsRelocalized;
+    private final float[] mTranslation = new float[3];
+    private final float[] mRotation = new float[4];
+
+    /**
+     * @param frameScheduler
+     *            asked for a frame after each device pose, or null when there is no view.
+     */
+    public AreaLearningListener(ALRenderer renderer, PoseReadout start2DeviceReadout,
+            PoseReadout adf2DeviceReadout, PoseReadout adf2StartReadout,
+            FrameScheduler frameScheduler) {
+        mRenderer = renderer;
+        mStart2DeviceReadout = start2DeviceReadout;
+        mAdf2DeviceReadout = adf2DeviceReadout;
+        mAdf2StartReadout = adf2StartReadout;
+        mFrameScheduler = frameScheduler;
+    }
+
+    @Override
+    public void onPose(PoseEvent pose) {
+        // Update the readouts with Pose info.
+        updatePoseReadouts(pose);
+        Trajectory trajectory;
+        if (mIsRelocalized) {
+            if (pose.baseFrame != PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION
+                    || pose.targetFrame != PoseEvent.COORDINATE_FRAME_DEVICE) {
+                return;
+            }
+            trajectory = mRenderer.getGreenTrajectory();
+        } else {
+            if (pose.baseFrame != PoseEvent.COORDINATE_FRAME_START_OF_SERVICE
+                    || pose.targetFrame != PoseEvent.COORDINATE_FRAME_DEVICE) {
+                return;
+            }
+            trajectory = mRenderer.getBlueTrajectory();
+        }
+        pose.copyTranslation(mTranslation);
+        // Positions that arrive before the GL surface exists are not kept
+        if (trajectory != null) {
+            trajectory.updateTrajectory(mTranslation);
+        }
+
+        // Hand the pose to the renderer, which applies the newest one
+        // when the next frame starts, and ask for that frame
+        pose.copyRotation(mRotation);
+        mRenderer.setDevicePose(mTranslation, mRotation);
+        if (mFrameScheduler != null) {
+            mFrameScheduler.requestRender();
+        }
+    }
+
+    /**
+     * Hands the pose to the readout of its Target and Base Frame pair, which the UI thread shows
+     * at its own rate.
+     */
+    private void updatePoseReadouts(PoseEvent pose) {
+        if (pose.baseFrame == PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION
+                && pose.targetFrame == PoseEvent.COORDINATE_FRAME_DEVICE) {
+            mAdf2DeviceReadout.update(pose.timestamp, pose.statusCode, pose.translation,
+                    pose.rotation);
+        }
+
+        if (pose.baseFrame == PoseEvent.COORDINATE_FRAME_START_OF_SERVICE
+                && pose.targetFrame == PoseEvent.COORDINATE_FRAME_DEVICE) {
+            mStart2DeviceReadout.update(pose.timestamp, pose.statusCode, pose.translation,
+                    pose.rotation);
+        }
+
+        if (pose.baseFrame == PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION
+                && pose.targetFrame == PoseEvent.COORDINATE_FRAME_START_OF_SERVICE) {
+            mAdf2StartReadout.update(pose.timestamp, pose.statusCode, pose.translation,
+                    pose.rotation);
+            // Relocalization picks the trajectory the next poses go to, so it is tracked here
+            // rather than at the readout rate
+            mIsRelocalized = pose.statusCode == PoseEvent.POSE_VALID;
+        }
+    }
+
+    @Override
+    public void onXyzIj(double timestamp, FloatBuffer points, int pointCount) {
+        // Not using depth data for this sample
+    }
+}
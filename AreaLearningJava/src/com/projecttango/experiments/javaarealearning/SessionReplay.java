@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.experiments.javaarealearning;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.projecttango.tangoutils.PoseReadout;
+import com.projecttango.tangoutils.SessionPlayer;
+import com.projecttango.tangoutils.SessionReader;
+
+/**
+ * Replays a recorded session through {@link AreaLearningListener} without a device, a GL context
+ * or the Tango service, and prints how long the listener took. Runs on a desktop JVM with this
+ * app's classes, the TangoUtils classes and the SDK's android.jar on the class path:
+ *
+ * <pre>
+ * java com.projecttango.experiments.javaarealearning.SessionReplay session-file [speed]
+ * </pre>
+ *
+ * The speed is a factor of the recorded pace; without one, records are replayed as fast as the
+ * listener takes them.
+ */
+public class SessionReplay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SessionReplay session-file [speed]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1])
+                : SessionPlayer.SPEED_UNLIMITED;
+
+        AreaLearningListener listener = new AreaLearningListener(new ALRenderer(),
+                newReadout(), newReadout(), newReadout(), null);
+        FileInputStream stream = new FileInputStream(args[0]);
+        try {
+            SessionPlayer player = new SessionPlayer(new SessionReader(stream.getChannel()),
+                    listener);
+            player.setSpeed(speed);
+            player.play();
+            System.out.println("Replayed " + player.getPoseCount() + " poses in "
+                    + player.getElapsedNanos() / 1000000 + " ms");
+        } finally {
+            stream.close();
+        }
+    }
+
+    /** Returns a readout that counts poses but is never shown. */
+    private static PoseReadout newReadout() {
+        return new PoseReadout(null, null, null, null, null, "initializing", "invalid", "valid",
+                "unknown");
+    }
+}
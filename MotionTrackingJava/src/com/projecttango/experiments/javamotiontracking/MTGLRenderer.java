@@ -23,10 +23,13 @@ import android.opengl.Matrix;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.projecttango.tangoutils.PoseBus;
+import com.projecttango.tangoutils.PoseEvent;
 import com.projecttango.tangoutils.Renderer;
 import com.projecttango.tangoutils.renderables.CameraFrustum;
 import com.projecttango.tangoutils.renderables.CameraFrustumAndAxis;
 import com.projecttango.tangoutils.renderables.Grid;
+import com.projecttango.tangoutils.renderables.RenderUtils;
 import com.projecttango.tangoutils.renderables.Trajectory;
 
 /**
@@ -40,13 +43,22 @@ import com.projecttango.tangoutils.renderables.Trajectory;
  */
 public class MTGLRenderer extends Renderer implements GLSurfaceView.Renderer {
 
-    private Trajectory mTrajectory;
+    /** Created on the GL thread and fed from the pose callback thread. */
+    private volatile Trajectory mTrajectory;
     private CameraFrustum mCameraFrustum;
     private CameraFrustumAndAxis mCameraFrustumAndAxis;
     private Grid mFloorGrid;
+    private PoseBus.Consumer mPoseConsumer;
+    private final PoseEvent mPose = new PoseEvent();
+    private final float[] mTranslation = new float[3];
+    private final float[] mRotation = new float[4];
+    // Only used on the pose callback thread
+    private final float[] mTrajectoryPoint = new float[3];
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // Programs from a previous surface died with its context.
+        RenderUtils.clearProgramCache();
 
         // Set background color and enable depth testing
         GLES20.glClearColor(1f, 1f, 1f, 1.0f);
@@ -75,12 +87,56 @@ public class MTGLRenderer extends Renderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        consumePoses();
+        beginFrame();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         mTrajectory.draw(getViewMatrix(), mProjectionMatrix);
         mFloorGrid.draw(getViewMatrix(), mProjectionMatrix);
         mCameraFrustumAndAxis.draw(getViewMatrix(), mProjectionMatrix);
     }
 
+    /**
+     * Sets where the renderer reads device poses from. The newest one places the camera when the
+     * next frame is drawn; older ones may be dropped.
+     */
+    public void setPoseConsumer(PoseBus.Consumer consumer) {
+        mPoseConsumer = consumer;
+    }
+
+    /**
+     * Adds a device position to the trajectory. Called for every pose on the Tango callback
+     * thread, so the path keeps every pose however long a frame takes. Positions that arrive
+     * before the GL surface exists are not kept.
+     * 
+     * @param translation
+     *            device position in the Tango frame.
+     */
+    public void addTrajectoryPoint(double[] translation) {
+        Trajectory trajectory = mTrajectory;
+        if (trajectory == null) {
+            return;
+        }
+        for (int i = 0; i < 3; i++) {
+            mTrajectoryPoint[i] = (float) translation[i];
+        }
+        trajectory.updateTrajectory(mTrajectoryPoint);
+    }
+
+    private void consumePoses() {
+        if (mPoseConsumer == null) {
+            return;
+        }
+        boolean updated = false;
+        while (mPoseConsumer.poll(mPose)) {
+            updated = true;
+        }
+        if (updated) {
+            mPose.copyTranslation(mTranslation);
+            mPose.copyRotation(mRotation);
+            setDevicePose(mTranslation, mRotation);
+        }
+    }
+
     public CameraFrustum getCameraFrustum() {
         return mCameraFrustum;
     }
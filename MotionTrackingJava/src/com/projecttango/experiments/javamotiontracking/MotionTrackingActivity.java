@@ -25,6 +25,10 @@ import com.google.atap.tangoservice.TangoEvent;
 import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseBus;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.PoseReadout;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -32,6 +36,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -39,7 +44,6 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 
 /**
@@ -50,25 +54,30 @@ import java.util.ArrayList;
 public class MotionTrackingActivity extends Activity implements View.OnClickListener {
 
     private static final String TAG = MotionTrackingActivity.class.getSimpleName();
-    private static final int SECS_TO_MILLISECS = 1000;
+    /** Interval between updates of the pose text views. */
+    private static final int TEXT_UPDATE_INTERVAL_MS = 100;
     private Tango mTango;
     private TangoConfig mConfig;
-    private TextView mDeltaTextView;
-    private TextView mPoseCountTextView;
-    private TextView mPoseTextView;
-    private TextView mQuatTextView;
-    private TextView mPoseStatusTextView;
+    private PoseReadout mPoseReadout;
     private TextView mTangoServiceVersionTextView;
     private TextView mApplicationVersionTextView;
     private TextView mTangoEventTextView;
     private Button mMotionResetButton;
-    private float mPreviousTimeStamp;
-    private int mPreviousPoseStatus;
-    private int count;
-    private float mDeltaTime;
     private boolean mIsAutoRecovery;
     private MTGLRenderer mRenderer;
     private GLSurfaceView mGLView;
+    private FrameScheduler mFrameScheduler;
+    private final PoseBus mPoseBus = new PoseBus();
+    private PoseBus.Consumer mRendererConsumer;
+    private MotionTrackingListener mListener;
+    private final Handler mHandler = new Handler();
+    private final Runnable mTextUpdater = new Runnable() {
+        @Override
+        public void run() {
+            mPoseReadout.show();
+            mHandler.postDelayed(this, TEXT_UPDATE_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,11 +86,13 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
         Intent intent = getIntent();
         mIsAutoRecovery = intent.getBooleanExtra(StartActivity.KEY_MOTIONTRACKING_AUTORECOVER,
                 false);
-        // Text views for displaying translation and rotation data
-        mPoseTextView = (TextView) findViewById(R.id.pose);
-        mQuatTextView = (TextView) findViewById(R.id.quat);
-        mPoseCountTextView = (TextView) findViewById(R.id.posecount);
-        mDeltaTextView = (TextView) findViewById(R.id.deltatime);
+        // Text views for displaying translation, rotation and status of the pose data
+        mPoseReadout = new PoseReadout(this,
+                (TextView) findViewById(R.id.pose),
+                (TextView) findViewById(R.id.quat),
+                (TextView) findViewById(R.id.status),
+                (TextView) findViewById(R.id.posecount),
+                (TextView) findViewById(R.id.deltatime));
         mTangoEventTextView = (TextView) findViewById(R.id.tangoevent);
         // Buttons for selecting camera view and Set up button click listeners
         findViewById(R.id.first_person_button).setOnClickListener(this);
@@ -91,8 +102,7 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
         // Button to reset motion tracking
         mMotionResetButton = (Button) findViewById(R.id.resetmotion);
 
-        // Text views for the status of the pose data and Tango library versions
-        mPoseStatusTextView = (TextView) findViewById(R.id.status);
+        // Text views for the Tango library versions
         mTangoServiceVersionTextView = (TextView) findViewById(R.id.version);
         mApplicationVersionTextView = (TextView) findViewById(R.id.appversion);
 
@@ -107,6 +117,15 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
         mGLView.setEGLContextClientVersion(2);
         mGLView.setRenderer(mRenderer);
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mFrameScheduler = new FrameScheduler(mGLView);
+        mRenderer.setFrameScheduler(mFrameScheduler);
+
+        // The pose callback publishes to a ring buffer that the renderer reads
+        // at its own pace. It only needs the newest pose, so it may drop old ones.
+        mRendererConsumer = mPoseBus.addConsumer("renderer", PoseBus.POLICY_DROP_OLDEST);
+        mRenderer.setPoseConsumer(mRendererConsumer);
+        mListener = new MotionTrackingListener(mRenderer, mPoseReadout, mPoseBus,
+                mFrameScheduler);
 
         // Instantiate the Tango service
         mTango = new Tango(this);
@@ -154,6 +173,7 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
                 TangoPoseData.COORDINATE_FRAME_DEVICE));
         // Listen for new Tango data
         mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+            private final PoseEvent mPoseEvent = new PoseEvent();
 
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
@@ -161,51 +181,9 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
                 if (!mIsAutoRecovery && (pose.statusCode == TangoPoseData.POSE_INVALID)) {
                     Log.w(TAG, "Invalid State");
                 }
-                if (mPreviousPoseStatus != pose.statusCode) {
-                    count = 0;
-                }
-                count++;
-                mPreviousPoseStatus = pose.statusCode;
-                mDeltaTime = (float) (pose.timestamp - mPreviousTimeStamp) * SECS_TO_MILLISECS;
-                mPreviousTimeStamp = (float) pose.timestamp;
-                // Update the OpenGL renderable objects with the new Tango Pose
-                // data
-                float[] translation = pose.getTranslationAsFloats();
-                mRenderer.getTrajectory().updateTrajectory(translation);
-                mRenderer.getModelMatCalculator().updateModelMatrix(translation,
-                        pose.getRotationAsFloats());
-                mRenderer.updateViewMatrix();
-                mGLView.requestRender();
-
-                // Update the UI with TangoPose information
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        DecimalFormat threeDec = new DecimalFormat("0.000");
-                        String translationString = "[" + threeDec.format(pose.translation[0])
-                                + ", " + threeDec.format(pose.translation[1]) + ", "
-                                + threeDec.format(pose.translation[2]) + "] ";
-                        String quaternionString = "[" + threeDec.format(pose.rotation[0]) + ", "
-                                + threeDec.format(pose.rotation[1]) + ", "
-                                + threeDec.format(pose.rotation[2]) + ", "
-                                + threeDec.format(pose.rotation[3]) + "] ";
-
-                        // Display pose data on screen in TextViews
-                        mPoseTextView.setText(translationString);
-                        mQuatTextView.setText(quaternionString);
-                        mPoseCountTextView.setText(Integer.toString(count));
-                        mDeltaTextView.setText(threeDec.format(mDeltaTime));
-                        if (pose.statusCode == TangoPoseData.POSE_VALID) {
-                            mPoseStatusTextView.setText(R.string.pose_valid);
-                        } else if (pose.statusCode == TangoPoseData.POSE_INVALID) {
-                            mPoseStatusTextView.setText(R.string.pose_invalid);
-                        } else if (pose.statusCode == TangoPoseData.POSE_INITIALIZING) {
-                            mPoseStatusTextView.setText(R.string.pose_initializing);
-                        } else if (pose.statusCode == TangoPoseData.POSE_UNKNOWN) {
-                            mPoseStatusTextView.setText(R.string.pose_unknown);
-                        }
-                    }
-                });
+                mPoseEvent.set(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                        pose.statusCode, pose.translation, pose.rotation);
+                mListener.onPose(mPoseEvent);
             }
 
             @Override
@@ -232,6 +210,8 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
     @Override
     protected void onPause() {
         super.onPause();
+        mHandler.removeCallbacks(mTextUpdater);
+        Log.i(TAG, mRendererConsumer.toString());
         try {
             mTango.disconnect();
         } catch (TangoErrorException e) {
@@ -265,6 +245,7 @@ public class MotionTrackingActivity extends Activity implements View.OnClickList
             Toast.makeText(getApplicationContext(), R.string.motiontrackingpermission,
                     Toast.LENGTH_SHORT).show();
         }
+        mHandler.post(mTextUpdater);
     }
 
     @Override
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.experiments.javamotiontracking;
+
+import java.nio.FloatBuffer;
+
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseBus;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.PoseReadout;
+import com.projecttango.tangoutils.SessionPlayer;
+
+/**
+ * Handles the poses of the Motion Tracking sample. {@link MotionTrackingActivity} feeds it from
+ * the Tango service and {@link SessionReplay} from a recorded session, so the same code runs on
+ * a device and offline.
+ */
+public class MotionTrackingListener implements SessionPlayer.Listener {
+
+    private final MTGLRenderer mRenderer;
+    private final PoseReadout mPoseReadout;
+    private final PoseBus mPoseBus;
+    private final FrameScheduler mFrameScheduler;
+
+    /**
+     * @param frameScheduler
+     *            asked for a frame after each pose, or null when there is no view.
+     */
+    public MotionTrackingListener(MTGLRenderer renderer, PoseReadout poseReadout,
+            PoseBus poseBus, FrameScheduler frameScheduler) {
+        mRenderer = renderer;
+        mPoseReadout = poseReadout;
+        mPoseBus = poseBus;
+        mFrameScheduler = frameScheduler;
+    }
+
+    @Override
+    public void onPose(PoseEvent pose) {
+        // Every pose goes into the trajectory and the readout counts, here on
+        // the callback thread, so that a stalled frame loses none.
+        mRenderer.addTrajectoryPoint(pose.translation);
+        mPoseReadout.update(pose.timestamp, pose.statusCode, pose.translation, pose.rotation);
+        // Hand the pose to the renderer, and ask for a frame; frames are
+        // requested at most once per vsync.
+        mPoseBus.publish(pose.timestamp, pose.baseFrame, pose.targetFrame, pose.statusCode,
+                pose.translation, pose.rotation);
+        if (mFrameScheduler != null) {
+            mFrameScheduler.requestRender();
+        }
+    }
+
+    @Override
+    public void onXyzIj(double timestamp, FloatBuffer points, int pointCount) {
+        // We are not using depth data for this application
+    }
+}
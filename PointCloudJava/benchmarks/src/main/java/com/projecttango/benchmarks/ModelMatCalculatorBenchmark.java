@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.benchmarks;
+
+import com.projecttango.tangoutils.ModelMatCalculator;
+import com.projecttango.tangoutils.math.Mat4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost and garbage of composing one pose with {@link ModelMatCalculator},
+ * against the original chain that inverted the extrinsics and allocated six
+ * float[16] arrays on every pose. Run {@link #main} or pass -prof gc to JMH;
+ * the gc.alloc.rate.norm line is the number of bytes allocated per pose.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelMatCalculatorBenchmark {
+
+    private static final float[] CONVERSION_MATRIX = new float[] { 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f };
+
+    private final ModelMatCalculator mCalculator = new ModelMatCalculator();
+    private final float[] mTranslation = { 0.5f, -1.25f, 0.75f };
+    private final float[] mRotation = { 0.18f, -0.42f, 0.07f, 0.886f };
+    private final float[] mPointCloudMatrix = new float[16];
+
+    // Extrinsics as the original chain kept them
+    private float[] mDevice2IMUMatrix;
+    private float[] mColorCamera2IMUMatrix;
+    private final float[] mOpengl2ColorCameraMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f };
+    private final float[] mModelMatrix = new float[16];
+
+    @Setup
+    public void setUp() {
+        float[] deviceTranslation = { 0.01f, 0.02f, -0.005f };
+        float[] deviceRotation = { 0f, 0f, 0.7071068f, 0.7071068f };
+        float[] cameraTranslation = { 0.06f, -0.003f, 0.001f };
+        float[] cameraRotation = { 0.7071068f, 0f, 0f, 0.7071068f };
+        mCalculator.SetDevice2IMUMatrix(deviceTranslation, deviceRotation);
+        mCalculator.SetColorCamera2IMUMatrix(cameraTranslation, cameraRotation);
+
+        mDevice2IMUMatrix = ModelMatCalculator.quaternionMatrixOpenGL(deviceRotation);
+        System.arraycopy(deviceTranslation, 0, mDevice2IMUMatrix, 12, 3);
+        mColorCamera2IMUMatrix = ModelMatCalculator.quaternionMatrixOpenGL(cameraRotation);
+        System.arraycopy(cameraTranslation, 0, mColorCamera2IMUMatrix, 12, 3);
+    }
+
+    @Benchmark
+    public float[] updateModelMatrix() {
+        mCalculator.updateModelMatrix(mTranslation, mRotation);
+        return mCalculator.getModelMatrix();
+    }
+
+    @Benchmark
+    public float[] computePointCloudModelMatrix() {
+        mCalculator.computePointCloudModelMatrix(mTranslation, mRotation, mPointCloudMatrix);
+        return mPointCloudMatrix;
+    }
+
+    /** The per-pose chain before the extrinsics were precomputed. */
+    @Benchmark
+    public float[] originalChain() {
+        float[] tempMultMatrix = new float[16];
+        Mat4.multiplyMM(tempMultMatrix, 0, mColorCamera2IMUMatrix, 0,
+                mOpengl2ColorCameraMatrix, 0);
+        float[] tempInvertMatrix = new float[16];
+        Mat4.invertM(tempInvertMatrix, 0, mDevice2IMUMatrix, 0);
+        float[] tempMultMatrix2 = new float[16];
+        Mat4.multiplyMM(tempMultMatrix2, 0, tempInvertMatrix, 0, tempMultMatrix, 0);
+        float[] quaternionMatrix = ModelMatCalculator.quaternionMatrixOpenGL(mRotation);
+        float[] tempMultMatrix3 = new float[16];
+        Mat4.multiplyMM(tempMultMatrix3, 0, quaternionMatrix, 0, tempMultMatrix2, 0);
+        Mat4.multiplyMM(mModelMatrix, 0, CONVERSION_MATRIX, 0, tempMultMatrix3, 0);
+        mModelMatrix[12] += mTranslation[0];
+        mModelMatrix[13] += mTranslation[2];
+        mModelMatrix[14] += -1f * mTranslation[1];
+        return mModelMatrix;
+    }
+
+    /** Runs this benchmark with the allocation profiler. */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ModelMatCalculatorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
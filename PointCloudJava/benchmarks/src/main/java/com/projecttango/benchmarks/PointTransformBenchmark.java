@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.benchmarks;
+
+import com.projecttango.tangoutils.math.Mat4;
+import com.projecttango.tangoutils.math.Quat;
+import com.projecttango.tangoutils.renderables.PointTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the batch {@link PointTransform} kernel with the per-point path it
+ * replaced in PointCloud.addPoints, which copied every point into a float[4],
+ * multiplied it with Matrix.multiplyMV and put the result back. Off device
+ * the per-point path uses {@link Mat4#multiplyMV}, which computes the same
+ * values without the JNI call, so its cost here is a lower bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointTransformBenchmark {
+
+    private static final int FLOATS_PER_POINT = 3;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int pointCount;
+
+    private final float[] mModelMatrix = new float[16];
+    private final float[] mPointVec = new float[4];
+    private final float[] mOutVec = new float[4];
+    private FloatBuffer mSrc;
+    private FloatBuffer mDst;
+
+    @Setup
+    public void setUp() {
+        mSrc = allocate(pointCount);
+        mDst = allocate(pointCount);
+        Random random = new Random(42);
+        for (int i = 0; i < pointCount * FLOATS_PER_POINT; i++) {
+            mSrc.put(i, random.nextFloat() * 8 - 4);
+        }
+        // A device pose: rotated about a tilted axis and translated.
+        float[] rotation = { 0.18f, -0.42f, 0.07f, 0.886f };
+        Quat.normalize(rotation, 0);
+        Quat.toMatrix(rotation, 0, mModelMatrix, 0);
+        mModelMatrix[12] = 1.5f;
+        mModelMatrix[13] = -0.25f;
+        mModelMatrix[14] = 2f;
+    }
+
+    @Benchmark
+    public FloatBuffer batchKernel() {
+        PointTransform.transform(mModelMatrix, mSrc, 0, mDst, 0, pointCount);
+        return mDst;
+    }
+
+    @Benchmark
+    public FloatBuffer perPointMultiplyMV() {
+        mSrc.position(0);
+        mDst.position(0);
+        for (int i = 0; i < pointCount; i++) {
+            mPointVec[0] = mSrc.get();
+            mPointVec[1] = mSrc.get();
+            mPointVec[2] = mSrc.get();
+            mPointVec[3] = 1;
+            Mat4.multiplyMV(mOutVec, 0, mModelMatrix, 0, mPointVec, 0);
+            mDst.put(mOutVec[0]);
+            mDst.put(mOutVec[1]);
+            mDst.put(mOutVec[2]);
+        }
+        return mDst;
+    }
+
+    private static FloatBuffer allocate(int points) {
+        return ByteBuffer.allocateDirect(points * FLOATS_PER_POINT * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
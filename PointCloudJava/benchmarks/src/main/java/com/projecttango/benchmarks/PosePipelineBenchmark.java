@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.benchmarks;
+
+import com.projecttango.tangoutils.ModelMatCalculator;
+import com.projecttango.tangoutils.math.Mat4;
+import com.projecttango.tangoutils.math.Quat;
+import com.projecttango.tangoutils.renderables.Renderable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-pose matrix work of a frame, as done by Renderer and PCRenderer:
+ * compose the device model matrix, derive the view matrix for the current
+ * view, and bring the MVP matrices of a device-attached and a static
+ * renderable up to date. Poses are replayed from a fixed random walk so the
+ * view-projection product changes on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PosePipelineBenchmark {
+
+    private static final int POSE_COUNT = 1024;
+    // View ids of Renderer
+    private static final int FIRST_PERSON = 0;
+    private static final int THIRD_PERSON = 1;
+    private static final int TOP_DOWN = 2;
+
+    /** Renderer view: first person, third person or top down. */
+    @Param({ "FIRST_PERSON", "THIRD_PERSON", "TOP_DOWN" })
+    public String view;
+
+    /** A renderable whose draw is not needed to exercise its matrices. */
+    private static final class MatrixOnly extends Renderable {
+        @Override
+        public void draw(float[] viewMatrix, float[] projectionMatrix) {
+        }
+    }
+
+    private final ModelMatCalculator mCalculator = new ModelMatCalculator();
+    private final float[] mTranslations = new float[POSE_COUNT * 3];
+    private final float[] mRotations = new float[POSE_COUNT * 4];
+    private final float[] mTranslation = new float[3];
+    private final float[] mRotation = new float[4];
+    private final float[] mDevicePosition = new float[3];
+    private final float[] mCameraPosition = { 5f, 5f, 5f };
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mProjectionMatrix = new float[16];
+    private final MatrixOnly mCameraFrustum = new MatrixOnly();
+    private final MatrixOnly mGrid = new MatrixOnly();
+    private int mViewId;
+    private int mPose;
+
+    @Setup
+    public void setUp() {
+        if (view.equals("FIRST_PERSON")) {
+            mViewId = FIRST_PERSON;
+        } else if (view.equals("THIRD_PERSON")) {
+            mViewId = THIRD_PERSON;
+        } else {
+            mViewId = TOP_DOWN;
+        }
+        Mat4.perspectiveM(mProjectionMatrix, 0, 45, 16f / 9f, 0.1f, 1000);
+        mCameraFrustum.setModelMatrix(mCalculator.getModelMatrix());
+        Mat4.setIdentityM(mGrid.getModelMatrix(), 0);
+        Mat4.translateM(mGrid.getModelMatrix(), 0, 0, -1.3f, 0);
+
+        // A walk with small steps and slowly drifting orientation
+        Random random = new Random(3);
+        float[] q = { 0f, 0f, 0f, 1f };
+        float[] step = new float[4];
+        for (int i = 0; i < POSE_COUNT; i++) {
+            int t = i * 3;
+            int previous = Math.max(i - 1, 0) * 3;
+            for (int j = 0; j < 3; j++) {
+                mTranslations[t + j] = mTranslations[previous + j]
+                        + (random.nextFloat() - 0.5f) * 0.02f;
+                step[j] = (random.nextFloat() - 0.5f) * 0.01f;
+            }
+            step[3] = 1f;
+            Quat.normalize(step, 0);
+            Quat.multiply(q, 0, q, 0, step, 0);
+            Quat.normalize(q, 0);
+            System.arraycopy(q, 0, mRotations, i * 4, 4);
+        }
+    }
+
+    @Benchmark
+    public float[] pose() {
+        System.arraycopy(mTranslations, mPose * 3, mTranslation, 0, 3);
+        System.arraycopy(mRotations, mPose * 4, mRotation, 0, 4);
+        mPose = (mPose + 1) % POSE_COUNT;
+
+        mCalculator.updateModelMatrix(mTranslation, mRotation);
+        updateViewMatrix();
+        mCameraFrustum.updateMvpMatrix(mViewMatrix, mProjectionMatrix);
+        mGrid.updateMvpMatrix(mViewMatrix, mProjectionMatrix);
+        return mGrid.getMvpMatrix();
+    }
+
+    /** Same as Renderer.updateViewMatrix. */
+    private void updateViewMatrix() {
+        mCalculator.getTranslation(mDevicePosition);
+        switch (mViewId) {
+        case FIRST_PERSON:
+            Mat4.invertRigidM(mViewMatrix, 0, mCalculator.getModelMatrix(), 0);
+            break;
+        case THIRD_PERSON:
+            Mat4.setLookAtM(mViewMatrix, 0, mDevicePosition[0] + mCameraPosition[0],
+                    mCameraPosition[1] + mDevicePosition[1],
+                    mCameraPosition[2] + mDevicePosition[2], mDevicePosition[0],
+                    mDevicePosition[1], mDevicePosition[2], 0f, 1f, 0f);
+            break;
+        default:
+            Mat4.setLookAtM(mViewMatrix, 0, mDevicePosition[0] + mCameraPosition[0],
+                    mCameraPosition[1], mCameraPosition[2] + mDevicePosition[2],
+                    mDevicePosition[0] + mCameraPosition[0], mCameraPosition[1] - 5,
+                    mCameraPosition[2] + mDevicePosition[2], 0f, 0f, -1f);
+            break;
+        }
+    }
+}
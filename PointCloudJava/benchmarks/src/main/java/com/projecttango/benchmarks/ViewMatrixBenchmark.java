@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.benchmarks;
+
+import com.projecttango.tangoutils.math.Mat4;
+import com.projecttango.tangoutils.math.Quat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First-person view matrix from the device model matrix. The original code
+ * allocated two float[16] arrays, inverted the model matrix with the general
+ * inverse and multiplied it by an identity view matrix; Renderer now writes
+ * the rigid inverse straight into the view matrix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewMatrixBenchmark {
+
+    private final float[] mModelMatrix = new float[16];
+    private final float[] mViewMatrix = new float[16];
+
+    @Setup
+    public void setUp() {
+        float[] rotation = { 0.18f, -0.42f, 0.07f, 0.886f };
+        Quat.normalize(rotation, 0);
+        Quat.toMatrix(rotation, 0, mModelMatrix, 0);
+        mModelMatrix[12] = 1.5f;
+        mModelMatrix[13] = -0.25f;
+        mModelMatrix[14] = 2f;
+    }
+
+    /** The first-person case of Renderer.updateViewMatrix before the change. */
+    @Benchmark
+    public float[] originalInverse() {
+        float[] invertModelMat = new float[16];
+        Mat4.setIdentityM(invertModelMat, 0);
+
+        float[] temporaryMatrix = new float[16];
+        Mat4.setIdentityM(temporaryMatrix, 0);
+
+        Mat4.setIdentityM(mViewMatrix, 0);
+        Mat4.invertM(invertModelMat, 0, mModelMatrix, 0);
+        Mat4.multiplyMM(temporaryMatrix, 0, mViewMatrix, 0, invertModelMat, 0);
+        System.arraycopy(temporaryMatrix, 0, mViewMatrix, 0, 16);
+        return mViewMatrix;
+    }
+
+    @Benchmark
+    public float[] generalInverse() {
+        Mat4.invertM(mViewMatrix, 0, mModelMatrix, 0);
+        return mViewMatrix;
+    }
+
+    @Benchmark
+    public float[] rigidInverse() {
+        Mat4.invertRigidM(mViewMatrix, 0, mModelMatrix, 0);
+        return mViewMatrix;
+    }
+}
@@ -16,10 +16,19 @@
 
 package com.projecttango.pointcloudjava;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
 
 import com.google.atap.tangoservice.Tango;
 import com.google.atap.tangoservice.TangoConfig;
@@ -30,10 +39,17 @@ import com.google.atap.tangoservice.TangoOutOfDateException;
 import com.google.atap.tangoservice.TangoPoseData;
 import com.google.atap.tangoservice.TangoXyzIjData;
 import com.google.atap.tangoservice.Tango.OnTangoUpdateListener;
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.SessionRecorder;
+import com.projecttango.tangoutils.renderables.PointCloudWriter;
 
 import android.content.Intent;
 import android.opengl.GLSurfaceView;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
@@ -58,7 +74,7 @@ import android.widget.Toast;
 public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Callback {
 
     private static final String TAG = JPointCloud.class.getSimpleName();
-    private static int SECS_TO_MILLI = 1000;
+    private static final int XYZ_BYTES_PER_POINT = 3 * 4;
     private Tango mTango;
     private TangoConfig mConfig;
     boolean haveMotionPermission = false;
@@ -66,6 +82,7 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
 
     private PCRenderer mRenderer;
     private GLSurfaceView mGLView;
+    private FrameScheduler mFrameScheduler;
     private Surface mSurface;
 
     private TextView mTangoEventTextView;
@@ -73,9 +90,17 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
     private TextView mFrequencyTextView;
     private Button startButton;
 
-    private float mXyIjPreviousTimeStamp;
-    private float mCurrentTimeStamp;
     private boolean mIsTangoServiceConnected;
+    private ByteBuffer mXyzIjBuffer;
+    /** Float view of mXyzIjBuffer handed to the listener. */
+    private FloatBuffer mXyzIjPoints;
+    /** Channel reading the depth points of the service's descriptor, kept across frames. */
+    private ParcelFileDescriptor mXyzIjDescriptor;
+    private FileChannel mXyzIjChannel;
+    private PointCloudListener mListener;
+    /** Session being recorded, or null. */
+    private SessionRecorder mRecorder;
+    private FileOutputStream mRecorderStream;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -133,6 +158,10 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
         mGLView.setEGLContextClientVersion(2);
         mGLView.setRenderer(mRenderer);
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mFrameScheduler = new FrameScheduler(mGLView);
+        mRenderer.setFrameScheduler(mFrameScheduler);
+        mListener = new PointCloudListener(mRenderer, new TangoPoseSource(mTango),
+                mFrameScheduler);
 
         mIsTangoServiceConnected = false;
     }
@@ -149,12 +178,14 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
     @Override
     protected void onPause() {
         super.onPause();
+        stopRecording();
         try {
             mTango.disconnect();
             mIsTangoServiceConnected = false;
         } catch (TangoErrorException e) {
             showError(R.string.TangoError, e);
         }
+        closeXyzIjChannel();
     }
 
     @Override
@@ -222,8 +253,11 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
-        menu.findItem(R.id.menu_save_data)
-                .setEnabled(mRenderer.getState() == PCRenderer.STATE_STOPPED);
+        // Saving exports a snapshot, so collection does not need to stop.
+        menu.findItem(R.id.menu_save_data).setEnabled(mRenderer.getPointCount() > 0);
+        menu.findItem(R.id.menu_voxel_downsampling)
+                .setChecked(mRenderer.getVoxelLeafSize() > 0);
+        menu.findItem(R.id.menu_record_session).setChecked(mRecorder != null);
         return true;
     }
 
@@ -233,25 +267,26 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
             case android.R.id.home:
                 onBackPressed();
                 return true;
-            case R.id.menu_save_data:
-                Toast.makeText(getApplicationContext(), getString(R.string.saving_data),
-                        Toast.LENGTH_SHORT).show();
-                mRenderer.saveData(this, new PCRenderer.SaveDataListener() {
-                    @Override
-                    public void onDataSaved(String fileName) {
-                        Toast.makeText(getApplicationContext(), getString(R.string.save_success)
-                                        + fileName, Toast.LENGTH_SHORT).show();
-                    }
-                    @Override
-                    public void onSaveFailed(final Throwable e) {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                showError(e.getMessage(), e);
-                            }
-                        });
-                    }
-                });
+            case R.id.menu_save_txt:
+                saveData(PointCloudWriter.FORMAT_TXT);
+                return true;
+            case R.id.menu_save_ply:
+                saveData(PointCloudWriter.FORMAT_PLY);
+                return true;
+            case R.id.menu_save_pcd:
+                saveData(PointCloudWriter.FORMAT_PCD);
+                return true;
+            case R.id.menu_voxel_downsampling:
+                item.setChecked(!item.isChecked());
+                mRenderer.setVoxelLeafSize(item.isChecked()
+                        ? PCRenderer.DEFAULT_VOXEL_LEAF_SIZE : 0);
+                return true;
+            case R.id.menu_record_session:
+                if (mRecorder == null) {
+                    startRecording();
+                } else {
+                    stopRecording();
+                }
                 return true;
             case R.id.menu_first_person:
                 mRenderer.setFirstPersonView();
@@ -266,6 +301,83 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
         return super.onOptionsItemSelected(item);
     }
 
+    private void saveData(int format) {
+        Toast.makeText(getApplicationContext(), getString(R.string.saving_data),
+                Toast.LENGTH_SHORT).show();
+        mRenderer.saveData(this, format, new PCRenderer.SaveDataListener() {
+            @Override
+            public void onDataSaved(String fileName) {
+                Toast.makeText(getApplicationContext(), getString(R.string.save_success)
+                                + fileName, Toast.LENGTH_SHORT).show();
+            }
+            @Override
+            public void onSaveFailed(final Throwable e) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showError(e.getMessage(), e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts recording the poses and depth frames to a session log in the app's downloads
+     * directory.
+     */
+    private void startRecording() {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+        File file = new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS),
+                formatter.format(new Date()) + ".session");
+        try {
+            mRecorderStream = new FileOutputStream(file);
+        } catch (IOException e) {
+            showError(e.getMessage(), e);
+            return;
+        }
+        mRecorder = new SessionRecorder(mRecorderStream.getChannel());
+        mListener.setRecorder(mRecorder);
+        Toast.makeText(getApplicationContext(), getString(R.string.recording_session)
+                + file.getPath(), Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Stops recording and finishes the session log in the background.
+     */
+    private void stopRecording() {
+        final SessionRecorder recorder = mRecorder;
+        final FileOutputStream stream = mRecorderStream;
+        if (recorder == null) {
+            return;
+        }
+        mListener.setRecorder(null);
+        mRecorder = null;
+        mRecorderStream = null;
+        new AsyncTask<Void, Void, IOException>() {
+            @Override
+            protected IOException doInBackground(Void... params) {
+                try {
+                    recorder.close();
+                    stream.close();
+                } catch (IOException e) {
+                    return e;
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(IOException result) {
+                if (result != null) {
+                    showError(result.getMessage(), result);
+                    return;
+                }
+                Log.i(TAG, "Recorded " + recorder.getRecordCount() + " records, dropped "
+                        + recorder.getDroppedCount());
+            }
+        }.execute();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         return mRenderer.onTouchEvent(event);
@@ -317,6 +429,65 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
                 color2IMUPose.getRotationAsFloats());
     }
 
+    /**
+     * Reads the points of a depth frame into a direct buffer that is reused
+     * across frames instead of a fresh array per callback. The parcel
+     * offset is a position in the shared file, so it is passed to a
+     * positional FileChannel read rather than used as an array offset. A
+     * short read yields a buffer limited to the points actually read. The
+     * channel is opened once per descriptor and kept for later frames, so
+     * reading a frame allocates nothing once the buffer is large enough.
+     */
+    private synchronized FloatBuffer readXyzIj(TangoXyzIjData xyzIj) {
+        int byteCount = xyzIj.xyzCount * XYZ_BYTES_PER_POINT;
+        if (mXyzIjBuffer == null || mXyzIjBuffer.capacity() < byteCount) {
+            mXyzIjBuffer = ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
+            mXyzIjPoints = mXyzIjBuffer.asFloatBuffer();
+        }
+        mXyzIjBuffer.clear();
+        mXyzIjBuffer.limit(byteCount);
+        if (xyzIj.xyzParcelFileDescriptor != mXyzIjDescriptor) {
+            closeXyzIjChannel();
+            mXyzIjChannel = new FileInputStream(
+                    xyzIj.xyzParcelFileDescriptor.getFileDescriptor()).getChannel();
+            mXyzIjDescriptor = xyzIj.xyzParcelFileDescriptor;
+        }
+        try {
+            long position = xyzIj.xyzParcelFileDescriptorOffset;
+            while (mXyzIjBuffer.hasRemaining()) {
+                int read = mXyzIjChannel.read(mXyzIjBuffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Open a fresh channel for the next frame
+            closeXyzIjChannel();
+        }
+        int pointCount = mXyzIjBuffer.position() / XYZ_BYTES_PER_POINT;
+        mXyzIjPoints.clear();
+        mXyzIjPoints.limit(pointCount * 3);
+        return mXyzIjPoints;
+    }
+
+    /**
+     * Drops the cached depth channel. The stream was made from a descriptor
+     * it does not own, so closing it leaves the service's descriptor open.
+     */
+    private synchronized void closeXyzIjChannel() {
+        if (mXyzIjChannel != null) {
+            try {
+                mXyzIjChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mXyzIjChannel = null;
+            mXyzIjDescriptor = null;
+        }
+    }
+
     private void setTangoListeners() {
         // Configure the Tango coordinate frame pair
         final ArrayList<TangoCoordinateFramePair> framePairs = new ArrayList<>();
@@ -328,45 +499,24 @@ public class JPointCloud extends ActionBarActivity implements SurfaceHolder.Call
                 TangoPoseData.COORDINATE_FRAME_DEVICE));
         // Listen for new Tango data
         mTango.connectListener(framePairs, new OnTangoUpdateListener() {
+            private final PoseEvent mPoseEvent = new PoseEvent();
 
             @Override
             public void onPoseAvailable(final TangoPoseData pose) {
-                if (pose.baseFrame == TangoPoseData.COORDINATE_FRAME_AREA_DESCRIPTION) {
-                    mRenderer.getModelMatCalculator().updateModelMatrix(
-                            pose.getTranslationAsFloats(),
-                            pose.getRotationAsFloats());
-                    mRenderer.updateViewMatrix();
-                    mGLView.requestRender();
-                }
+                mPoseEvent.set(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                        pose.statusCode, pose.translation, pose.rotation);
+                mListener.onPose(mPoseEvent);
             }
 
             @Override
             public void onXyzIjAvailable(final TangoXyzIjData xyzIj) {
-                mCurrentTimeStamp = (float) xyzIj.timestamp;
-                final float frameDelta = (mCurrentTimeStamp - mXyIjPreviousTimeStamp)
-                        * SECS_TO_MILLI;
-                mXyIjPreviousTimeStamp = mCurrentTimeStamp;
-                byte[] buffer = new byte[xyzIj.xyzCount * 3 * 4];
-                FileInputStream fileStream = new FileInputStream(
-                        xyzIj.xyzParcelFileDescriptor.getFileDescriptor());
-                try {
-                    fileStream.read(buffer, xyzIj.xyzParcelFileDescriptorOffset, buffer.length);
-                    fileStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                FloatBuffer points = readXyzIj(xyzIj);
                 try {
-
-                    TangoPoseData pointCloudPose = mTango.getPoseAtTime(
-                            mCurrentTimeStamp, framePairs.get(0));
-
-                    mRenderer.addPointCloud(buffer, xyzIj.xyzCount,
-                            pointCloudPose.getTranslationAsFloats(),
-                            pointCloudPose.getRotationAsFloats());
-
+                    mListener.onXyzIj(xyzIj.timestamp, points, points.limit() / 3);
                 } catch (Exception e) {
                     showError(R.string.TangoError, e);
                 }
+                final double frameDelta = mListener.getFrameDeltaMillis();
 
                 // Must run UI changes on the UI thread. Running in the Tango
                 // service thread will result in an error.
@@ -20,9 +20,13 @@ import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import com.projecttango.tangoutils.Renderer;
+import com.projecttango.tangoutils.TripleBuffer;
 import com.projecttango.tangoutils.renderables.CameraFrustumAndAxis;
 import com.projecttango.tangoutils.renderables.Grid;
 import com.projecttango.tangoutils.renderables.PointCloud;
+import com.projecttango.tangoutils.renderables.PointCloudWriter;
+import com.projecttango.tangoutils.renderables.PointTransform;
+import com.projecttango.tangoutils.renderables.RenderUtils;
 
 import android.content.Context;
 import android.opengl.GLES20;
@@ -35,9 +39,14 @@ import android.util.Log;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
     private static final String TAG = "PCRenderer";
@@ -46,37 +55,160 @@ public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
     public static final int STATE_ACCUMULATING = 1;
     public static final int STATE_STOPPED = 2;
 
-    private PointCloud pointCloud;
-    private int state;
+    /** Voxel edge length in meters used when downsampling is switched on. */
+    public static final float DEFAULT_VOXEL_LEAF_SIZE = 0.02f;
+
+    /**
+     * Distance in meters the device may move from the render origin before
+     * the origin is moved to it. Keeps view and model matrices small enough
+     * for float precision on large scans.
+     */
+    public static final double RECENTER_DISTANCE = 64;
+
+    /**
+     * Created with the GL surface; read from the UI and save threads, which
+     * must cope with it still being null.
+     */
+    private volatile PointCloud pointCloud;
+    private volatile int state;
+    private volatile float voxelLeafSize;
+    private volatile boolean clearRequested;
+
+    /** Depth frames queued for the GL thread in accumulating mode. */
+    private static final int ACCUMULATE_QUEUE_SIZE = 4;
+
+    /**
+     * Realtime depth frames already transformed to world space, handed from
+     * the Tango callback thread to the GL thread without a shared lock. Only
+     * the newest one matters, so older ones may be superseded.
+     */
+    private final TripleBuffer<DepthFrame> mDepthFrames = new TripleBuffer<DepthFrame>(
+            new DepthFrame(), new DepthFrame(), new DepthFrame());
+    /**
+     * Accumulating depth frames travel through a small pool instead, so none
+     * are lost: the callback thread fills {@link #mAccumulatingFrame} and
+     * queues it when a free frame is available, and otherwise keeps merging
+     * further frames into it until the GL thread catches up.
+     */
+    private final BlockingQueue<DepthFrame> mFreeFrames =
+            new ArrayBlockingQueue<>(ACCUMULATE_QUEUE_SIZE);
+    private final BlockingQueue<DepthFrame> mQueuedFrames =
+            new ArrayBlockingQueue<>(ACCUMULATE_QUEUE_SIZE);
+    /** Owned by the callback thread. */
+    private DepthFrame mAccumulatingFrame = new DepthFrame();
+    private volatile long mPublishedFrameCount;
+    private volatile long mSupersededFrameCount;
+    private volatile long mMergedFrameCount;
+    private volatile long mDroppedFrameCount;
+    /** Depth camera to world rotation; only used on the callback thread. */
+    private final float[] mDepthModelMatrix = new float[16];
+    private final double[] mDepthTranslation = new double[3];
+    private static final float[] ZERO_TRANSLATION = new float[3];
+
+    /** Newest device pose from the pose callback, applied when a frame starts. */
+    private final Object mPoseLock = new Object();
+    private final double[] mPendingTranslation = new double[3];
+    private final float[] mPendingRotation = new float[4];
+    private boolean mPosePending;
+    // Only used on the GL thread.
+    private final double[] mDeviceTranslation = new double[3];
+    private final float[] mDeviceRotation = new float[4];
+    /** Render origin in the Tango start of service frame. */
+    private final double[] mRenderOrigin = new double[3];
+    private final float[] mLocalTranslation = new float[3];
 
     private Grid mGrid;
     private CameraFrustumAndAxis mCameraFrustumAndAxis;
 
-    public synchronized void setState(int state) {
+    /**
+     * One or more depth frames rotated into world axes, the world position
+     * they are relative to, and whether they replace the current cloud
+     * (realtime mode) or add to it.
+     */
+    static class DepthFrame {
+        FloatBuffer points;
+        int pointCount;
+        double originX;
+        double originY;
+        double originZ;
+        boolean replacesCloud;
+        private final float[] mMergeMatrix = new float[16];
+
+        void set(float[] modelMatrix, FloatBuffer src, int count) {
+            ensureCapacity(count, false);
+            PointTransform.transform(modelMatrix, src, 0, points, 0, count);
+            pointCount = count;
+        }
+
+        /**
+         * Appends a frame whose origin may differ from this one's. The
+         * difference is small, so it is folded into the transform in float,
+         * on top of the depth camera offset the model matrix already holds.
+         */
+        void merge(float[] modelMatrix, FloatBuffer src, int count,
+                   double x, double y, double z) {
+            System.arraycopy(modelMatrix, 0, mMergeMatrix, 0, 16);
+            mMergeMatrix[12] += (float) (x - originX);
+            mMergeMatrix[13] += (float) (y - originY);
+            mMergeMatrix[14] += (float) (z - originZ);
+            ensureCapacity(pointCount + count, true);
+            PointTransform.transform(mMergeMatrix, src, 0, points, pointCount, count);
+            pointCount += count;
+        }
+
+        private void ensureCapacity(int count, boolean keep) {
+            int floatCount = count * 3;
+            if (points != null && points.capacity() >= floatCount) {
+                return;
+            }
+            if (keep && points != null) {
+                floatCount = Math.max(floatCount, points.capacity() * 2);
+            }
+            FloatBuffer grown = ByteBuffer.allocateDirect(floatCount * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            if (keep && points != null) {
+                points.position(0).limit(pointCount * 3);
+                grown.put(points);
+                points.clear();
+                grown.clear();
+            }
+            points = grown;
+        }
+    }
+
+    public void setState(int state) {
         this.state = state;
         if (state == STATE_ACCUMULATING) {
             // do nothing, so that points will continue to accumulate
         } else if (state == STATE_REALTIME) {
-            pointCloud.clear();
+            // The GL thread owns the point cloud; it clears it on the next frame.
+            clearRequested = true;
         }
     }
 
-    public synchronized int getState() {
+    public int getState() {
         return state;
     }
 
     public PCRenderer() {
         state = STATE_REALTIME;
+        for (int i = 0; i < ACCUMULATE_QUEUE_SIZE; i++) {
+            mFreeFrames.add(new DepthFrame());
+        }
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // Programs from a previous surface died with its context.
+        RenderUtils.clearProgramCache();
         GLES20.glClearColor(0.2f, 0.2f, 0.2f, 1.0f);
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
         mGrid = new Grid();
         mCameraFrustumAndAxis = new CameraFrustumAndAxis();
-        pointCloud = new PointCloud();
+        PointCloud cloud = new PointCloud();
+        cloud.setVoxelLeafSize(voxelLeafSize);
+        pointCloud = cloud;
         Matrix.setIdentityM(mViewMatrix, 0);
         Matrix.setLookAtM(mViewMatrix, 0, 5f, 5f, 5f, 0f, 0f, 0f, 0f, 1f, 0f);
         mCameraFrustumAndAxis.setModelMatrix(getModelMatCalculator().getModelMatrix());
@@ -91,27 +223,235 @@ public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
     }
 
     @Override
-    public synchronized void onDrawFrame(GL10 gl) {
+    public void onDrawFrame(GL10 gl) {
+        beginFrame();
+        latchDevicePose();
+        consumeDepthFrame();
+        // Start of service to OpenGL axes, as in ModelMatCalculator.
+        double originX = mRenderOrigin[0];
+        double originY = mRenderOrigin[2];
+        double originZ = -mRenderOrigin[1];
+        pointCloud.setRenderOrigin(originX, originY, originZ);
+        // The grid stays at the world origin.
+        Matrix.setIdentityM(mGrid.getModelMatrix(), 0);
+        Matrix.translateM(mGrid.getModelMatrix(), 0,
+                (float) -originX, (float) -originY, (float) -originZ);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         mGrid.draw(mViewMatrix, mProjectionMatrix);
         pointCloud.draw(mViewMatrix, mProjectionMatrix);
         mCameraFrustumAndAxis.draw(mViewMatrix, mProjectionMatrix);
     }
 
-    public synchronized void addPointCloud(byte[] byteArray, int pointCount,
-                                                 float[] translation, float[] rotation) {
-        if (state == STATE_STOPPED) {
-            return;
+    /**
+     * Stores the newest device pose. Called from the pose callback thread;
+     * the pose is applied when the next frame starts, so poses that arrive
+     * faster than frames are drawn only cost a copy.
+     *
+     * @param translation
+     *            device position in the Tango frame, in double precision.
+     * @param rotation
+     *            device orientation quaternion x, y, z, w.
+     */
+    public void updateDevicePose(double[] translation, float[] rotation) {
+        synchronized (mPoseLock) {
+            System.arraycopy(translation, 0, mPendingTranslation, 0, 3);
+            System.arraycopy(rotation, 0, mPendingRotation, 0, 4);
+            mPosePending = true;
+        }
+    }
+
+    /**
+     * Applies the newest pose to the model and view matrices. Matrices are
+     * kept relative to a render origin, which is moved to the device whenever
+     * it gets further than {@link #RECENTER_DISTANCE} away, so that they only
+     * ever hold small numbers.
+     *
+     * Runs on the GL thread while {@link #addPointCloud} may be transforming
+     * a depth frame on the callback thread. Both go through the shared
+     * ModelMatCalculator, which keeps separate scratch matrices for the
+     * device pose and for depth frames, so neither sees the other's rotation.
+     */
+    private void latchDevicePose() {
+        synchronized (mPoseLock) {
+            if (!mPosePending) {
+                return;
+            }
+            System.arraycopy(mPendingTranslation, 0, mDeviceTranslation, 0, 3);
+            System.arraycopy(mPendingRotation, 0, mDeviceRotation, 0, 4);
+            mPosePending = false;
         }
-        if (state == STATE_REALTIME) {
+        double dx = mDeviceTranslation[0] - mRenderOrigin[0];
+        double dy = mDeviceTranslation[1] - mRenderOrigin[1];
+        double dz = mDeviceTranslation[2] - mRenderOrigin[2];
+        if (dx * dx + dy * dy + dz * dz > RECENTER_DISTANCE * RECENTER_DISTANCE) {
+            System.arraycopy(mDeviceTranslation, 0, mRenderOrigin, 0, 3);
+        }
+        for (int i = 0; i < 3; i++) {
+            mLocalTranslation[i] = (float) (mDeviceTranslation[i] - mRenderOrigin[i]);
+        }
+        getModelMatCalculator().updateModelMatrix(mLocalTranslation, mDeviceRotation);
+        updateViewMatrix();
+    }
+
+    /**
+     * Applies pending state changes, the latest realtime depth frame and all
+     * queued accumulating frames to the point cloud. Runs on the GL thread,
+     * which is the only thread that modifies the cloud.
+     */
+    private void consumeDepthFrame() {
+        if (pointCloud.getVoxelLeafSize() != voxelLeafSize) {
+            pointCloud.setVoxelLeafSize(voxelLeafSize);
+        }
+        if (clearRequested) {
+            clearRequested = false;
             pointCloud.clear();
         }
-        getModelMatCalculator().updatePointCloudModelMatrix(translation, rotation);
-        pointCloud.addPoints(byteArray, pointCount, getModelMatCalculator().getPointCloudModelMatrixCopy());
+        DepthFrame frame = mDepthFrames.acquire();
+        if (frame != null && state != STATE_STOPPED) {
+            if (frame.replacesCloud) {
+                pointCloud.clear();
+            }
+            pointCloud.addWorldPoints(frame.points, frame.pointCount,
+                    frame.originX, frame.originY, frame.originZ);
+        }
+        // Accumulated frames were collected before any stop, so keep them.
+        while ((frame = mQueuedFrames.poll()) != null) {
+            pointCloud.addWorldPoints(frame.points, frame.pointCount,
+                    frame.originX, frame.originY, frame.originZ);
+            mFreeFrames.add(frame);
+        }
     }
 
+    public void addPointCloud(byte[] byteArray, int pointCount,
+                              float[] translation, float[] rotation) {
+        addPointCloud(ByteBuffer.wrap(byteArray).order(ByteOrder.nativeOrder()).asFloatBuffer(),
+                pointCount, translation, rotation);
+    }
+
+    public void addPointCloud(FloatBuffer points, int pointCount,
+                              float[] translation, float[] rotation) {
+        for (int i = 0; i < 3; i++) {
+            mDepthTranslation[i] = translation[i];
+        }
+        addPointCloud(points, pointCount, mDepthTranslation, rotation);
+    }
+
+    /**
+     * Transforms a depth frame to world space and publishes it to the GL
+     * thread, which adds it to the point cloud on its next frame. Called from
+     * the Tango callback thread; never blocks on rendering. The points are
+     * copied before this returns, so the caller may reuse the buffer.
+     *
+     * Points are only rotated here; the depth camera position is carried
+     * alongside in double precision, so frames far from the world origin
+     * keep millimeter resolution.
+     *
+     * In realtime mode, a frame the GL thread has not picked up yet is
+     * superseded by the next one. In accumulating mode no frame is lost: up
+     * to {@link #ACCUMULATE_QUEUE_SIZE} frames are queued, and beyond that
+     * frames are merged into one until the GL thread catches up.
+     */
+    public void addPointCloud(FloatBuffer points, int pointCount,
+                              double[] translation, float[] rotation) {
+        int currentState = state;
+        if (currentState == STATE_STOPPED) {
+            queueAccumulatingFrame();
+            mDroppedFrameCount++;
+            return;
+        }
+        getModelMatCalculator().computePointCloudModelMatrix(ZERO_TRANSLATION, rotation,
+                mDepthModelMatrix);
+        // Start of service to OpenGL axes, as in ModelMatCalculator.
+        double originX = translation[0];
+        double originY = translation[2];
+        double originZ = -translation[1];
+        if (currentState == STATE_REALTIME) {
+            // The cloud is cleared on the switch to realtime mode.
+            mAccumulatingFrame.pointCount = 0;
+            DepthFrame frame = mDepthFrames.getBack();
+            frame.set(mDepthModelMatrix, points, pointCount);
+            frame.originX = originX;
+            frame.originY = originY;
+            frame.originZ = originZ;
+            frame.replacesCloud = true;
+            if (mDepthFrames.publish()) {
+                mSupersededFrameCount++;
+            }
+        } else {
+            DepthFrame frame = mAccumulatingFrame;
+            if (frame.pointCount == 0) {
+                frame.set(mDepthModelMatrix, points, pointCount);
+                frame.originX = originX;
+                frame.originY = originY;
+                frame.originZ = originZ;
+            } else {
+                frame.merge(mDepthModelMatrix, points, pointCount, originX, originY, originZ);
+                mMergedFrameCount++;
+            }
+            queueAccumulatingFrame();
+        }
+        mPublishedFrameCount++;
+    }
+
+    /**
+     * Hands the accumulating frame to the GL thread if a free frame can take
+     * its place. Called on the callback thread.
+     */
+    private void queueAccumulatingFrame() {
+        if (mAccumulatingFrame.pointCount == 0) {
+            return;
+        }
+        DepthFrame free = mFreeFrames.poll();
+        if (free == null) {
+            return;
+        }
+        mQueuedFrames.add(mAccumulatingFrame);
+        free.pointCount = 0;
+        mAccumulatingFrame = free;
+    }
+
+    /** Number of depth frames handed to the GL thread. */
+    public long getPublishedFrameCount() {
+        return mPublishedFrameCount;
+    }
+
+    /** Number of realtime depth frames replaced before the GL thread drew them. */
+    public long getSupersededFrameCount() {
+        return mSupersededFrameCount;
+    }
+
+    /**
+     * Number of accumulating depth frames merged into an earlier one because
+     * the GL thread had fallen behind. Their points are kept.
+     */
+    public long getMergedFrameCount() {
+        return mMergedFrameCount;
+    }
+
+    /** Number of depth frames discarded because point collection was stopped. */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * Sets the voxel size used to downsample accumulated points. Takes effect
+     * on the next rendered frame.
+     *
+     * @param leafSize
+     *            voxel edge length in meters, or 0 to keep every point.
+     */
+    public void setVoxelLeafSize(float leafSize) {
+        voxelLeafSize = leafSize;
+    }
+
+    public float getVoxelLeafSize() {
+        return voxelLeafSize;
+    }
+
+    /** Number of points in the cloud, or 0 before the GL surface exists. */
     public int getPointCount() {
-        return pointCloud.getPointCount();
+        PointCloud cloud = pointCloud;
+        return cloud == null ? 0 : cloud.getPointCount();
     }
 
     public interface SaveDataListener {
@@ -120,27 +460,49 @@ public class PCRenderer extends Renderer implements GLSurfaceView.Renderer {
     }
 
     public void saveData(Context context, SaveDataListener listener) {
-        new SaveDataTask(context, listener).execute();
+        saveData(context, PointCloudWriter.FORMAT_TXT, listener);
+    }
+
+    /**
+     * Saves the point cloud to the app's downloads directory in the background.
+     *
+     * @param format
+     *            one of the PointCloudWriter FORMAT_ constants.
+     */
+    public void saveData(Context context, int format, SaveDataListener listener) {
+        new SaveDataTask(context, format, listener).execute();
     }
 
     private class SaveDataTask extends AsyncTask<String, Void, String> {
         SaveDataListener listener;
         Context context;
-        public SaveDataTask(Context context, SaveDataListener listener) {
+        int format;
+        public SaveDataTask(Context context, int format, SaveDataListener listener) {
             this.context = context;
+            this.format = format;
             this.listener = listener;
         }
         protected String doInBackground(String... params) {
             SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
             String fileName = context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS)
-                    + "/" + formatter.format(new Date()) + ".txt";
+                    + "/" + formatter.format(new Date()) + "."
+                    + PointCloudWriter.getFileExtension(format);
             Log.d(TAG, "Saving file: " + fileName);
+            PointCloud cloud = pointCloud;
+            if (cloud == null) {
+                listener.onSaveFailed(new IllegalStateException("No point cloud yet"));
+                return null;
+            }
             try {
                 File f = new File(fileName);
                 FileOutputStream outputStream = new FileOutputStream(f);
-                OutputStreamWriter writer = new OutputStreamWriter(outputStream);
-                pointCloud.writeToStream(writer);
-                writer.close();
+                if (format == PointCloudWriter.FORMAT_TXT) {
+                    OutputStreamWriter writer = new OutputStreamWriter(outputStream);
+                    cloud.writeToStream(writer);
+                    writer.close();
+                } else {
+                    cloud.writeToChannel(outputStream.getChannel(), format);
+                }
                 outputStream.close();
                 return fileName;
             } catch (Exception e) {
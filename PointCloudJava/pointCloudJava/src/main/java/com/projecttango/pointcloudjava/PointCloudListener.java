@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.pointcloudjava;
+
+import java.nio.FloatBuffer;
+
+import com.projecttango.tangoutils.FrameScheduler;
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.PoseHistory;
+import com.projecttango.tangoutils.PoseSource;
+import com.projecttango.tangoutils.SessionPlayer;
+import com.projecttango.tangoutils.SessionRecorder;
+
+/**
+ * Handles the poses and depth frames of the Point Cloud sample: registers each depth frame
+ * against the device pose at its timestamp and hands it to the {@link PCRenderer}, and records
+ * both streams while a session is being recorded. {@link JPointCloud} feeds it from the Tango
+ * service and {@link SessionReplay} from a recorded session, so the same code runs on a device
+ * and offline.
+ */
+public class PointCloudListener implements SessionPlayer.Listener {
+
+    private static final int SECS_TO_MILLI = 1000;
+
+    private final PCRenderer mRenderer;
+    private final PoseSource mPoseSource;
+    private final FrameScheduler mFrameScheduler;
+    /** Recent start-of-service poses, used to register depth frames locally. */
+    private final PoseHistory mPoseHistory = new PoseHistory();
+    private final double[] mDepthTranslation = new double[3];
+    private final float[] mDepthRotation = new float[4];
+    private final float[] mDeviceRotation = new float[4];
+    /** Session being recorded, or null; read on the Tango callback threads. */
+    private volatile SessionRecorder mRecorder;
+    private double mPreviousXyzIjTimestamp;
+    private volatile double mFrameDeltaMillis;
+    private volatile long mUnposedFrameCount;
+
+    /**
+     * @param poseSource
+     *            asked for the pose of a depth frame the local pose history cannot place.
+     * @param frameScheduler
+     *            asked for a frame after each device pose, or null when there is no view.
+     */
+    public PointCloudListener(PCRenderer renderer, PoseSource poseSource,
+            FrameScheduler frameScheduler) {
+        mRenderer = renderer;
+        mPoseSource = poseSource;
+        mFrameScheduler = frameScheduler;
+    }
+
+    /** Starts recording both streams, or stops when recorder is null. */
+    public void setRecorder(SessionRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    @Override
+    public void onPose(PoseEvent pose) {
+        SessionRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.recordPose(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                    pose.statusCode, pose.translation, pose.rotation);
+        }
+        if (pose.baseFrame == PoseEvent.COORDINATE_FRAME_START_OF_SERVICE) {
+            if (pose.statusCode == PoseEvent.POSE_VALID) {
+                mPoseHistory.add(pose.timestamp, pose.translation, pose.rotation);
+            } else {
+                mPoseHistory.clear();
+            }
+        }
+        if (pose.baseFrame == PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION) {
+            pose.copyRotation(mDeviceRotation);
+            mRenderer.updateDevicePose(pose.translation, mDeviceRotation);
+            if (mFrameScheduler != null) {
+                mFrameScheduler.requestRender();
+            }
+        }
+    }
+
+    /**
+     * Registers a depth frame and hands it to the renderer. A frame whose pose is neither in the
+     * local history nor known to the pose source is counted and skipped.
+     */
+    @Override
+    public void onXyzIj(double timestamp, FloatBuffer points, int pointCount) {
+        mFrameDeltaMillis = (timestamp - mPreviousXyzIjTimestamp) * SECS_TO_MILLI;
+        mPreviousXyzIjTimestamp = timestamp;
+        SessionRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.recordXyzIj(timestamp, points, pointCount);
+        }
+        // Interpolate from buffered poses; only ask the pose source, a
+        // blocking call on a device, when the frame is outside the window.
+        if (!mPoseHistory.getPoseAtTime(timestamp, mDepthTranslation, mDepthRotation)
+                && !mPoseSource.getPoseAtTime(timestamp,
+                        PoseEvent.COORDINATE_FRAME_START_OF_SERVICE,
+                        PoseEvent.COORDINATE_FRAME_DEVICE, mDepthTranslation, mDepthRotation)) {
+            mUnposedFrameCount++;
+            return;
+        }
+        mRenderer.addPointCloud(points, pointCount, mDepthTranslation, mDepthRotation);
+    }
+
+    /** Returns the time between the last two depth frames, in milliseconds. */
+    public double getFrameDeltaMillis() {
+        return mFrameDeltaMillis;
+    }
+
+    /** Returns the number of depth frames skipped because their pose was not valid. */
+    public long getUnposedFrameCount() {
+        return mUnposedFrameCount;
+    }
+}
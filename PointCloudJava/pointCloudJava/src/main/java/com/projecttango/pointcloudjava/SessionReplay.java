@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.pointcloudjava;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.projecttango.tangoutils.SessionPlayer;
+import com.projecttango.tangoutils.SessionReader;
+
+/**
+ * Replays a session recorded with the "Record session" menu through {@link PointCloudListener}
+ * without a device, a GL context or the Tango service, and prints how long the listener took.
+ * Depth frames are registered against the replayed poses, with the {@link SessionPlayer}
+ * standing in for the service's pose query. Runs on a desktop JVM with this app's classes, the
+ * tangoUtils classes and the SDK's android.jar on the class path:
+ *
+ * <pre>
+ * java com.projecttango.pointcloudjava.SessionReplay session-file [speed]
+ * </pre>
+ *
+ * The speed is a factor of the recorded pace; without one, records are replayed as fast as the
+ * listener takes them.
+ */
+public class SessionReplay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SessionReplay session-file [speed]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1])
+                : SessionPlayer.SPEED_UNLIMITED;
+
+        PCRenderer renderer = new PCRenderer();
+        FileInputStream stream = new FileInputStream(args[0]);
+        try {
+            SessionPlayer player = new SessionPlayer(new SessionReader(stream.getChannel()));
+            PointCloudListener listener = new PointCloudListener(renderer, player, null);
+            player.setListener(listener);
+            player.setSpeed(speed);
+            player.play();
+            System.out.println("Replayed " + player.getPoseCount() + " poses and "
+                    + player.getXyzIjCount() + " depth frames (" + player.getPointCount()
+                    + " points) in " + player.getElapsedNanos() / 1000000 + " ms");
+            System.out.println("Depth frames published " + renderer.getPublishedFrameCount()
+                    + ", superseded " + renderer.getSupersededFrameCount() + ", without a pose "
+                    + listener.getUnposedFrameCount());
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.pointcloudjava;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCoordinateFramePair;
+import com.google.atap.tangoservice.TangoPoseData;
+import com.projecttango.tangoutils.PoseSource;
+
+/**
+ * {@link PoseSource} that asks the Tango service. Each query is a blocking call to the service.
+ */
+public class TangoPoseSource implements PoseSource {
+
+    private final Tango mTango;
+
+    public TangoPoseSource(Tango tango) {
+        mTango = tango;
+    }
+
+    @Override
+    public boolean getPoseAtTime(double timestamp, int baseFrame, int targetFrame,
+            double[] translationOut, float[] rotationOut) {
+        TangoPoseData pose = mTango.getPoseAtTime(timestamp,
+                new TangoCoordinateFramePair(baseFrame, targetFrame));
+        if (pose.statusCode != TangoPoseData.POSE_VALID) {
+            return false;
+        }
+        System.arraycopy(pose.translation, 0, translationOut, 0, 3);
+        for (int i = 0; i < 4; i++) {
+            rotationOut[i] = (float) pose.rotation[i];
+        }
+        return true;
+    }
+}
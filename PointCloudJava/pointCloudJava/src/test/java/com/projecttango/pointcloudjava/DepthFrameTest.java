@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.pointcloudjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.tangoutils.ModelMatCalculator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * A depth frame merged into another must land at the same world points as
+ * when it is queued on its own.
+ */
+public class DepthFrameTest {
+
+    private static final int POINT_COUNT = 500;
+    private static final float EPSILON = 1e-5f;
+
+    private final float[] mModelMatrix = new float[16];
+
+    @Before
+    public void setUp() {
+        // Extrinsics with a device to depth camera offset of several cm
+        ModelMatCalculator calculator = new ModelMatCalculator();
+        calculator.SetDevice2IMUMatrix(new float[] { 0.01f, 0.02f, -0.005f },
+                new float[] { 0f, 0f, 0.7071068f, 0.7071068f });
+        calculator.SetColorCamera2IMUMatrix(new float[] { 0.06f, -0.003f, 0.001f },
+                new float[] { 0.7071068f, 0f, 0f, 0.7071068f });
+        calculator.computePointCloudModelMatrix(new float[3],
+                new float[] { 0.18f, -0.42f, 0.07f, 0.886f }, mModelMatrix);
+    }
+
+    @Test
+    public void mergedFrameMatchesUnmergedFrame() {
+        float offset = (float) Math.sqrt(mModelMatrix[12] * mModelMatrix[12]
+                + mModelMatrix[13] * mModelMatrix[13] + mModelMatrix[14] * mModelMatrix[14]);
+        assertTrue("the model matrix must carry the camera offset", offset > 0.01f);
+
+        FloatBuffer first = randomPoints(1);
+        FloatBuffer second = randomPoints(2);
+
+        PCRenderer.DepthFrame merged = new PCRenderer.DepthFrame();
+        merged.set(mModelMatrix, first, POINT_COUNT);
+        merged.originX = 1.25;
+        merged.originY = 1.4;
+        merged.originZ = -3.5;
+        merged.merge(mModelMatrix, second, POINT_COUNT, 1.5, 1.38, -3.2);
+
+        PCRenderer.DepthFrame single = new PCRenderer.DepthFrame();
+        single.set(mModelMatrix, second, POINT_COUNT);
+        single.originX = 1.5;
+        single.originY = 1.38;
+        single.originZ = -3.2;
+
+        assertEquals(2 * POINT_COUNT, merged.pointCount);
+        for (int i = 0; i < POINT_COUNT; i++) {
+            int m = (POINT_COUNT + i) * 3;
+            int s = i * 3;
+            assertEquals(single.originX + single.points.get(s),
+                    merged.originX + merged.points.get(m), EPSILON);
+            assertEquals(single.originY + single.points.get(s + 1),
+                    merged.originY + merged.points.get(m + 1), EPSILON);
+            assertEquals(single.originZ + single.points.get(s + 2),
+                    merged.originZ + merged.points.get(m + 2), EPSILON);
+        }
+    }
+
+    private static FloatBuffer randomPoints(long seed) {
+        Random random = new Random(seed);
+        FloatBuffer points = FloatBuffer.allocate(POINT_COUNT * 3);
+        for (int i = 0; i < POINT_COUNT * 3; i++) {
+            points.put(i, random.nextFloat() * 4 - 2);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Schedules renders of a {@link GLSurfaceView} in
+ * {@link GLSurfaceView#RENDERMODE_WHEN_DIRTY} mode so that any number of
+ * render requests between two vsyncs result in a single frame. Pose callbacks
+ * can call {@link #requestRender()} on every pose; the view is asked to
+ * render on the next vsync only, and the renderer then picks up the newest
+ * pose when the frame starts (see {@link Renderer#setDevicePose}).
+ * 
+ * The scheduler also measures the frame rate and the latency from the first
+ * coalesced request to the start of the frame that serves it. That latency
+ * is a lower bound for pose-to-photon latency: buffer swap and scan-out
+ * typically add one to two vsync periods.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+    /** Weight of a new sample in the frame rate and latency averages. */
+    private static final float SMOOTHING = 0.1f;
+    private static final float NANOS_PER_MILLI = 1e6f;
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    private final GLSurfaceView mView;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    /** Time of the oldest request not yet served by a frame, or 0. */
+    private final AtomicLong mPendingSinceNanos = new AtomicLong();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final Runnable mPostFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(FrameScheduler.this);
+        }
+    };
+
+    // Written on the GL thread only.
+    private volatile long mFrameCount;
+    private volatile float mFramesPerSecond;
+    private volatile float mLatencyMillis;
+    private volatile float mMaxLatencyMillis;
+    private long mLastFrameNanos;
+
+    public FrameScheduler(GLSurfaceView view) {
+        mView = view;
+    }
+
+    /**
+     * Asks for a frame on the next vsync. Safe to call from any thread and
+     * at any rate; requests made before that frame starts are merged into it.
+     */
+    public void requestRender() {
+        mRequestCount.incrementAndGet();
+        mPendingSinceNanos.compareAndSet(0, System.nanoTime());
+        if (mFrameScheduled.compareAndSet(false, true)) {
+            // Choreographer is per looper, so register on the main thread.
+            mMainHandler.post(mPostFrameCallback);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled.set(false);
+        mView.requestRender();
+    }
+
+    /**
+     * Records the start of a frame. Call on the GL thread at the top of
+     * onDrawFrame; {@link Renderer#beginFrame()} does.
+     */
+    public void onFrameStart() {
+        long now = System.nanoTime();
+        long pendingSince = mPendingSinceNanos.getAndSet(0);
+        if (pendingSince != 0) {
+            float latency = (now - pendingSince) / NANOS_PER_MILLI;
+            mLatencyMillis = mFrameCount == 0 ? latency : mLatencyMillis
+                    + (latency - mLatencyMillis) * SMOOTHING;
+            mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latency);
+        }
+        if (mLastFrameNanos != 0 && now > mLastFrameNanos) {
+            float fps = NANOS_PER_SECOND / (now - mLastFrameNanos);
+            mFramesPerSecond = mFramesPerSecond == 0 ? fps : mFramesPerSecond
+                    + (fps - mFramesPerSecond) * SMOOTHING;
+        }
+        mLastFrameNanos = now;
+        mFrameCount++;
+    }
+
+    /** Returns the number of render requests received. */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** Returns the number of frames started. */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Returns the smoothed rate of frames actually rendered. */
+    public float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    /**
+     * Returns the smoothed time from the first request merged into a frame
+     * to the start of that frame, in milliseconds.
+     */
+    public float getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    /** Returns the largest request-to-frame latency seen, in milliseconds. */
+    public float getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+}
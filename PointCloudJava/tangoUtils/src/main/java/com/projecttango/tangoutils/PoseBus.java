@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated ring buffer that hands poses from the Tango callback thread to
+ * any number of consumers. The callback publishes each pose with
+ * {@link #publish} and returns; consumers such as the renderer, the trajectory
+ * or the on-screen readouts each read the stream at their own pace through a
+ * {@link Consumer}, so a slow consumer no longer delays the next pose.
+ *
+ * Poses are kept in primitive arrays and neither side allocates. Each
+ * consumer tracks its own sequence and has a policy for when it falls a full
+ * ring behind:
+ * <ul>
+ * <li>{@link #POLICY_DROP_OLDEST}: the producer skips the consumer past its
+ * oldest unread poses, which are counted as dropped. The producer never
+ * waits.</li>
+ * <li>{@link #POLICY_BLOCK}: the producer waits until the consumer has read
+ * the oldest pose, yielding a few times and then parking for growing
+ * intervals of up to {@link #MAX_PARK_NANOS}. Meant for consumers that must
+ * see every pose and keep up on average, such as a recorder on its own
+ * thread; such a consumer must be removed before it stops reading.</li>
+ * </ul>
+ *
+ * There must be a single producer thread, and each consumer must be read
+ * from a single thread at a time.
+ */
+public class PoseBus {
+
+    /** Default number of poses buffered, a few seconds at the pose rate. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public static final int POLICY_DROP_OLDEST = 0;
+    public static final int POLICY_BLOCK = 1;
+
+    /** Yields before a waiting producer starts to park. */
+    private static final int WAIT_YIELDS = 16;
+    private static final long MIN_PARK_NANOS = 10000L;
+    /** Longest single park of a waiting producer, one millisecond. */
+    public static final long MAX_PARK_NANOS = 1000000L;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final double[] mTimestamps;
+    private final int[] mBaseFrames;
+    private final int[] mTargetFrames;
+    private final int[] mStatusCodes;
+    private final double[] mTranslations;
+    private final double[] mRotations;
+    /** Sequence of the last published pose, -1 before the first. */
+    private final AtomicLong mCursor = new AtomicLong(-1);
+    /** Replaced, never modified, when consumers are added or removed. */
+    private volatile Consumer[] mConsumers = new Consumer[0];
+    /** Number of times the producer waited for a blocking consumer. */
+    private volatile long mStallCount;
+
+    public PoseBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            number of poses buffered, rounded up to a power of two.
+     */
+    public PoseBus(int capacity) {
+        mCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = mCapacity - 1;
+        mTimestamps = new double[mCapacity];
+        mBaseFrames = new int[mCapacity];
+        mTargetFrames = new int[mCapacity];
+        mStatusCodes = new int[mCapacity];
+        mTranslations = new double[mCapacity * 3];
+        mRotations = new double[mCapacity * 4];
+    }
+
+    /**
+     * Adds a consumer that reads the poses published from now on.
+     *
+     * @param name
+     *            used in {@link Consumer#toString()}.
+     * @param policy
+     *            {@link #POLICY_DROP_OLDEST} or {@link #POLICY_BLOCK}.
+     */
+    public synchronized Consumer addConsumer(String name, int policy) {
+        Consumer consumer = new Consumer(name, policy, mCursor.get() + 1);
+        Consumer[] consumers = new Consumer[mConsumers.length + 1];
+        System.arraycopy(mConsumers, 0, consumers, 0, mConsumers.length);
+        consumers[mConsumers.length] = consumer;
+        mConsumers = consumers;
+        return consumer;
+    }
+
+    /**
+     * Removes a consumer; the producer no longer waits for it or tracks it.
+     */
+    public synchronized void removeConsumer(Consumer consumer) {
+        Consumer[] consumers = mConsumers;
+        for (int i = 0; i < consumers.length; i++) {
+            if (consumers[i] == consumer) {
+                Consumer[] remaining = new Consumer[consumers.length - 1];
+                System.arraycopy(consumers, 0, remaining, 0, i);
+                System.arraycopy(consumers, i + 1, remaining, i,
+                        consumers.length - i - 1);
+                mConsumers = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes a pose to every consumer. Only call from the producer thread.
+     *
+     * @param translation
+     *            at least 3 elements, x, y, z.
+     * @param rotation
+     *            at least 4 elements, quaternion x, y, z, w.
+     */
+    public void publish(double timestamp, int baseFrame, int targetFrame,
+            int statusCode, double[] translation, double[] rotation) {
+        long sequence = mCursor.get() + 1;
+        // The slot still holds the pose published a full ring earlier
+        long wrapPoint = sequence - mCapacity;
+        if (wrapPoint >= 0) {
+            Consumer[] consumers = mConsumers;
+            for (int i = 0; i < consumers.length; i++) {
+                consumers[i].makeRoom(wrapPoint);
+            }
+        }
+        int slot = (int) sequence & mMask;
+        mTimestamps[slot] = timestamp;
+        mBaseFrames[slot] = baseFrame;
+        mTargetFrames[slot] = targetFrame;
+        mStatusCodes[slot] = statusCode;
+        System.arraycopy(translation, 0, mTranslations, slot * 3, 3);
+        System.arraycopy(rotation, 0, mRotations, slot * 4, 4);
+        mCursor.set(sequence);
+    }
+
+    /** Returns the number of poses published so far. */
+    public long getPublishedCount() {
+        return mCursor.get() + 1;
+    }
+
+    /** Returns the number of times publishing waited for a consumer. */
+    public long getStallCount() {
+        return mStallCount;
+    }
+
+    /**
+     * One reader of the poses published on a {@link PoseBus}, with its own
+     * position in the stream and its own lag metrics.
+     */
+    public class Consumer {
+
+        private final String mName;
+        private final int mPolicy;
+        /** Sequence of the next pose to read. */
+        private final AtomicLong mSequence;
+        // Only written on the producer thread
+        private volatile long mDroppedCount;
+        // Only written on the consumer thread
+        private volatile long mConsumedCount;
+        private volatile long mMaxLag;
+
+        private Consumer(String name, int policy, long sequence) {
+            mName = name;
+            mPolicy = policy;
+            mSequence = new AtomicLong(sequence);
+        }
+
+        /**
+         * Makes sure the consumer no longer needs the pose at wrapPoint, so
+         * that its slot can be written. Called on the producer thread.
+         */
+        private void makeRoom(long wrapPoint) {
+            long next = mSequence.get();
+            if (next > wrapPoint) {
+                return;
+            }
+            if (mPolicy == POLICY_BLOCK) {
+                mStallCount++;
+                int yields = 0;
+                long parkNanos = MIN_PARK_NANOS;
+                while (mSequence.get() <= wrapPoint) {
+                    if (yields < WAIT_YIELDS) {
+                        yields++;
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(parkNanos);
+                        parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                    }
+                }
+                return;
+            }
+            // Skip past the oldest pose. If the consumer is reading it right
+            // now, its own update fails and it discards what it read.
+            while (next <= wrapPoint) {
+                if (mSequence.compareAndSet(next, wrapPoint + 1)) {
+                    mDroppedCount += wrapPoint + 1 - next;
+                    return;
+                }
+                next = mSequence.get();
+            }
+        }
+
+        /**
+         * Reads the next unread pose.
+         *
+         * @param out
+         *            receives the pose.
+         * @return false if there is no unread pose.
+         */
+        public boolean poll(PoseEvent out) {
+            while (true) {
+                long next = mSequence.get();
+                long cursor = mCursor.get();
+                if (next > cursor) {
+                    return false;
+                }
+                int slot = (int) next & mMask;
+                out.sequence = next;
+                out.timestamp = mTimestamps[slot];
+                out.baseFrame = mBaseFrames[slot];
+                out.targetFrame = mTargetFrames[slot];
+                out.statusCode = mStatusCodes[slot];
+                System.arraycopy(mTranslations, slot * 3, out.translation, 0,
+                        3);
+                System.arraycopy(mRotations, slot * 4, out.rotation, 0, 4);
+                // Fails if the producer skipped this consumer past the slot,
+                // which may then have been overwritten while it was read
+                if (mSequence.compareAndSet(next, next + 1)) {
+                    long lag = cursor - next;
+                    if (lag > mMaxLag) {
+                        mMaxLag = lag;
+                    }
+                    mConsumedCount++;
+                    return true;
+                }
+            }
+        }
+
+        /** Returns the number of published poses not read yet. */
+        public long getLag() {
+            return Math.max(0, mCursor.get() + 1 - mSequence.get());
+        }
+
+        /**
+         * Returns the largest number of poses that were still unread behind
+         * a pose when it was read.
+         */
+        public long getMaxLag() {
+            return mMaxLag;
+        }
+
+        /** Returns the number of poses read. */
+        public long getConsumedCount() {
+            return mConsumedCount;
+        }
+
+        /** Returns the number of poses skipped because the ring was full. */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": consumed " + mConsumedCount + ", dropped "
+                    + mDroppedCount + ", lag " + getLag() + ", max lag "
+                    + mMaxLag;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+/**
+ * A pose read from a {@link PoseBus}. Consumers allocate one and reuse it for
+ * every read. The fields mirror those of TangoPoseData, so this library does
+ * not depend on the Tango client library.
+ *
+ * Translations are (x, y, z) and rotations are quaternions in the Tango
+ * (x, y, z, w) order. Timestamps are in seconds.
+ */
+public class PoseEvent {
+
+    /*
+     * Coordinate frames and status codes of TangoPoseData, mirrored so that
+     * code written against this class does not depend on the Tango client
+     * library.
+     */
+    public static final int COORDINATE_FRAME_AREA_DESCRIPTION = 1;
+    public static final int COORDINATE_FRAME_START_OF_SERVICE = 2;
+    public static final int COORDINATE_FRAME_DEVICE = 4;
+    public static final int POSE_INITIALIZING = 0;
+    public static final int POSE_VALID = 1;
+    public static final int POSE_INVALID = 2;
+    public static final int POSE_UNKNOWN = 3;
+
+    /** Position of the pose in the stream of published poses. */
+    public long sequence;
+    public double timestamp;
+    public int baseFrame;
+    public int targetFrame;
+    public int statusCode;
+    public final double[] translation = new double[3];
+    public final double[] rotation = new double[4];
+
+    /**
+     * Sets the fields from those of a TangoPoseData. The sequence is left as
+     * is.
+     *
+     * @param translation
+     *            at least 3 elements, x, y, z.
+     * @param rotation
+     *            at least 4 elements, quaternion x, y, z, w.
+     */
+    public void set(double timestamp, int baseFrame, int targetFrame,
+            int statusCode, double[] translation, double[] rotation) {
+        this.timestamp = timestamp;
+        this.baseFrame = baseFrame;
+        this.targetFrame = targetFrame;
+        this.statusCode = statusCode;
+        System.arraycopy(translation, 0, this.translation, 0, 3);
+        System.arraycopy(rotation, 0, this.rotation, 0, 4);
+    }
+
+    /**
+     * Copies the translation into out, which needs at least 3 elements.
+     */
+    public void copyTranslation(float[] out) {
+        for (int i = 0; i < 3; i++) {
+            out[i] = (float) translation[i];
+        }
+    }
+
+    /**
+     * Copies the rotation into out, which needs at least 4 elements.
+     */
+    public void copyRotation(float[] out) {
+        for (int i = 0; i < 4; i++) {
+            out[i] = (float) rotation[i];
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Generates a deterministic stream of device poses and depth frames, for load and soak tests of
+ * the point cloud and trajectory code without a device. Records are read the same way as from a
+ * {@link SessionReader}: call {@link #next()} and read the record with {@link #readPose} or
+ * {@link #getPoints()}, or write the whole session with {@link #record(SessionRecorder)}.
+ *
+ * The device walks, spins or jumps through a room or a corridor, and depth frames are ray cast
+ * against that scene with depth dependent noise. Points are packed xyz floats in the depth
+ * camera frame (x right, y down, z forward) in native order, the layout
+ * PointCloud#addPoints(FloatBuffer, int, float[]) takes; translations are in the Tango start of
+ * service frame, as Trajectory#updateTrajectory(float[]) takes them, with z up.
+ *
+ * Poses are start of service to device. When relocalization events are enabled, tracking is
+ * periodically lost and recovered with a new start of service origin, and area description to
+ * start of service and area description to device poses are generated as well. A depth frame is
+ * generated once a pose at or after its timestamp has been, as the service delivers them.
+ */
+public class SyntheticSession {
+
+    public static final int SCENE_ROOM = 0;
+    public static final int SCENE_CORRIDOR = 1;
+
+    public static final int MOTION_WALK = 0;
+    public static final int MOTION_SPIN = 1;
+    /** Walks, with the reported position jumping as after a drift correction. */
+    public static final int MOTION_JUMPS = 2;
+
+    // Coordinate frames and statuses, as in TangoPoseData
+    public static final int COORDINATE_FRAME_AREA_DESCRIPTION = 1;
+    public static final int COORDINATE_FRAME_START_OF_SERVICE = 2;
+    public static final int COORDINATE_FRAME_DEVICE = 4;
+    public static final int POSE_INITIALIZING = 0;
+    public static final int POSE_VALID = 1;
+    public static final int POSE_INVALID = 2;
+
+    private static final double ROOM_HALF_WIDTH = 3;
+    private static final double ROOM_HALF_DEPTH = 2.5;
+    private static final double CORRIDOR_HALF_WIDTH = 1;
+    private static final double CEILING_HEIGHT = 2.6;
+    private static final double DEVICE_HEIGHT = 1.4;
+    private static final double WALK_SPEED = 1;
+    private static final double WALK_RADIUS = 1.5;
+    private static final double STEP_FREQUENCY = 1.8;
+    private static final double STEP_HEIGHT = 0.02;
+    private static final double SPIN_RATE = Math.PI / 2;
+    private static final double JUMP_INTERVAL = 5;
+    private static final double JUMP_DISTANCE = 0.5;
+    /** Time tracking stays invalid, then initializing, after a loss. */
+    private static final double LOSS_DURATION = 0.5;
+
+    /** Depth camera half fields of view, tangents. */
+    private static final double HALF_FOV_X = Math.tan(Math.toRadians(29));
+    private static final double HALF_FOV_Y = Math.tan(Math.toRadians(22.5));
+    private static final double MIN_DEPTH = 0.5;
+    private static final double MAX_DEPTH = 4;
+    /** Rays cast per requested point, at most, to make up for rays out of range. */
+    private static final int MAX_RAYS_PER_POINT = 4;
+
+    private final Random mRandom;
+    private final long mSeed;
+    private int mScene = SCENE_ROOM;
+    private int mMotion = MOTION_WALK;
+    private int mPointsPerFrame = 10000;
+    private double mDepthNoise = 0.005;
+    private double mFrameRate = 5;
+    private double mPoseRate = 100;
+    private double mDuration;
+    private double mRelocalizationInterval;
+
+    // Stream state
+    private long mPoseTick;
+    private long mPoseCount;
+    private long mFrameTick;
+    private double mLastPoseTimestamp = Double.NEGATIVE_INFINITY;
+    private final PoseEvent[] mPending = { new PoseEvent(), new PoseEvent(), new PoseEvent() };
+    private int mPendingCount;
+    private int mPendingIndex;
+    private PoseEvent mCurrentPose;
+    private int mType = -1;
+    private double mTimestamp;
+    private FloatBuffer mPoints;
+    private int mPointCount;
+
+    // Scratch
+    private final double[] mPosition = new double[3];
+    private final double[] mOrigin = new double[3];
+    private final double[] mReported = new double[3];
+    private final double[] mRotation = new double[4];
+
+    /**
+     * @param seed
+     *            seed of the noise, jumps and sampled pixels; the same seed and settings give the
+     *            same session.
+     */
+    public SyntheticSession(long seed) {
+        mSeed = seed;
+        mRandom = new Random(seed);
+        allocatePoints();
+    }
+
+    /** Sets the scene, {@link #SCENE_ROOM} or {@link #SCENE_CORRIDOR}. */
+    public void setScene(int scene) {
+        mScene = scene;
+    }
+
+    /**
+     * Sets the device motion, {@link #MOTION_WALK}, {@link #MOTION_SPIN} or
+     * {@link #MOTION_JUMPS}.
+     */
+    public void setMotion(int motion) {
+        mMotion = motion;
+    }
+
+    /** Sets the number of points per depth frame. */
+    public void setPointsPerFrame(int pointsPerFrame) {
+        mPointsPerFrame = pointsPerFrame;
+        allocatePoints();
+    }
+
+    /**
+     * Sets the standard deviation of the depth noise, in meters at 1 m; it grows with the square
+     * of the depth.
+     */
+    public void setDepthNoise(double depthNoise) {
+        mDepthNoise = depthNoise;
+    }
+
+    /** Sets the depth frame rate in Hz. */
+    public void setFrameRate(double frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    /** Sets the pose rate in Hz. */
+    public void setPoseRate(double poseRate) {
+        mPoseRate = poseRate;
+    }
+
+    /** Sets the length of the session in seconds, or 0 for a session that never ends. */
+    public void setDuration(double duration) {
+        mDuration = duration;
+    }
+
+    /**
+     * Sets the time in seconds between losses of tracking followed by relocalization, or 0 for
+     * none.
+     */
+    public void setRelocalizationInterval(double interval) {
+        mRelocalizationInterval = interval;
+    }
+
+    private void allocatePoints() {
+        mPoints = ByteBuffer.allocateDirect(mPointsPerFrame * 3 * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return {@link SessionRecorder#TYPE_POSE}, {@link SessionRecorder#TYPE_XYZ_IJ}, or -1 once
+     *         the duration has passed.
+     */
+    public int next() {
+        if (mPendingIndex < mPendingCount) {
+            mCurrentPose = mPending[mPendingIndex++];
+            mTimestamp = mCurrentPose.timestamp;
+            return mType = SessionRecorder.TYPE_POSE;
+        }
+        double poseTime = mPoseTick / mPoseRate;
+        double frameTime = mFrameTick / mFrameRate;
+        if (frameTime <= mLastPoseTimestamp) {
+            if (mDuration > 0 && frameTime > mDuration) {
+                return mType = -1;
+            }
+            mFrameTick++;
+            mTimestamp = frameTime;
+            generateFrame(frameTime);
+            return mType = SessionRecorder.TYPE_XYZ_IJ;
+        }
+        if (mDuration > 0 && poseTime > mDuration) {
+            return mType = -1;
+        }
+        mPoseTick++;
+        mLastPoseTimestamp = poseTime;
+        generatePoses(poseTime);
+        return next();
+    }
+
+    /** Returns the timestamp in seconds of the current record. */
+    public double getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** Copies the current record, which must be a pose, into out. */
+    public void readPose(PoseEvent out) {
+        if (mType != SessionRecorder.TYPE_POSE) {
+            throw new IllegalStateException("Current record is not a pose");
+        }
+        PoseEvent pose = mCurrentPose;
+        out.sequence = pose.sequence;
+        out.timestamp = pose.timestamp;
+        out.baseFrame = pose.baseFrame;
+        out.targetFrame = pose.targetFrame;
+        out.statusCode = pose.statusCode;
+        System.arraycopy(pose.translation, 0, out.translation, 0, 3);
+        System.arraycopy(pose.rotation, 0, out.rotation, 0, 4);
+    }
+
+    /** Returns the number of points of the current record, which must be a depth frame. */
+    public int getPointCount() {
+        if (mType != SessionRecorder.TYPE_XYZ_IJ) {
+            throw new IllegalStateException("Current record is not a depth frame");
+        }
+        return mPointCount;
+    }
+
+    /**
+     * Returns the packed xyz points of the current record, which must be a depth frame, from
+     * index 0. The buffer is reused for the next frame.
+     */
+    public FloatBuffer getPoints() {
+        getPointCount();
+        return mPoints;
+    }
+
+    /**
+     * Returns the start of service pose of the device when the current depth frame was taken, as
+     * a consumer would interpolate it.
+     *
+     * @return false if tracking was lost at that time.
+     */
+    public boolean getFramePose(double[] translationOut, float[] rotationOut) {
+        getPointCount();
+        if (getStatus(mTimestamp) != POSE_VALID) {
+            return false;
+        }
+        devicePosition(mTimestamp, mPosition);
+        reportedPosition(mTimestamp, mPosition, translationOut);
+        rotation(heading(mTimestamp), mRotation);
+        for (int i = 0; i < 4; i++) {
+            rotationOut[i] = (float) mRotation[i];
+        }
+        return true;
+    }
+
+    /**
+     * Writes the rest of the session, which must have a duration, to a recorder.
+     */
+    public void record(SessionRecorder recorder) throws IOException {
+        if (mDuration <= 0) {
+            throw new IllegalStateException("Session has no duration");
+        }
+        PoseEvent pose = new PoseEvent();
+        int type;
+        while ((type = next()) != -1) {
+            if (type == SessionRecorder.TYPE_POSE) {
+                readPose(pose);
+                recorder.recordPose(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                        pose.statusCode, pose.translation, pose.rotation);
+            } else {
+                recorder.recordXyzIj(mTimestamp, mPoints, mPointCount);
+            }
+        }
+    }
+
+    /** Fills the pending poses of a pose tick. */
+    private void generatePoses(double time) {
+        mPendingCount = 0;
+        mPendingIndex = 0;
+        devicePosition(time, mPosition);
+        double heading = heading(time);
+        int status = getStatus(time);
+
+        PoseEvent start2Device = mPending[mPendingCount++];
+        setPose(start2Device, time, COORDINATE_FRAME_START_OF_SERVICE, COORDINATE_FRAME_DEVICE,
+                status, heading);
+        reportedPosition(time, mPosition, start2Device.translation);
+
+        if (mRelocalizationInterval <= 0 || time < mRelocalizationInterval + 2 * LOSS_DURATION) {
+            return;
+        }
+        // Relocalized at the end of each loss: publish the new start of service origin
+        double sinceLoss = time % mRelocalizationInterval;
+        if (sinceLoss >= 2 * LOSS_DURATION && sinceLoss - 1 / mPoseRate < 2 * LOSS_DURATION) {
+            PoseEvent adf2Start = mPending[mPendingCount++];
+            setPose(adf2Start, time, COORDINATE_FRAME_AREA_DESCRIPTION,
+                    COORDINATE_FRAME_START_OF_SERVICE, POSE_VALID, 0);
+            startOfServiceOrigin(time, adf2Start.translation);
+            adf2Start.rotation[0] = 0;
+            adf2Start.rotation[1] = 0;
+            adf2Start.rotation[2] = 0;
+            adf2Start.rotation[3] = 1;
+        }
+        PoseEvent adf2Device = mPending[mPendingCount++];
+        setPose(adf2Device, time, COORDINATE_FRAME_AREA_DESCRIPTION, COORDINATE_FRAME_DEVICE,
+                status, heading);
+        reportedPosition(time, mPosition, adf2Device.translation);
+        startOfServiceOrigin(time, mOrigin);
+        for (int i = 0; i < 3; i++) {
+            adf2Device.translation[i] += mOrigin[i];
+        }
+    }
+
+    private void setPose(PoseEvent pose, double time, int baseFrame, int targetFrame,
+            int status, double heading) {
+        pose.sequence = mPoseCount++;
+        pose.timestamp = time;
+        pose.baseFrame = baseFrame;
+        pose.targetFrame = targetFrame;
+        pose.statusCode = status;
+        rotation(heading, pose.rotation);
+    }
+
+    /** Returns the tracking status at a time. */
+    private int getStatus(double time) {
+        if (mRelocalizationInterval <= 0 || time < mRelocalizationInterval) {
+            return POSE_VALID;
+        }
+        double sinceLoss = time % mRelocalizationInterval;
+        if (sinceLoss < LOSS_DURATION) {
+            return POSE_INVALID;
+        }
+        return sinceLoss < 2 * LOSS_DURATION ? POSE_INITIALIZING : POSE_VALID;
+    }
+
+    /**
+     * Writes the origin of the start of service frame at a time: where the device was, in the
+     * first start of service frame, when tracking last restarted.
+     */
+    private void startOfServiceOrigin(double time, double[] out) {
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = 0;
+        if (mRelocalizationInterval <= 0 || time < mRelocalizationInterval + 2 * LOSS_DURATION) {
+            return;
+        }
+        double restart = time - time % mRelocalizationInterval + 2 * LOSS_DURATION;
+        if (restart > time) {
+            restart -= mRelocalizationInterval;
+        }
+        devicePosition(restart, out);
+        addJump(restart, out);
+    }
+
+    /** Writes the position the device reports at a time for a true position. */
+    private void reportedPosition(double time, double[] position, double[] out) {
+        startOfServiceOrigin(time, mReported);
+        for (int i = 0; i < 3; i++) {
+            out[i] = position[i] - mReported[i];
+        }
+        addJump(time, out);
+    }
+
+    /**
+     * Adds the drift correction of {@link #MOTION_JUMPS} at a time. It changes every
+     * {@link #JUMP_INTERVAL} seconds.
+     */
+    private void addJump(double time, double[] position) {
+        long jumps = (long) (time / JUMP_INTERVAL);
+        if (mMotion != MOTION_JUMPS || jumps == 0) {
+            return;
+        }
+        // Hashed from the seed, so the jumps do not depend on the order of calls
+        long hash = (mSeed + jumps) * 0x9E3779B97F4A7C15L;
+        position[0] += JUMP_DISTANCE * (((hash >>> 11) & 0xFFFF) / 32768.0 - 1);
+        position[1] += JUMP_DISTANCE * (((hash >>> 27) & 0xFFFF) / 32768.0 - 1);
+    }
+
+    /** Writes the true device position at a time, in the scene frame. */
+    private void devicePosition(double time, double[] out) {
+        double bob = mMotion == MOTION_SPIN ? 0
+                : STEP_HEIGHT * Math.sin(2 * Math.PI * STEP_FREQUENCY * time);
+        out[2] = DEVICE_HEIGHT + bob;
+        if (mMotion == MOTION_SPIN) {
+            out[0] = 0;
+            out[1] = 0;
+        } else if (mScene == SCENE_ROOM) {
+            double angle = time * WALK_SPEED / WALK_RADIUS;
+            out[0] = WALK_RADIUS * Math.cos(angle);
+            out[1] = WALK_RADIUS * Math.sin(angle);
+        } else {
+            out[0] = 0.3 * Math.sin(0.5 * time);
+            out[1] = WALK_SPEED * time;
+        }
+    }
+
+    /** Returns the heading at a time, counterclockwise from the +y axis. */
+    private double heading(double time) {
+        if (mMotion == MOTION_SPIN) {
+            return SPIN_RATE * time;
+        }
+        if (mScene == SCENE_ROOM) {
+            // Facing along the circle
+            return time * WALK_SPEED / WALK_RADIUS;
+        }
+        return 0.1 * Math.sin(0.5 * time);
+    }
+
+    /**
+     * Writes the rotation of an upright device with the given heading as a quaternion (x, y, z,
+     * w): the heading about z, after turning the device's -z viewing axis up 90 degrees about x
+     * to look along +y.
+     */
+    private static void rotation(double heading, double[] out) {
+        double half = Math.sqrt(0.5);
+        double sinZ = Math.sin(heading / 2);
+        double cosZ = Math.cos(heading / 2);
+        out[0] = cosZ * half;
+        out[1] = sinZ * half;
+        out[2] = sinZ * half;
+        out[3] = cosZ * half;
+    }
+
+    /** Ray casts a depth frame from the true device pose at a time. */
+    private void generateFrame(double time) {
+        devicePosition(time, mPosition);
+        double heading = heading(time);
+        double sin = Math.sin(heading);
+        double cos = Math.cos(heading);
+        double ox = mPosition[0];
+        double oy = mPosition[1];
+        double oz = mPosition[2];
+        double minX;
+        double maxX;
+        double minY;
+        double maxY;
+        if (mScene == SCENE_ROOM) {
+            minX = -ROOM_HALF_WIDTH;
+            maxX = ROOM_HALF_WIDTH;
+            minY = -ROOM_HALF_DEPTH;
+            maxY = ROOM_HALF_DEPTH;
+        } else {
+            minX = -CORRIDOR_HALF_WIDTH;
+            maxX = CORRIDOR_HALF_WIDTH;
+            minY = Double.NEGATIVE_INFINITY;
+            maxY = Double.POSITIVE_INFINITY;
+        }
+
+        int count = 0;
+        int rays = mPointsPerFrame * MAX_RAYS_PER_POINT;
+        for (int ray = 0; ray < rays && count < mPointsPerFrame; ray++) {
+            // Camera ray (a, b, 1), x right and y down; in the device frame (a, -b, -1)
+            double a = (2 * mRandom.nextDouble() - 1) * HALF_FOV_X;
+            double b = (2 * mRandom.nextDouble() - 1) * HALF_FOV_Y;
+            double dx = cos * a - sin;
+            double dy = sin * a + cos;
+            double dz = -b;
+            // Distance along the ray to the inside of the box, in units of camera depth
+            double depth = Double.POSITIVE_INFINITY;
+            depth = Math.min(depth, exit(ox, dx, minX, maxX));
+            depth = Math.min(depth, exit(oy, dy, minY, maxY));
+            depth = Math.min(depth, exit(oz, dz, 0, CEILING_HEIGHT));
+            if (depth < MIN_DEPTH || depth > MAX_DEPTH) {
+                continue;
+            }
+            depth += mRandom.nextGaussian() * mDepthNoise * depth * depth;
+            int i = count * 3;
+            mPoints.put(i, (float) (a * depth));
+            mPoints.put(i + 1, (float) (b * depth));
+            mPoints.put(i + 2, (float) depth);
+            count++;
+        }
+        mPointCount = count;
+    }
+
+    /** Returns the ray parameter where a ray from inside leaves a slab, infinite if never. */
+    private static double exit(double origin, double direction, double min, double max) {
+        if (direction > 0) {
+            return (max - origin) / direction;
+        }
+        if (direction < 0) {
+            return (min - origin) / direction;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
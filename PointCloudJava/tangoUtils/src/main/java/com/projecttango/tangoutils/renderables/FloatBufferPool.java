@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * Pool of equally sized direct {@link FloatBuffer} pages. Released pages are
+ * kept for reuse up to a fixed limit so that repeatedly filling and clearing a
+ * {@link PointStore} does not churn native memory.
+ */
+public class FloatBufferPool {
+
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private final int mPageFloats;
+    private final int mMaxPooledPages;
+    private final ArrayList<FloatBuffer> mFreePages = new ArrayList<FloatBuffer>();
+
+    /**
+     * @param pageFloats
+     *            capacity of each page in floats.
+     * @param maxPooledPages
+     *            number of released pages kept for reuse; pages released
+     *            beyond this limit are left to the garbage collector.
+     */
+    public FloatBufferPool(int pageFloats, int maxPooledPages) {
+        mPageFloats = pageFloats;
+        mMaxPooledPages = maxPooledPages;
+    }
+
+    public int getPageFloats() {
+        return mPageFloats;
+    }
+
+    /**
+     * Returns a cleared page, reusing a released one when available.
+     */
+    public synchronized FloatBuffer acquire() {
+        int free = mFreePages.size();
+        if (free > 0) {
+            FloatBuffer page = mFreePages.remove(free - 1);
+            page.clear();
+            return page;
+        }
+        return ByteBuffer.allocateDirect(mPageFloats * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Hands a page back to the pool. The caller must not touch the page
+     * afterwards.
+     */
+    public synchronized void release(FloatBuffer page) {
+        if (page.capacity() == mPageFloats && mFreePages.size() < mMaxPooledPages) {
+            mFreePages.add(page);
+        }
+    }
+
+    public synchronized int getPooledPageCount() {
+        return mFreePages.size();
+    }
+}
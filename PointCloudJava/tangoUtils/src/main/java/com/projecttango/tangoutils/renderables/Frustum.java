@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+/**
+ * View frustum used to cull axis-aligned boxes and to estimate how large a box
+ * appears on screen. Plain Java with no GL dependency, so it can be exercised
+ * on a desktop JVM.
+ *
+ * Boxes are passed as float[6] arrays of { minX, minY, minZ, maxX, maxY, maxZ }.
+ * Matrices are column major, as used by android.opengl.Matrix.
+ */
+public class Frustum {
+
+    private static final int PLANE_COUNT = 6;
+
+    /** Plane coefficients (a, b, c, d); a point is inside if ax+by+cz+d >= 0. */
+    private final float[] mPlanes = new float[PLANE_COUNT * 4];
+    private final float[] mViewProjection = new float[16];
+    private final float[] mView = new float[16];
+    private float mProjectionScale;
+
+    /**
+     * Sets the frustum from the current camera matrices.
+     *
+     * @param viewMatrix
+     *            world to camera transform.
+     * @param projectionMatrix
+     *            perspective projection.
+     */
+    public void set(float[] viewMatrix, float[] projectionMatrix) {
+        Mat4.multiplyMM(mViewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
+        set(viewMatrix, projectionMatrix, mViewProjection);
+    }
+
+    /**
+     * Sets the frustum from the current camera matrices when their product is
+     * already known.
+     *
+     * @param viewProjectionMatrix
+     *            projection times view.
+     */
+    public void set(float[] viewMatrix, float[] projectionMatrix, float[] viewProjectionMatrix) {
+        System.arraycopy(viewMatrix, 0, mView, 0, 16);
+        mProjectionScale = projectionMatrix[5];
+        if (viewProjectionMatrix != mViewProjection) {
+            System.arraycopy(viewProjectionMatrix, 0, mViewProjection, 0, 16);
+        }
+        // Gribb/Hartmann extraction: each plane is row 3 plus or minus row 0,
+        // 1 or 2 of the view-projection matrix.
+        for (int i = 0; i < 3; i++) {
+            setPlane(2 * i, i, 1);
+            setPlane(2 * i + 1, i, -1);
+        }
+    }
+
+    private void setPlane(int plane, int row, float sign) {
+        float[] m = mViewProjection;
+        int p = plane * 4;
+        mPlanes[p] = m[3] + sign * m[row];
+        mPlanes[p + 1] = m[7] + sign * m[4 + row];
+        mPlanes[p + 2] = m[11] + sign * m[8 + row];
+        mPlanes[p + 3] = m[15] + sign * m[12 + row];
+    }
+
+    /**
+     * Returns false if the box is entirely outside one of the frustum planes.
+     * Boxes that straddle a corner of the frustum may be reported as visible.
+     */
+    public boolean intersects(float[] bounds) {
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            float a = mPlanes[p];
+            float b = mPlanes[p + 1];
+            float c = mPlanes[p + 2];
+            // Test the box corner furthest along the plane normal.
+            float x = a >= 0 ? bounds[3] : bounds[0];
+            float y = b >= 0 ? bounds[4] : bounds[1];
+            float z = c >= 0 ? bounds[5] : bounds[2];
+            if (a * x + b * y + c * z + mPlanes[p + 3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the on-screen radius of the box's bounding sphere in
+     * normalized device units, where 1 is half the viewport height.
+     *
+     * @return the projected radius, or {@link Float#POSITIVE_INFINITY} when
+     *         the camera is inside or very close to the sphere.
+     */
+    public float projectedSize(float[] bounds) {
+        float cx = (bounds[0] + bounds[3]) * 0.5f;
+        float cy = (bounds[1] + bounds[4]) * 0.5f;
+        float cz = (bounds[2] + bounds[5]) * 0.5f;
+        float dx = bounds[3] - cx;
+        float dy = bounds[4] - cy;
+        float dz = bounds[5] - cz;
+        float radius = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        float depth = -(mView[2] * cx + mView[6] * cy + mView[10] * cz + mView[14]);
+        if (depth <= radius) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return radius * mProjectionScale / depth;
+    }
+}
@@ -21,7 +21,8 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
+
+import com.projecttango.tangoutils.math.Mat4;
 
 /**
  * {@link Renderable} OpenGL object showing the 'floor' of the current scene.
@@ -49,7 +50,7 @@ public class Grid extends Renderable {
 
     public Grid() {
         // Reset the model matrix to the identity
-        Matrix.setIdentityM(getModelMatrix(), 0);
+        Mat4.setIdentityM(getModelMatrix(), 0);
 
         // Allocate a vertex buffer
         ByteBuffer vertexByteBuffer = ByteBuffer
@@ -70,15 +71,12 @@ public class Grid extends Renderable {
             mVertexBuffer.put(new float[] { (float) GRID_RANGE_M, -1.3f, z });
         }
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(sVertexShaderCode,
                 sFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
     }
 
     @Override
@@ -91,13 +89,11 @@ public class Grid extends Renderable {
         updateMvpMatrix(viewMatrix, projectionMatrix);
 
         // Load vertex attribute data
-        mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
         GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
                 GLES20.GL_FLOAT, false, 0, mVertexBuffer);
         GLES20.glEnableVertexAttribArray(mPosHandle);
 
         // Draw the Grid
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
         GLES20.glLineWidth(1);
         GLES20.glDrawArrays(GLES20.GL_LINES, 0, (GRID_RANGE_M * 2 + 1) * 4);
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+/**
+ * Picks how many points of a chunk to draw from its on-screen size, as
+ * returned by {@link Frustum#projectedSize(float[])}. Chunks are decimated by
+ * drawing every n-th point, with n a power of two, so that small or distant
+ * chunks cost proportionally less. Plain Java, no GL dependency.
+ */
+public final class LevelOfDetail {
+
+    /** Projected radius at and above which every point is drawn. */
+    public static final float FULL_DETAIL_SIZE = 0.5f;
+    /** Coarsest decimation: one point in MAX_STRIDE is drawn. */
+    public static final int MAX_STRIDE = 8;
+
+    private LevelOfDetail() {
+    }
+
+    /**
+     * Returns the point stride to draw a chunk with: 1 draws every point, 2
+     * every other point, and so on up to {@link #MAX_STRIDE}. The stride
+     * doubles each time the projected size halves below
+     * {@link #FULL_DETAIL_SIZE}.
+     */
+    public static int strideFor(float projectedSize) {
+        int stride = 1;
+        float size = projectedSize;
+        while (size < FULL_DETAIL_SIZE && stride < MAX_STRIDE) {
+            stride *= 2;
+            size *= 2;
+        }
+        return stride;
+    }
+
+    /**
+     * Returns the number of points drawn from a run of pointCount points at
+     * the given stride.
+     */
+    public static int decimatedCount(int pointCount, int stride) {
+        return (pointCount + stride - 1) / stride;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import android.opengl.GLES20;
+
+/**
+ * One cell of the uniform grid {@link PointCloud} splits its points into. A
+ * brick owns the points that fall inside its cell, their axis-aligned bounds,
+ * the vertex buffer objects mirroring them and, when voxel downsampling is on,
+ * the voxel grid used to merge them.
+ *
+ * Points and bounds are stored as float offsets from the brick's anchor, the
+ * low corner of its cell in double-precision world coordinates, so they keep
+ * full float precision however far the brick is from the world origin.
+ */
+class PointBrick {
+
+    private static final int INITIAL_HIT_COUNT_CAPACITY = 256;
+    private static final int INITIAL_VOXEL_CAPACITY = 1 << 10;
+    private static final int BYTES_PER_POINT = PointStore.FLOATS_PER_POINT * 4;
+    private static final int CLEAN = -1;
+
+    private final PointStore mPoints;
+    private final double mAnchorX;
+    private final double mAnchorY;
+    private final double mAnchorZ;
+    /** Tight bounds of the points, relative to the anchor. */
+    private final float[] mBounds = new float[6];
+
+    private VoxelGrid mVoxelGrid;
+    private int[] mHitCounts;
+
+    /** One vertex buffer object per page, taken from the cloud's pool. */
+    private int[] mVboIds = new int[0];
+    private int mVboCount;
+    /**
+     * Per-page range of points written since the last upload, as
+     * [dirtyFrom, dirtyTo) page-local indices; dirtyFrom is CLEAN when the
+     * GPU copy is current.
+     */
+    private int[] mDirtyFrom = new int[0];
+    private int[] mDirtyTo = new int[0];
+
+    /**
+     * @param epochs
+     *            snapshot bookkeeping of the owning cloud.
+     */
+    PointBrick(SnapshotEpochs epochs, double anchorX, double anchorY, double anchorZ) {
+        mPoints = new PointStore(epochs);
+        mAnchorX = anchorX;
+        mAnchorY = anchorY;
+        mAnchorZ = anchorZ;
+        Arrays.fill(mBounds, 0, 3, Float.POSITIVE_INFINITY);
+        Arrays.fill(mBounds, 3, 6, Float.NEGATIVE_INFINITY);
+    }
+
+    int size() {
+        return mPoints.size();
+    }
+
+    double getAnchorX() {
+        return mAnchorX;
+    }
+
+    double getAnchorY() {
+        return mAnchorY;
+    }
+
+    double getAnchorZ() {
+        return mAnchorZ;
+    }
+
+    /** Bounds relative to the anchor, as { minX, minY, minZ, maxX, maxY, maxZ }. */
+    float[] getBounds() {
+        return mBounds;
+    }
+
+    PointStore getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * Appends a point given relative to the anchor.
+     */
+    void add(float x, float y, float z) {
+        int index = mPoints.size();
+        mPoints.add(x, y, z);
+        extendBounds(x, y, z);
+        markDirty(index);
+    }
+
+    /**
+     * Updates the running centroid of the voxel containing the point, given
+     * relative to the anchor, or appends the point as the first hit of a new
+     * voxel.
+     *
+     * @param leafSize
+     *            voxel edge length. If it differs from the one in use, merging
+     *            restarts from an empty grid.
+     * @return true if the point was appended, false if it was merged.
+     */
+    boolean merge(float x, float y, float z, float leafSize) {
+        if (mVoxelGrid == null || mVoxelGrid.getLeafSize() != leafSize) {
+            mVoxelGrid = new VoxelGrid(leafSize, INITIAL_VOXEL_CAPACITY);
+            mHitCounts = new int[Math.max(INITIAL_HIT_COUNT_CAPACITY, mPoints.size())];
+        }
+        long key = mVoxelGrid.keyOf(x, y, z);
+        int index = mVoxelGrid.get(key);
+        extendBounds(x, y, z);
+        if (index >= 0) {
+            int hits = ++mHitCounts[index];
+            float cx = mPoints.get(index, 0);
+            float cy = mPoints.get(index, 1);
+            float cz = mPoints.get(index, 2);
+            mPoints.set(index, cx + (x - cx) / hits, cy + (y - cy) / hits,
+                    cz + (z - cz) / hits);
+            markDirty(index);
+            return false;
+        }
+        index = mPoints.size();
+        if (index >= mHitCounts.length) {
+            mHitCounts = Arrays.copyOf(mHitCounts, Math.max(index + 1, mHitCounts.length * 2));
+        }
+        mHitCounts[index] = 1;
+        mPoints.add(x, y, z);
+        mVoxelGrid.put(key, index);
+        markDirty(index);
+        return true;
+    }
+
+    private void extendBounds(float x, float y, float z) {
+        mBounds[0] = Math.min(mBounds[0], x);
+        mBounds[1] = Math.min(mBounds[1], y);
+        mBounds[2] = Math.min(mBounds[2], z);
+        mBounds[3] = Math.max(mBounds[3], x);
+        mBounds[4] = Math.max(mBounds[4], y);
+        mBounds[5] = Math.max(mBounds[5], z);
+    }
+
+    /**
+     * Records that a point changed and must be uploaded before the brick is
+     * next drawn.
+     */
+    private void markDirty(int index) {
+        int page = index / PointStore.POINTS_PER_PAGE;
+        int local = index % PointStore.POINTS_PER_PAGE;
+        if (page >= mDirtyFrom.length) {
+            int length = Math.max(page + 1, mDirtyFrom.length * 2);
+            int oldLength = mDirtyFrom.length;
+            mDirtyFrom = Arrays.copyOf(mDirtyFrom, length);
+            mDirtyTo = Arrays.copyOf(mDirtyTo, length);
+            Arrays.fill(mDirtyFrom, oldLength, length, CLEAN);
+        }
+        if (mDirtyFrom[page] == CLEAN) {
+            mDirtyFrom[page] = local;
+            mDirtyTo[page] = local + 1;
+        } else {
+            mDirtyFrom[page] = Math.min(mDirtyFrom[page], local);
+            mDirtyTo[page] = Math.max(mDirtyTo[page], local + 1);
+        }
+    }
+
+    /**
+     * Uploads the dirty range of every page with glBufferSubData, taking
+     * buffers for new pages from the pool. GL thread only.
+     */
+    void upload(VboPool pool) {
+        int pageCount = mPoints.getPageCount();
+        if (pageCount > mVboIds.length) {
+            mVboIds = Arrays.copyOf(mVboIds, Math.max(pageCount, mVboIds.length * 2));
+        }
+        while (mVboCount < pageCount) {
+            mVboIds[mVboCount++] = pool.acquire();
+        }
+        int dirtyPages = Math.min(pageCount, mDirtyFrom.length);
+        for (int page = 0; page < dirtyPages; page++) {
+            int from = mDirtyFrom[page];
+            if (from == CLEAN) {
+                continue;
+            }
+            int to = Math.min(mDirtyTo[page], mPoints.getPagePointCount(page));
+            if (to > from) {
+                FloatBuffer pageBuffer = mPoints.getPage(page);
+                pageBuffer.position(from * PointStore.FLOATS_PER_POINT);
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVboIds[page]);
+                GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, from * BYTES_PER_POINT,
+                        (to - from) * BYTES_PER_POINT, pageBuffer);
+            }
+            mDirtyFrom[page] = CLEAN;
+        }
+    }
+
+    /**
+     * Draws every stride-th point of the brick, one draw call per page. Must
+     * follow {@link #upload(VboPool)}. GL thread only.
+     *
+     * @return the number of points drawn.
+     */
+    int draw(int positionHandle, int stride) {
+        int drawn = 0;
+        for (int page = 0; page < mPoints.getPageCount(); page++) {
+            int count = LevelOfDetail.decimatedCount(mPoints.getPagePointCount(page), stride);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVboIds[page]);
+            GLES20.glVertexAttribPointer(positionHandle, PointStore.FLOATS_PER_POINT,
+                    GLES20.GL_FLOAT, false, stride * BYTES_PER_POINT, 0);
+            GLES20.glDrawArrays(GLES20.GL_POINTS, 0, count);
+            drawn += count;
+        }
+        return drawn;
+    }
+
+    /**
+     * Drops the points, returning their pages to the shared pool and their
+     * vertex buffer objects to the given pool. The brick must not be used
+     * afterwards.
+     */
+    void release(VboPool pool) {
+        mPoints.clear();
+        for (int i = 0; i < mVboCount; i++) {
+            pool.release(mVboIds[i]);
+        }
+        mVboCount = 0;
+    }
+}
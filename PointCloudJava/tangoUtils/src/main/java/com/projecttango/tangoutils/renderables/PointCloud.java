@@ -21,25 +21,57 @@ import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.util.Log;
 
+import com.projecttango.tangoutils.math.Mat4;
+
 /**
  * {@link Renderable} OpenGL showing a PointCloud obtained from Tango XyzIj
- * data. The point count can vary over as the information is updated.
+ * data. The point count can vary over as the information is updated. Points
+ * are split into {@link PointBrick}s on a uniform grid of {@link #BRICK_SIZE}
+ * meter cells, each with its own paged store, bounds and vertex buffer
+ * objects. Each draw skips bricks outside the view {@link Frustum}, draws
+ * distant bricks decimated according to {@link LevelOfDetail}, and uploads
+ * only the points written since the brick was last drawn.
+ *
+ * Each brick stores its points as float offsets from a double-precision
+ * anchor, and is drawn translated by its anchor minus the render origin set
+ * with {@link #setRenderOrigin(double, double, double)}. Keeping the view
+ * matrix relative to that origin keeps every float the GPU sees small, so
+ * points stay precise however far the scan extends from the world origin.
+ * The model matrix is not used.
  */
 public class PointCloud extends Renderable {
     private static final String TAG = "PointCloud";
 
-    private static final int MAX_POINTS = 2000000;
+    /** Edge length in meters of the grid cells the cloud is split into. */
+    public static final float BRICK_SIZE = 2.0f;
 
     private static final int COORDS_PER_VERTEX = 3;
-    private static final int BYTES_PER_FLOAT = 4;
-    private static final int POINT_TO_XYZ = 3;
+    private static final int INITIAL_BRICK_CAPACITY = 64;
+
+    private final ArrayList<PointBrick> mBricks = new ArrayList<PointBrick>();
+    /** Maps brick grid cells to indices in mBricks. */
+    private final VoxelGrid mBrickIndex = new VoxelGrid(BRICK_SIZE, INITIAL_BRICK_CAPACITY);
+    private final VboPool mVboPool = new VboPool();
+    private final Frustum mFrustum = new Frustum();
+    private final SnapshotEpochs mEpochs = new SnapshotEpochs(PointStore.getPagePool());
+    /** Most recently used brick; consecutive points usually share one. */
+    private PointBrick mLastBrick;
+    private long mLastBrickKey;
+    private int mPointCount;
+    private int mDrawnBrickCount;
+    private int mDrawnPointCount;
+    private double mRenderOriginX;
+    private double mRenderOriginY;
+    private double mRenderOriginZ;
+    private final float[] mBrickMvpMatrix = new float[16];
+    private final float[] mBrickBounds = new float[6];
 
-    private FloatBuffer vertexBuffer;
     private int mPosHandle;
     private int mMVPMatrixHandle;
 
@@ -59,87 +91,282 @@ public class PointCloud extends Renderable {
             + "varying vec4 vColor;void main() {  gl_FragColor = vec4(vColor);}";
     */
 
-    private int totalPointCount = 0;
+    private float mVoxelLeafSize;
+    private float[] mTransformedPoints = new float[0];
 
     public PointCloud() {
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER, sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER, sFragmentShaderCode);
-        shaderProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(shaderProgram, vertexShader);
-        GLES20.glAttachShader(shaderProgram, fragShader);
-        GLES20.glLinkProgram(shaderProgram);
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(sVertexShaderCode, sFragmentShaderCode);
+        shaderProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
 
-        Matrix.setIdentityM(getModelMatrix(), 0);
-        vertexBuffer = ByteBuffer.allocateDirect(MAX_POINTS * BYTES_PER_FLOAT * POINT_TO_XYZ)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        Mat4.setIdentityM(getModelMatrix(), 0);
+    }
+
+    /**
+     * Enables voxel-grid downsampling of the accumulated points. Once enabled,
+     * a point that falls into an already-occupied voxel is merged into that
+     * voxel's centroid instead of being appended, so memory and draw cost stay
+     * bounded by the scanned volume rather than by the session length.
+     * Changing the leaf size applies to points added after the call.
+     *
+     * @param leafSize
+     *            voxel edge length in meters, or 0 to disable downsampling.
+     */
+    public synchronized void setVoxelLeafSize(float leafSize) {
+        mVoxelLeafSize = Math.max(leafSize, 0);
+    }
+
+    public synchronized float getVoxelLeafSize() {
+        return mVoxelLeafSize;
     }
 
     public void addPoints(byte[] byteArray, int pointCount, float[] modelMatrix) {
-        if (totalPointCount + pointCount > MAX_POINTS) {
-            return;
+        addPoints(ByteBuffer.wrap(byteArray).order(ByteOrder.nativeOrder()).asFloatBuffer(),
+                pointCount, modelMatrix);
+    }
+
+    /**
+     * Transforms a frame of points into world space and adds it to the cloud.
+     * The points are copied, so the caller may reuse the buffer afterwards.
+     *
+     * @param points
+     *            packed xyz floats, read with absolute indices from 0.
+     * @param pointCount
+     *            number of points in the frame.
+     * @param modelMatrix
+     *            transform from the depth camera frame to world space.
+     */
+    public synchronized void addPoints(FloatBuffer points, int pointCount, float[] modelMatrix) {
+        int floatCount = pointCount * COORDS_PER_VERTEX;
+        if (mTransformedPoints.length < floatCount) {
+            mTransformedPoints = new float[floatCount];
+        }
+        PointTransform.transform(modelMatrix, points, 0, mTransformedPoints, 0, pointCount);
+        for (int i = 0; i < floatCount; i += COORDS_PER_VERTEX) {
+            addPoint(mTransformedPoints[i], mTransformedPoints[i + 1], mTransformedPoints[i + 2]);
+        }
+    }
+
+    /**
+     * Adds points that are already in world space, such as a frame transformed
+     * on another thread. The points are copied.
+     *
+     * @param points
+     *            packed xyz floats, read with absolute indices from 0.
+     * @param pointCount
+     *            number of points to add.
+     */
+    public void addWorldPoints(FloatBuffer points, int pointCount) {
+        addWorldPoints(points, pointCount, 0, 0, 0);
+    }
+
+    /**
+     * Adds points given relative to a double-precision world position, such
+     * as a depth frame rotated into world axes but centered on the camera.
+     * Each point lands at origin + point in world space without passing
+     * through a large float.
+     *
+     * @param points
+     *            packed xyz floats, read with absolute indices from 0.
+     * @param pointCount
+     *            number of points to add.
+     */
+    public synchronized void addWorldPoints(FloatBuffer points, int pointCount,
+            double originX, double originY, double originZ) {
+        int floatCount = pointCount * COORDS_PER_VERTEX;
+        for (int i = 0; i < floatCount; i += COORDS_PER_VERTEX) {
+            addPoint(originX + points.get(i), originY + points.get(i + 1),
+                    originZ + points.get(i + 2));
+        }
+    }
+
+    private void addPoint(double x, double y, double z) {
+        PointBrick brick = brickFor(x, y, z);
+        float localX = (float) (x - brick.getAnchorX());
+        float localY = (float) (y - brick.getAnchorY());
+        float localZ = (float) (z - brick.getAnchorZ());
+        if (mVoxelLeafSize > 0) {
+            if (brick.merge(localX, localY, localZ, mVoxelLeafSize)) {
+                mPointCount++;
+            }
+        } else {
+            brick.add(localX, localY, localZ);
+            mPointCount++;
+        }
+    }
+
+    /**
+     * Returns the brick whose grid cell contains the point, creating it if
+     * needed.
+     */
+    private PointBrick brickFor(double x, double y, double z) {
+        long key = mBrickIndex.keyOf(x, y, z);
+        if (mLastBrick != null && key == mLastBrickKey) {
+            return mLastBrick;
         }
-        float[] pointVec = new float[4];
-        float[] outVec = new float[4];
-        vertexBuffer.position(totalPointCount * POINT_TO_XYZ);
-        FloatBuffer newArray = ByteBuffer.wrap(byteArray)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        newArray.position(0);
-        for (int i = 0; i < pointCount; i++) {
-            pointVec[0] = newArray.get();
-            pointVec[1] = newArray.get();
-            pointVec[2] = newArray.get();
-            pointVec[3] = 1;
-            Matrix.multiplyMV(outVec, 0, modelMatrix, 0, pointVec, 0);
-            vertexBuffer.put(outVec[0]);
-            vertexBuffer.put(outVec[1]);
-            vertexBuffer.put(outVec[2]);
+        int index = mBrickIndex.get(key);
+        if (index < 0) {
+            index = mBricks.size();
+            mBricks.add(new PointBrick(mEpochs, mBrickIndex.cellOrigin(x),
+                    mBrickIndex.cellOrigin(y), mBrickIndex.cellOrigin(z)));
+            mBrickIndex.put(key, index);
         }
-        totalPointCount += pointCount;
+        mLastBrick = mBricks.get(index);
+        mLastBrickKey = key;
+        return mLastBrick;
+    }
+
+    /**
+     * Sets the world position that the view matrix passed to draw is
+     * relative to.
+     */
+    public synchronized void setRenderOrigin(double x, double y, double z) {
+        mRenderOriginX = x;
+        mRenderOriginY = y;
+        mRenderOriginZ = z;
     }
 
+    /**
+     * Drops all points. The point pages and vertex buffer objects are kept in
+     * pools so that refilling the cloud does not allocate.
+     */
     public synchronized void clear() {
-        totalPointCount = 0;
+        for (int i = 0; i < mBricks.size(); i++) {
+            mBricks.get(i).release(mVboPool);
+        }
+        mBricks.clear();
+        mBrickIndex.clear();
+        mLastBrick = null;
+        mPointCount = 0;
     }
 
     @Override
     public synchronized void draw(float[] viewMatrix, float[] projectionMatrix) {
-        if (totalPointCount == 0) {
+        mDrawnBrickCount = 0;
+        mDrawnPointCount = 0;
+        if (mPointCount == 0) {
             return;
         }
-        vertexBuffer.position(0);
         GLES20.glUseProgram(shaderProgram);
-        updateMvpMatrix(viewMatrix, projectionMatrix);
-        mPosHandle = GLES20.glGetAttribLocation(shaderProgram, "vPosition");
-        GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT, false, 0, vertexBuffer);
+        float[] viewProjection = getViewProjectionMatrix(viewMatrix, projectionMatrix);
         GLES20.glEnableVertexAttribArray(mPosHandle);
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(shaderProgram, "uMVPMatrix");
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
-        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, totalPointCount);
+        mFrustum.set(viewMatrix, projectionMatrix, viewProjection);
+        for (int i = 0; i < mBricks.size(); i++) {
+            PointBrick brick = mBricks.get(i);
+            if (brick.size() == 0) {
+                continue;
+            }
+            // Brick offset from the render origin; small near the camera.
+            float tx = (float) (brick.getAnchorX() - mRenderOriginX);
+            float ty = (float) (brick.getAnchorY() - mRenderOriginY);
+            float tz = (float) (brick.getAnchorZ() - mRenderOriginZ);
+            float[] bounds = brick.getBounds();
+            mBrickBounds[0] = bounds[0] + tx;
+            mBrickBounds[1] = bounds[1] + ty;
+            mBrickBounds[2] = bounds[2] + tz;
+            mBrickBounds[3] = bounds[3] + tx;
+            mBrickBounds[4] = bounds[4] + ty;
+            mBrickBounds[5] = bounds[5] + tz;
+            if (!mFrustum.intersects(mBrickBounds)) {
+                continue;
+            }
+            // Culled bricks keep their dirty ranges until they come into view.
+            brick.upload(mVboPool);
+            // MVP = VP * translate(t): only the last column changes.
+            System.arraycopy(viewProjection, 0, mBrickMvpMatrix, 0, 12);
+            for (int row = 0; row < 4; row++) {
+                mBrickMvpMatrix[12 + row] = viewProjection[row] * tx
+                        + viewProjection[4 + row] * ty + viewProjection[8 + row] * tz
+                        + viewProjection[12 + row];
+            }
+            GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mBrickMvpMatrix, 0);
+            int stride = LevelOfDetail.strideFor(mFrustum.projectedSize(mBrickBounds));
+            mDrawnPointCount += brick.draw(mPosHandle, stride);
+            mDrawnBrickCount++;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
     }
 
-    public int getPointCount() {
-        return totalPointCount;
+    public synchronized int getPointCount() {
+        return mPointCount;
     }
 
-    public void writeToStream(OutputStreamWriter writer) throws IOException {
-        StringBuilder str = new StringBuilder();
-        FloatBuffer scopeBuf = vertexBuffer.duplicate();
-        scopeBuf.position(0);
-        for (int i = 0; i < totalPointCount; i++) {
-            str.append(scopeBuf.get());
-            str.append(',');
-            str.append(scopeBuf.get());
-            str.append(',');
-            str.append(scopeBuf.get());
-            str.append('\n');
-            if (i % 10000 == 0) {
-                writer.write(str.toString());
-                str = new StringBuilder();
+    public synchronized int getBrickCount() {
+        return mBricks.size();
+    }
+
+    /** Number of bricks that passed frustum culling in the last draw. */
+    public synchronized int getDrawnBrickCount() {
+        return mDrawnBrickCount;
+    }
+
+    /** Number of points submitted to GL in the last draw, after decimation. */
+    public synchronized int getDrawnPointCount() {
+        return mDrawnPointCount;
+    }
+
+    /**
+     * Captures the current points without copying them. The cloud stays
+     * fully usable while the snapshot is open: appended points are not part
+     * of it, and pages it references are copied before any in-place write.
+     * The caller must close the snapshot.
+     */
+    public synchronized PointCloudSnapshot snapshot() {
+        int epoch = mEpochs.open();
+        int pageCount = 0;
+        for (int b = 0; b < mBricks.size(); b++) {
+            pageCount += mBricks.get(b).getPoints().getPageCount();
+        }
+        FloatBuffer[] pages = new FloatBuffer[pageCount];
+        int[] pagePointCounts = new int[pageCount];
+        double[] pageOrigins = new double[pageCount * 3];
+        int next = 0;
+        for (int b = 0; b < mBricks.size(); b++) {
+            PointBrick brick = mBricks.get(b);
+            PointStore points = brick.getPoints();
+            points.freeze(epoch);
+            for (int page = 0; page < points.getPageCount(); page++) {
+                pages[next] = points.getPage(page);
+                pagePointCounts[next] = points.getPagePointCount(page);
+                pageOrigins[next * 3] = brick.getAnchorX();
+                pageOrigins[next * 3 + 1] = brick.getAnchorY();
+                pageOrigins[next * 3 + 2] = brick.getAnchorZ();
+                next++;
             }
         }
-        if (str.length() > 0) {
-            writer.write(str.toString());
+        return new PointCloudSnapshot(mEpochs, epoch, pages, pagePointCounts, pageOrigins,
+                mPointCount);
+    }
+
+    /**
+     * Writes a snapshot of the points to a channel in a binary format. Points
+     * may keep being added while this runs.
+     *
+     * @see PointCloudSnapshot#writeToChannel(FileChannel, int)
+     */
+    public void writeToChannel(FileChannel channel, int format) throws IOException {
+        PointCloudSnapshot snapshot = snapshot();
+        try {
+            snapshot.writeToChannel(channel, format);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the points as text. Points may keep being added
+     * while this runs.
+     *
+     * @see PointCloudSnapshot#writeToStream(OutputStreamWriter)
+     */
+    public void writeToStream(OutputStreamWriter writer) throws IOException {
+        PointCloudSnapshot snapshot = snapshot();
+        try {
+            snapshot.writeToStream(writer);
+        } finally {
+            snapshot.close();
         }
     }
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Immutable view of the points a {@link PointCloud} held when
+ * {@link PointCloud#snapshot()} was called. Taking a snapshot copies no
+ * points: it references the cloud's pages, which the cloud then treats as
+ * copy-on-write until the snapshot is closed. The cloud may keep accumulating,
+ * merging and clearing meanwhile, so a long export can run on a background
+ * thread without stopping collection.
+ *
+ * Pages hold points relative to a per-page origin, see
+ * {@link #getPageOrigin(int, double[])}; the writers add it back.
+ *
+ * Always {@link #close()} a snapshot when done so that its pages can be
+ * written in place and recycled again.
+ */
+public class PointCloudSnapshot {
+
+    private final SnapshotEpochs mEpochs;
+    private final int mEpoch;
+    private final FloatBuffer[] mPages;
+    private final int[] mPagePointCounts;
+    /** World position of each page's local origin, 3 doubles per page. */
+    private final double[] mPageOrigins;
+    private final int mPointCount;
+    private boolean mClosed;
+
+    PointCloudSnapshot(SnapshotEpochs epochs, int epoch, FloatBuffer[] pages,
+            int[] pagePointCounts, double[] pageOrigins, int pointCount) {
+        mEpochs = epochs;
+        mEpoch = epoch;
+        mPages = pages;
+        mPagePointCounts = pagePointCounts;
+        mPageOrigins = pageOrigins;
+        mPointCount = pointCount;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public int getPageCount() {
+        return mPages.length;
+    }
+
+    /**
+     * Returns a page of packed xyz floats. Use
+     * {@link #getPagePointCount(int)} to know how many points it holds; the
+     * buffer's own position and limit are not meaningful.
+     */
+    public FloatBuffer getPage(int pageIndex) {
+        return mPages[pageIndex].duplicate();
+    }
+
+    public int getPagePointCount(int pageIndex) {
+        return mPagePointCounts[pageIndex];
+    }
+
+    /**
+     * Copies the world position that a page's points are relative to into
+     * result[0..2].
+     */
+    public void getPageOrigin(int pageIndex, double[] result) {
+        System.arraycopy(mPageOrigins, pageIndex * 3, result, 0, 3);
+    }
+
+    /**
+     * Releases the snapshot. Its pages must not be read afterwards.
+     */
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mEpochs.close(mEpoch);
+        }
+    }
+
+    /**
+     * Writes every point to a channel in a binary format.
+     *
+     * @param format
+     *            {@link PointCloudWriter#FORMAT_PLY} or
+     *            {@link PointCloudWriter#FORMAT_PCD}.
+     */
+    public void writeToChannel(FileChannel channel, int format) throws IOException {
+        PointCloudWriter writer = new PointCloudWriter(channel);
+        writer.writeHeader(format, mPointCount);
+        for (int page = 0; page < mPages.length; page++) {
+            int o = page * 3;
+            writer.writePoints(mPages[page], mPagePointCounts[page],
+                    mPageOrigins[o], mPageOrigins[o + 1], mPageOrigins[o + 2]);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes every point as comma-separated text, one point per line.
+     */
+    public void writeToStream(OutputStreamWriter writer) throws IOException {
+        StringBuilder str = new StringBuilder();
+        int written = 0;
+        for (int page = 0; page < mPages.length; page++) {
+            FloatBuffer scopeBuf = getPage(page);
+            scopeBuf.position(0);
+            int o = page * 3;
+            for (int i = 0; i < mPagePointCounts[page]; i++) {
+                str.append((float) (mPageOrigins[o] + scopeBuf.get()));
+                str.append(',');
+                str.append((float) (mPageOrigins[o + 1] + scopeBuf.get()));
+                str.append(',');
+                str.append((float) (mPageOrigins[o + 2] + scopeBuf.get()));
+                str.append('\n');
+                if (++written % 10000 == 0) {
+                    writer.write(str.toString());
+                    str = new StringBuilder();
+                }
+            }
+        }
+        if (str.length() > 0) {
+            writer.write(str.toString());
+        }
+    }
+}
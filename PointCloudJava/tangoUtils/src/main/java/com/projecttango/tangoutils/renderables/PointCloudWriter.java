@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Streams points to a {@link FileChannel} in a binary little-endian point
+ * cloud format. Points are bulk-copied from the caller's pages into a large
+ * direct buffer that is written to the channel whenever it fills, so no
+ * per-coordinate formatting or per-point call takes place. Points stored
+ * relative to a brick anchor are offset in a float array between the two
+ * bulk copies.
+ *
+ * Usage: {@link #writeHeader(int, int)}, then {@link #writePoints} once per
+ * page, then {@link #flush()}.
+ */
+public class PointCloudWriter {
+
+    /** Comma-separated text, one point per line; see PointCloud#writeToStream. */
+    public static final int FORMAT_TXT = 0;
+    /** Stanford PLY, binary_little_endian 1.0, float x y z per vertex. */
+    public static final int FORMAT_PLY = 1;
+    /** PCL PCD v0.7, binary data, float x y z per point. */
+    public static final int FORMAT_PCD = 2;
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int CHUNK_FLOATS = PointStore.POINTS_PER_PAGE
+            * PointStore.FLOATS_PER_POINT;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final FloatBuffer mFloats;
+    private final float[] mChunk = new float[CHUNK_FLOATS];
+
+    public PointCloudWriter(FileChannel channel) {
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        mFloats = mBuffer.asFloatBuffer();
+    }
+
+    /**
+     * Returns the file name extension, without the dot, for a format.
+     */
+    public static String getFileExtension(int format) {
+        switch (format) {
+            case FORMAT_PLY:
+                return "ply";
+            case FORMAT_PCD:
+                return "pcd";
+            default:
+                return "txt";
+        }
+    }
+
+    /**
+     * Writes the file header for the given number of points.
+     *
+     * @param format
+     *            {@link #FORMAT_PLY} or {@link #FORMAT_PCD}.
+     */
+    public void writeHeader(int format, int pointCount) throws IOException {
+        String header;
+        switch (format) {
+            case FORMAT_PLY:
+                header = "ply\n"
+                        + "format binary_little_endian 1.0\n"
+                        + "element vertex " + pointCount + "\n"
+                        + "property float x\n"
+                        + "property float y\n"
+                        + "property float z\n"
+                        + "end_header\n";
+                break;
+            case FORMAT_PCD:
+                header = "# .PCD v0.7 - Point Cloud Data file format\n"
+                        + "VERSION 0.7\n"
+                        + "FIELDS x y z\n"
+                        + "SIZE 4 4 4\n"
+                        + "TYPE F F F\n"
+                        + "COUNT 1 1 1\n"
+                        + "WIDTH " + pointCount + "\n"
+                        + "HEIGHT 1\n"
+                        + "VIEWPOINT 0 0 0 1 0 0 0\n"
+                        + "POINTS " + pointCount + "\n"
+                        + "DATA binary\n";
+                break;
+            default:
+                throw new IllegalArgumentException("Not a binary format: " + format);
+        }
+        writeFully(ByteBuffer.wrap(header.getBytes(ASCII)));
+    }
+
+    /**
+     * Appends packed xyz points.
+     *
+     * @param points
+     *            packed xyz floats, read from index 0. Its position and limit
+     *            are left untouched.
+     * @param pointCount
+     *            number of points to write.
+     */
+    public void writePoints(FloatBuffer points, int pointCount) throws IOException {
+        FloatBuffer source = points.duplicate();
+        source.position(0);
+        int end = pointCount * PointStore.FLOATS_PER_POINT;
+        while (source.position() < end) {
+            int batch = Math.min(mFloats.remaining(), end - source.position());
+            source.limit(source.position() + batch);
+            mFloats.put(source);
+            if (!mFloats.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Appends packed xyz points stored relative to a world position. Each
+     * point is written as origin + point, rounded to float once.
+     *
+     * Brick anchors are whole multiples of the brick size and so exactly
+     * representable as floats. Adding such an origin in float rounds the
+     * same way as adding it in double, so the points are copied out in
+     * chunks, offset in a float array and copied back in bulk. Only an
+     * origin that is not a float falls back to converting point by point.
+     *
+     * @param points
+     *            packed xyz floats, read from index 0. Its position and limit
+     *            are left untouched.
+     * @param pointCount
+     *            number of points to write.
+     */
+    public void writePoints(FloatBuffer points, int pointCount,
+            double originX, double originY, double originZ) throws IOException {
+        if (originX == 0 && originY == 0 && originZ == 0) {
+            writePoints(points, pointCount);
+            return;
+        }
+        float x = (float) originX;
+        float y = (float) originY;
+        float z = (float) originZ;
+        if (x == originX && y == originY && z == originZ) {
+            writeOffsetPoints(points, pointCount, x, y, z);
+            return;
+        }
+        int end = pointCount * PointStore.FLOATS_PER_POINT;
+        for (int i = 0; i < end; i += PointStore.FLOATS_PER_POINT) {
+            if (mFloats.remaining() < PointStore.FLOATS_PER_POINT) {
+                flush();
+            }
+            mFloats.put((float) (originX + points.get(i)));
+            mFloats.put((float) (originY + points.get(i + 1)));
+            mFloats.put((float) (originZ + points.get(i + 2)));
+        }
+    }
+
+    private void writeOffsetPoints(FloatBuffer points, int pointCount,
+            float originX, float originY, float originZ) throws IOException {
+        FloatBuffer source = points.duplicate();
+        source.position(0);
+        int remaining = pointCount * PointStore.FLOATS_PER_POINT;
+        while (remaining > 0) {
+            int batch = Math.min(CHUNK_FLOATS, remaining);
+            source.get(mChunk, 0, batch);
+            for (int i = 0; i < batch; i += PointStore.FLOATS_PER_POINT) {
+                mChunk[i] += originX;
+                mChunk[i + 1] += originY;
+                mChunk[i + 2] += originZ;
+            }
+            int written = 0;
+            while (written < batch) {
+                int count = Math.min(mFloats.remaining(), batch - written);
+                mFloats.put(mChunk, written, count);
+                written += count;
+                if (!mFloats.hasRemaining()) {
+                    flush();
+                }
+            }
+            remaining -= batch;
+        }
+    }
+
+    /**
+     * Writes any buffered points to the channel. Does not close or force it.
+     */
+    public void flush() throws IOException {
+        mBuffer.position(0);
+        mBuffer.limit(mFloats.position() * 4);
+        writeFully(mBuffer);
+        mBuffer.clear();
+        mFloats.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
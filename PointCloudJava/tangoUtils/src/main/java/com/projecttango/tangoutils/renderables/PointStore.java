@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * Growable store of packed xyz points held in fixed-size direct
+ * {@link FloatBuffer} pages. Pages are allocated on demand and returned to a
+ * shared {@link FloatBufferPool} on {@link #clear()}, so the store starts
+ * small, has no hard point cap, and can be emptied without touching the
+ * points themselves.
+ */
+public class PointStore {
+
+    public static final int POINTS_PER_PAGE = 8192;
+    public static final int FLOATS_PER_POINT = 3;
+
+    private static final int MAX_POOLED_PAGES = 64;
+    private static final FloatBufferPool sPagePool = new FloatBufferPool(
+            POINTS_PER_PAGE * FLOATS_PER_POINT, MAX_POOLED_PAGES);
+
+    private final ArrayList<FloatBuffer> mPages = new ArrayList<FloatBuffer>();
+    private int mSize;
+
+    /** Snapshot bookkeeping shared by the owning cloud, or null. */
+    private final SnapshotEpochs mEpochs;
+    /** Epoch of the latest snapshot that captured each page, 0 if none. */
+    private int[] mPageEpochs = new int[4];
+
+    public PointStore() {
+        this(null);
+    }
+
+    /**
+     * @param epochs
+     *            snapshot bookkeeping deciding which pages are frozen, or
+     *            null if this store is never snapshotted.
+     */
+    PointStore(SnapshotEpochs epochs) {
+        mEpochs = epochs;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends a point, allocating a new page when the last one is full.
+     */
+    public void add(float x, float y, float z) {
+        int pageIndex = mSize / POINTS_PER_PAGE;
+        if (pageIndex == mPages.size()) {
+            addPage();
+        }
+        int offset = (mSize % POINTS_PER_PAGE) * FLOATS_PER_POINT;
+        FloatBuffer page = mPages.get(pageIndex);
+        page.put(offset, x);
+        page.put(offset + 1, y);
+        page.put(offset + 2, z);
+        mSize++;
+    }
+
+    /**
+     * Returns one coordinate of a stored point.
+     *
+     * @param index
+     *            point index, less than {@link #size()}.
+     * @param component
+     *            0, 1 or 2 for x, y or z.
+     */
+    public float get(int index, int component) {
+        return mPages.get(index / POINTS_PER_PAGE).get(
+                (index % POINTS_PER_PAGE) * FLOATS_PER_POINT + component);
+    }
+
+    /**
+     * Overwrites a stored point. If its page is frozen by an open snapshot,
+     * the page is copied first and the snapshot keeps the original.
+     */
+    public void set(int index, float x, float y, float z) {
+        int pageIndex = index / POINTS_PER_PAGE;
+        if (mEpochs != null && mEpochs.isFrozen(mPageEpochs[pageIndex])) {
+            copyPage(pageIndex);
+        }
+        FloatBuffer page = mPages.get(pageIndex);
+        int offset = (index % POINTS_PER_PAGE) * FLOATS_PER_POINT;
+        page.put(offset, x);
+        page.put(offset + 1, y);
+        page.put(offset + 2, z);
+    }
+
+    /**
+     * Drops all points and returns their pages to the pool. Pages still
+     * frozen by an open snapshot return once the snapshot is closed.
+     */
+    public void clear() {
+        for (int i = 0; i < mPages.size(); i++) {
+            releasePage(i);
+        }
+        mPages.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Stamps every current page with a snapshot epoch. Points appended later
+     * land past the snapshot's point count, so they do not need a copy; only
+     * in-place writes and clearing consult the stamp.
+     */
+    void freeze(int epoch) {
+        for (int i = 0; i < mPages.size(); i++) {
+            mPageEpochs[i] = epoch;
+        }
+    }
+
+    private void addPage() {
+        int pageIndex = mPages.size();
+        if (pageIndex == mPageEpochs.length) {
+            int[] grown = new int[pageIndex * 2];
+            System.arraycopy(mPageEpochs, 0, grown, 0, pageIndex);
+            mPageEpochs = grown;
+        }
+        mPageEpochs[pageIndex] = 0;
+        mPages.add(sPagePool.acquire());
+    }
+
+    /**
+     * Replaces a frozen page by a private copy of its points.
+     */
+    private void copyPage(int pageIndex) {
+        FloatBuffer source = mPages.get(pageIndex).duplicate();
+        source.position(0);
+        source.limit(getPagePointCount(pageIndex) * FLOATS_PER_POINT);
+        FloatBuffer copy = sPagePool.acquire();
+        copy.position(0);
+        copy.put(source);
+        releasePage(pageIndex);
+        mPages.set(pageIndex, copy);
+        mPageEpochs[pageIndex] = 0;
+    }
+
+    /**
+     * Returns a page that is being dropped to the pool, through the snapshot
+     * bookkeeping so that a frozen page waits for its snapshots to close.
+     */
+    private void releasePage(int pageIndex) {
+        if (mEpochs == null) {
+            sPagePool.release(mPages.get(pageIndex));
+        } else {
+            mEpochs.retire(mPages.get(pageIndex), mPageEpochs[pageIndex]);
+        }
+    }
+
+    /** Returns the pool shared by all stores. */
+    static FloatBufferPool getPagePool() {
+        return sPagePool;
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the backing buffer of a page. Its position and limit are not
+     * meaningful; use {@link #getPagePointCount(int)} to know how many points
+     * it holds.
+     */
+    public FloatBuffer getPage(int pageIndex) {
+        return mPages.get(pageIndex);
+    }
+
+    public int getPagePointCount(int pageIndex) {
+        return Math.min(POINTS_PER_PAGE, mSize - pageIndex * POINTS_PER_PAGE);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Batch kernels applying a rigid 4x4 transform to packed xyz points. The
+ * matrix is column major, as used by android.opengl.Matrix, and is assumed to
+ * have a bottom row of (0, 0, 0, 1), so each point costs nine multiplies and
+ * nine adds with no per-point allocation or JNI call. Results match
+ * Matrix.multiplyMV on (x, y, z, 1).
+ */
+public final class PointTransform {
+
+    private static final int FLOATS_PER_POINT = 3;
+
+    private PointTransform() {
+    }
+
+    /**
+     * Transforms points from one buffer into another. Both buffers are
+     * accessed with absolute indices; their positions are left untouched.
+     *
+     * @param matrix
+     *            column-major rigid transform.
+     * @param src
+     *            source buffer of packed xyz floats.
+     * @param srcPoint
+     *            index of the first source point.
+     * @param dst
+     *            destination buffer of packed xyz floats.
+     * @param dstPoint
+     *            index of the first destination point.
+     * @param pointCount
+     *            number of points to transform.
+     */
+    public static void transform(float[] matrix, FloatBuffer src, int srcPoint,
+            FloatBuffer dst, int dstPoint, int pointCount) {
+        final float m0 = matrix[0], m1 = matrix[1], m2 = matrix[2];
+        final float m4 = matrix[4], m5 = matrix[5], m6 = matrix[6];
+        final float m8 = matrix[8], m9 = matrix[9], m10 = matrix[10];
+        final float m12 = matrix[12], m13 = matrix[13], m14 = matrix[14];
+        int s = srcPoint * FLOATS_PER_POINT;
+        int d = dstPoint * FLOATS_PER_POINT;
+        for (int i = 0; i < pointCount; i++) {
+            float x = src.get(s);
+            float y = src.get(s + 1);
+            float z = src.get(s + 2);
+            dst.put(d, m0 * x + m4 * y + m8 * z + m12);
+            dst.put(d + 1, m1 * x + m5 * y + m9 * z + m13);
+            dst.put(d + 2, m2 * x + m6 * y + m10 * z + m14);
+            s += FLOATS_PER_POINT;
+            d += FLOATS_PER_POINT;
+        }
+    }
+
+    /**
+     * Transforms points from a buffer into a float array.
+     *
+     * @see #transform(float[], FloatBuffer, int, FloatBuffer, int, int)
+     */
+    public static void transform(float[] matrix, FloatBuffer src, int srcPoint,
+            float[] dst, int dstPoint, int pointCount) {
+        final float m0 = matrix[0], m1 = matrix[1], m2 = matrix[2];
+        final float m4 = matrix[4], m5 = matrix[5], m6 = matrix[6];
+        final float m8 = matrix[8], m9 = matrix[9], m10 = matrix[10];
+        final float m12 = matrix[12], m13 = matrix[13], m14 = matrix[14];
+        int s = srcPoint * FLOATS_PER_POINT;
+        int d = dstPoint * FLOATS_PER_POINT;
+        for (int i = 0; i < pointCount; i++) {
+            float x = src.get(s);
+            float y = src.get(s + 1);
+            float z = src.get(s + 2);
+            dst[d] = m0 * x + m4 * y + m8 * z + m12;
+            dst[d + 1] = m1 * x + m5 * y + m9 * z + m13;
+            dst[d + 2] = m2 * x + m6 * y + m10 * z + m14;
+            s += FLOATS_PER_POINT;
+            d += FLOATS_PER_POINT;
+        }
+    }
+}
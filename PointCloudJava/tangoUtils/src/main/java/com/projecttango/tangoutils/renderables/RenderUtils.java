@@ -16,6 +16,8 @@
 
 package com.projecttango.tangoutils.renderables;
 
+import java.util.HashMap;
+
 import android.opengl.GLES20;
 
 /**
@@ -23,6 +25,10 @@ import android.opengl.GLES20;
  */
 public class RenderUtils {
 
+    /** Linked programs of the current context, keyed by shader sources. */
+    private static final HashMap<String, ShaderProgram> sPrograms =
+            new HashMap<String, ShaderProgram>();
+
     /**
      * Creates a vertex or fragment shader.
      * 
@@ -43,4 +49,36 @@ public class RenderUtils {
         return shader;
     }
 
+    /**
+     * Returns the program linked from the given shaders, linking it on first
+     * use. Renderables with the same shader sources share one program.
+     * Renderers call {@link #clearProgramCache()} when their surface is
+     * created. Must be called on the GL thread.
+     * 
+     * @param vertexShaderCode
+     *            GLSL code for the vertex shader.
+     * @param fragmentShaderCode
+     *            GLSL code for the fragment shader.
+     * @return a linked program.
+     */
+    public static synchronized ShaderProgram getProgram(
+            String vertexShaderCode, String fragmentShaderCode) {
+        String key = vertexShaderCode + '\0' + fragmentShaderCode;
+        ShaderProgram program = sPrograms.get(key);
+        if (program == null) {
+            program = new ShaderProgram(vertexShaderCode, fragmentShaderCode);
+            sPrograms.put(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Forgets all cached programs. Call at the start of onSurfaceCreated,
+     * before any renderable is created: a new surface comes with a new EGL
+     * context, and programs linked in the old one are gone.
+     */
+    public static synchronized void clearProgramCache() {
+        sPrograms.clear();
+    }
+
 }
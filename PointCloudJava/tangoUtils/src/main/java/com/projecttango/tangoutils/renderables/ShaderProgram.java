@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils.renderables;
+
+import java.util.HashMap;
+
+import android.opengl.GLES20;
+
+/**
+ * A linked OpenGL program shared by every {@link Renderable} drawn with the
+ * same shader sources. Obtain instances from
+ * {@link RenderUtils#getProgram(String, String)}.
+ * 
+ * Attribute and uniform locations are looked up in the driver once per
+ * program and remembered, so renderables can resolve them when they are
+ * created rather than on every draw.
+ */
+public class ShaderProgram {
+
+    private final int mProgram;
+    private final HashMap<String, Integer> mAttribLocations =
+            new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mUniformLocations =
+            new HashMap<String, Integer>();
+
+    ShaderProgram(String vertexShaderCode, String fragmentShaderCode) {
+        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
+                vertexShaderCode);
+        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+                fragmentShaderCode);
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, vertexShader);
+        GLES20.glAttachShader(mProgram, fragShader);
+        GLES20.glLinkProgram(mProgram);
+    }
+
+    /** Returns the GL name of the program, for glUseProgram. */
+    public int getId() {
+        return mProgram;
+    }
+
+    public int getAttribLocation(String name) {
+        Integer location = mAttribLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetAttribLocation(mProgram, name);
+            mAttribLocations.put(name, location);
+        }
+        return location;
+    }
+
+    public int getUniformLocation(String name) {
+        Integer location = mUniformLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(mProgram, name);
+            mUniformLocations.put(name, location);
+        }
+        return location;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Tracks which {@link PointCloudSnapshot}s of a cloud are still open. Every
+ * snapshot gets a new epoch, and the pages it references are stamped with
+ * that epoch. A page stamped at or after the oldest open epoch is frozen:
+ * {@link PointStore} copies it before an in-place write and, when the page
+ * leaves the store, retires it here instead of recycling it. Retired pages go
+ * back to the page pool once the last snapshot that can read them closes.
+ */
+class SnapshotEpochs {
+
+    /** Value of mOldestOpen while no snapshot is open. */
+    private static final int NONE_OPEN = Integer.MAX_VALUE;
+
+    private int mLastEpoch;
+    private int[] mOpen = new int[4];
+    private int mOpenCount;
+    /**
+     * Read without the lock by writers; a stale value only makes a page look
+     * frozen for longer than needed.
+     */
+    private volatile int mOldestOpen = NONE_OPEN;
+
+    private final FloatBufferPool mPool;
+    /** Pages dropped by their store while frozen, and their epochs. */
+    private FloatBuffer[] mRetiredPages = new FloatBuffer[4];
+    private int[] mRetiredEpochs = new int[4];
+    private int mRetiredCount;
+
+    /**
+     * @param pool
+     *            pool that retired pages are released to.
+     */
+    SnapshotEpochs(FloatBufferPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Starts a new snapshot and returns its epoch, which is never 0.
+     */
+    synchronized int open() {
+        int epoch = ++mLastEpoch;
+        if (mOpenCount == mOpen.length) {
+            int[] grown = new int[mOpenCount * 2];
+            System.arraycopy(mOpen, 0, grown, 0, mOpenCount);
+            mOpen = grown;
+        }
+        mOpen[mOpenCount++] = epoch;
+        if (mOpenCount == 1) {
+            mOldestOpen = epoch;
+        }
+        return epoch;
+    }
+
+    /**
+     * Ends a snapshot. Unknown or already closed epochs are ignored.
+     */
+    synchronized void close(int epoch) {
+        int oldest = NONE_OPEN;
+        int kept = 0;
+        for (int i = 0; i < mOpenCount; i++) {
+            if (mOpen[i] != epoch) {
+                mOpen[kept++] = mOpen[i];
+                oldest = Math.min(oldest, mOpen[i]);
+            }
+        }
+        mOpenCount = kept;
+        mOldestOpen = oldest;
+
+        kept = 0;
+        for (int i = 0; i < mRetiredCount; i++) {
+            if (isFrozen(mRetiredEpochs[i])) {
+                mRetiredPages[kept] = mRetiredPages[i];
+                mRetiredEpochs[kept++] = mRetiredEpochs[i];
+            } else {
+                mPool.release(mRetiredPages[i]);
+            }
+        }
+        for (int i = kept; i < mRetiredCount; i++) {
+            mRetiredPages[i] = null;
+        }
+        mRetiredCount = kept;
+    }
+
+    /**
+     * Takes a page its store no longer references. The page is released to
+     * the pool now if no open snapshot can read it, or else when the last
+     * such snapshot closes.
+     *
+     * @param pageEpoch
+     *            epoch the page is stamped with.
+     */
+    synchronized void retire(FloatBuffer page, int pageEpoch) {
+        if (!isFrozen(pageEpoch)) {
+            mPool.release(page);
+            return;
+        }
+        if (mRetiredCount == mRetiredPages.length) {
+            FloatBuffer[] pages = new FloatBuffer[mRetiredCount * 2];
+            System.arraycopy(mRetiredPages, 0, pages, 0, mRetiredCount);
+            mRetiredPages = pages;
+            int[] epochs = new int[mRetiredCount * 2];
+            System.arraycopy(mRetiredEpochs, 0, epochs, 0, mRetiredCount);
+            mRetiredEpochs = epochs;
+        }
+        mRetiredPages[mRetiredCount] = page;
+        mRetiredEpochs[mRetiredCount++] = pageEpoch;
+    }
+
+    /** Returns the number of retired pages waiting for snapshots to close. */
+    synchronized int getRetiredCount() {
+        return mRetiredCount;
+    }
+
+    /**
+     * Returns true if a page stamped with the given epoch may still be read
+     * by an open snapshot. Pages never captured are stamped 0.
+     */
+    boolean isFrozen(int pageEpoch) {
+        return pageEpoch != 0 && pageEpoch >= mOldestOpen;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.util.Arrays;
+
+import android.opengl.GLES20;
+
+/**
+ * Recycles vertex buffer objects sized for one {@link PointStore} page, so
+ * that bricks created and dropped as the cloud is cleared and refilled do not
+ * create and delete GL buffers every frame. Must only be used on the GL
+ * thread.
+ */
+class VboPool {
+
+    private static final int BYTES_PER_PAGE = PointStore.POINTS_PER_PAGE
+            * PointStore.FLOATS_PER_POINT * 4;
+
+    private int[] mFreeIds = new int[16];
+    private int mFreeCount;
+    private final int[] mNewId = new int[1];
+
+    /**
+     * Returns a buffer with storage for a full page, creating one if none is
+     * free. Its contents are undefined.
+     */
+    int acquire() {
+        if (mFreeCount > 0) {
+            return mFreeIds[--mFreeCount];
+        }
+        GLES20.glGenBuffers(1, mNewId, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mNewId[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, BYTES_PER_PAGE, null,
+                GLES20.GL_DYNAMIC_DRAW);
+        return mNewId[0];
+    }
+
+    /**
+     * Makes a buffer available for reuse. Does not call into GL, so it is safe
+     * to call from any thread that holds the owning cloud's lock.
+     */
+    void release(int id) {
+        if (mFreeCount == mFreeIds.length) {
+            mFreeIds = Arrays.copyOf(mFreeIds, mFreeCount * 2);
+        }
+        mFreeIds[mFreeCount++] = id;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils.renderables;
+
+import java.util.Arrays;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+/**
+ * Product of the projection and view matrices, shared by every
+ * {@link Renderable} drawn on a thread. The product is only recomputed when
+ * the view or projection matrix passed in differs from the last one, and
+ * each recomputation bumps a version number that renderables compare against
+ * to know whether their own MVP is stale.
+ * 
+ * Matrices are compared by value rather than by identity, because callers
+ * update them in place.
+ */
+class ViewProjection {
+
+    private static final ThreadLocal<ViewProjection> sCurrent =
+            new ThreadLocal<ViewProjection>() {
+                @Override
+                protected ViewProjection initialValue() {
+                    return new ViewProjection();
+                }
+            };
+
+    private final float[] mViewMatrix = new float[16];
+    private final float[] mProjectionMatrix = new float[16];
+    private final float[] mViewProjectionMatrix = new float[16];
+    private int mVersion;
+
+    /** Returns the instance for the calling thread, normally the GL thread. */
+    static ViewProjection current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * Makes this the product of the given matrices, recomputing it only if
+     * either differs from the previous call.
+     */
+    void update(float[] viewMatrix, float[] projectionMatrix) {
+        if (mVersion != 0 && Arrays.equals(viewMatrix, mViewMatrix)
+                && Arrays.equals(projectionMatrix, mProjectionMatrix)) {
+            return;
+        }
+        System.arraycopy(viewMatrix, 0, mViewMatrix, 0, 16);
+        System.arraycopy(projectionMatrix, 0, mProjectionMatrix, 0, 16);
+        Mat4.multiplyMM(mViewProjectionMatrix, 0, mProjectionMatrix, 0,
+                mViewMatrix, 0);
+        mVersion++;
+    }
+
+    /** Changes whenever the product changes; never 0 once updated. */
+    int getVersion() {
+        return mVersion;
+    }
+
+    float[] getViewMatrix() {
+        return mViewMatrix;
+    }
+
+    float[] getViewProjectionMatrix() {
+        return mViewProjectionMatrix;
+    }
+}
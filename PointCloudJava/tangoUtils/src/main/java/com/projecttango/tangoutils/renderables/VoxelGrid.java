@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import java.util.Arrays;
+
+/**
+ * Hash of the occupied cells of a uniform voxel grid, used by
+ * {@link PointCloud} to find the brick a point belongs to and by
+ * {@link PointBrick} to merge points that fall into an already-occupied voxel
+ * instead of appending them. Keys are the integer voxel coordinates packed
+ * into a long and values are point indices, stored in open-addressed primitive
+ * arrays so that lookups on the depth callback path do not allocate.
+ */
+class VoxelGrid {
+
+    private static final int COORD_BITS = 21;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int COORD_OFFSET = 1 << (COORD_BITS - 1);
+    private static final long EMPTY_KEY = -1L;
+    private static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final int mInitialCapacity;
+    private final float mLeafSize;
+    private final float mInverseLeafSize;
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+
+    /**
+     * @param leafSize
+     *            edge length of a voxel in meters.
+     */
+    VoxelGrid(float leafSize) {
+        this(leafSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param leafSize
+     *            edge length of a voxel in meters.
+     * @param initialCapacity
+     *            number of hash slots to start with, a power of two. The
+     *            table doubles as needed and shrinks back on {@link #clear()}.
+     */
+    VoxelGrid(float leafSize, int initialCapacity) {
+        mInitialCapacity = initialCapacity;
+        mLeafSize = leafSize;
+        mInverseLeafSize = 1.0f / leafSize;
+        allocate(initialCapacity);
+    }
+
+    float getLeafSize() {
+        return mLeafSize;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the key of the voxel containing the given point. Voxel
+     * coordinates are clamped to +/- 2^20 cells on each axis.
+     */
+    long keyOf(float x, float y, float z) {
+        return (pack(x) << (2 * COORD_BITS)) | (pack(y) << COORD_BITS) | pack(z);
+    }
+
+    /**
+     * Returns the key of the voxel containing the given double-precision
+     * point, for cells addressed in world coordinates far from the origin.
+     */
+    long keyOf(double x, double y, double z) {
+        return (pack(x) << (2 * COORD_BITS)) | (pack(y) << COORD_BITS) | pack(z);
+    }
+
+    /**
+     * Returns the coordinate of the low corner of the cell containing the
+     * given coordinate along one axis.
+     */
+    double cellOrigin(double coordinate) {
+        return Math.floor(coordinate / mLeafSize) * mLeafSize;
+    }
+
+    /**
+     * Returns the point index stored for a voxel, or -1 if the voxel is not
+     * occupied yet.
+     */
+    int get(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY_KEY) {
+            if (mKeys[slot] == key) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Marks a voxel as occupied by the point at the given index.
+     */
+    void put(long key, int value) {
+        if ((mSize + 1) * 4 > mKeys.length * 3) {
+            rehash(mKeys.length * 2);
+        }
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY_KEY) {
+            if (mKeys[slot] == key) {
+                mValues[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        mSize++;
+    }
+
+    void clear() {
+        if (mKeys.length > mInitialCapacity) {
+            allocate(mInitialCapacity);
+        } else {
+            Arrays.fill(mKeys, EMPTY_KEY);
+            mSize = 0;
+        }
+    }
+
+    private long pack(float coordinate) {
+        return packCell((int) Math.floor(coordinate * mInverseLeafSize));
+    }
+
+    private long pack(double coordinate) {
+        return packCell((int) Math.floor(coordinate / mLeafSize));
+    }
+
+    private static long packCell(int cell) {
+        if (cell < -COORD_OFFSET) {
+            cell = -COORD_OFFSET;
+        } else if (cell >= COORD_OFFSET) {
+            cell = COORD_OFFSET - 1;
+        }
+        return (cell + COORD_OFFSET) & COORD_MASK;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        Arrays.fill(mKeys, EMPTY_KEY);
+        mSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
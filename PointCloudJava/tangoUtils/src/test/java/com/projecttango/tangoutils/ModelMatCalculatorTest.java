@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import static org.junit.Assert.assertEquals;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelMatCalculatorTest {
+
+    private static final float EPSILON = 1e-6f;
+
+    private static final float[] CONVERSION_MATRIX = new float[] { 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f };
+    private static final float[] OPENGL_2_COLOR_CAMERA = new float[] { 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f };
+
+    private final float[] mDeviceTranslation = { 0.01f, 0.02f, -0.005f };
+    private final float[] mDeviceRotation = { 0f, 0f, 0.7071068f, 0.7071068f };
+    private final float[] mCameraTranslation = { 0.06f, -0.003f, 0.001f };
+    private final float[] mCameraRotation = { 0.7071068f, 0f, 0f, 0.7071068f };
+    private final float[] mTranslation = { 0.5f, -1.25f, 0.75f };
+    private final float[] mRotation = { 0.18f, -0.42f, 0.07f, 0.886f };
+
+    private ModelMatCalculator mCalculator;
+
+    @Before
+    public void setUp() {
+        mCalculator = new ModelMatCalculator();
+        mCalculator.SetDevice2IMUMatrix(mDeviceTranslation, mDeviceRotation);
+        mCalculator.SetColorCamera2IMUMatrix(mCameraTranslation, mCameraRotation);
+    }
+
+    @Test
+    public void modelMatrixMatchesTheFullExtrinsicChain() {
+        mCalculator.updateModelMatrix(mTranslation, mRotation);
+        assertMatrixEquals(referenceModelMatrix(), mCalculator.getModelMatrix());
+    }
+
+    @Test
+    public void identityExtrinsicsGiveTheConvertedPose() {
+        ModelMatCalculator calculator = new ModelMatCalculator();
+        calculator.updateModelMatrix(mTranslation, mRotation);
+
+        float[] rotation = ModelMatCalculator.quaternionMatrixOpenGL(mRotation);
+        float[] expected = new float[16];
+        Mat4.multiplyMM(expected, 0, CONVERSION_MATRIX, 0, rotation, 0);
+        expected[12] = mTranslation[0];
+        expected[13] = mTranslation[2];
+        expected[14] = -mTranslation[1];
+        assertMatrixEquals(expected, calculator.getModelMatrix());
+    }
+
+    @Test
+    public void pointCloudMatrixInvertsTheYAndZAxes() {
+        mCalculator.updatePointCloudModelMatrix(mTranslation, mRotation);
+        float[] actual = new float[16];
+        mCalculator.getPointCloudModelMatrix(actual);
+
+        float[] flip = new float[16];
+        Mat4.setIdentityM(flip, 0);
+        flip[5] = -1;
+        flip[10] = -1;
+        float[] expected = new float[16];
+        Mat4.multiplyMM(expected, 0, referenceModelMatrix(), 0, flip, 0);
+        assertMatrixEquals(expected, actual);
+    }
+
+    @Test
+    public void computePointCloudMatrixMatchesUpdateThenGet() {
+        mCalculator.updatePointCloudModelMatrix(mTranslation, mRotation);
+        float[] expected = new float[16];
+        mCalculator.getPointCloudModelMatrix(expected);
+
+        float[] actual = new float[16];
+        mCalculator.computePointCloudModelMatrix(mTranslation, mRotation, actual);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], actual[i], 0f);
+        }
+    }
+
+    @Test
+    public void getTranslationReadsTheModelMatrix() {
+        mCalculator.updateModelMatrix(mTranslation, mRotation);
+        float[] translation = new float[3];
+        mCalculator.getTranslation(translation);
+        float[] model = mCalculator.getModelMatrix();
+        assertEquals(model[12], translation[0], 0f);
+        assertEquals(model[13], translation[1], 0f);
+        assertEquals(model[14], translation[2], 0f);
+    }
+
+    /**
+     * The original per-pose chain: conversion * rotation * invert(device2IMU)
+     * * colorCamera2IMU * opengl2ColorCamera, plus the converted translation.
+     */
+    private float[] referenceModelMatrix() {
+        float[] device2IMU = ModelMatCalculator.quaternionMatrixOpenGL(mDeviceRotation);
+        System.arraycopy(mDeviceTranslation, 0, device2IMU, 12, 3);
+        float[] colorCamera2IMU = ModelMatCalculator.quaternionMatrixOpenGL(mCameraRotation);
+        System.arraycopy(mCameraTranslation, 0, colorCamera2IMU, 12, 3);
+
+        float[] colorCamera = new float[16];
+        Mat4.multiplyMM(colorCamera, 0, colorCamera2IMU, 0, OPENGL_2_COLOR_CAMERA, 0);
+        float[] inverseDevice = new float[16];
+        Mat4.invertM(inverseDevice, 0, device2IMU, 0);
+        float[] extrinsic = new float[16];
+        Mat4.multiplyMM(extrinsic, 0, inverseDevice, 0, colorCamera, 0);
+        float[] rotated = new float[16];
+        Mat4.multiplyMM(rotated, 0, ModelMatCalculator.quaternionMatrixOpenGL(mRotation), 0,
+                extrinsic, 0);
+        float[] result = new float[16];
+        Mat4.multiplyMM(result, 0, CONVERSION_MATRIX, 0, rotated, 0);
+        result[12] += mTranslation[0];
+        result[13] += mTranslation[2];
+        result[14] += -1f * mTranslation[1];
+        return result;
+    }
+
+    private static void assertMatrixEquals(float[] expected, float[] actual) {
+        for (int i = 0; i < 16; i++) {
+            assertEquals("element " + i, expected[i], actual[i], EPSILON);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link PoseBus} consumers see whole poses in order, under both
+ * policies, while the producer and consumers run on their own threads.
+ */
+public class PoseBusTest {
+
+    private static final int CAPACITY = 16;
+    private static final int POSE_COUNT = 200000;
+
+    @Test
+    public void metricsWithoutReading() {
+        PoseBus bus = new PoseBus(5);
+        PoseBus.Consumer consumer = bus.addConsumer("idle",
+                PoseBus.POLICY_DROP_OLDEST);
+        for (int k = 0; k < 20; k++) {
+            publish(bus, k);
+        }
+        // Capacity is rounded up to 8
+        assertEquals(20, bus.getPublishedCount());
+        assertEquals(12, consumer.getDroppedCount());
+        assertEquals(8, consumer.getLag());
+
+        PoseEvent pose = new PoseEvent();
+        assertTrue(consumer.poll(pose));
+        assertEquals(12, pose.sequence);
+        assertEquals(7, consumer.getMaxLag());
+        assertEquals(1, consumer.getConsumedCount());
+        assertEquals(7, consumer.getLag());
+        assertEquals(0, bus.getStallCount());
+    }
+
+    @Test
+    public void consumersAddedLaterStartAtTheNextPose() {
+        PoseBus bus = new PoseBus(CAPACITY);
+        publish(bus, 0);
+        publish(bus, 1);
+        PoseBus.Consumer consumer = bus.addConsumer("late",
+                PoseBus.POLICY_BLOCK);
+        PoseEvent pose = new PoseEvent();
+        assertTrue(!consumer.poll(pose));
+        publish(bus, 2);
+        assertTrue(consumer.poll(pose));
+        assertEquals(2, pose.sequence);
+        assertEquals(0, consumer.getDroppedCount());
+    }
+
+    @Test
+    public void concurrentConsumers() throws InterruptedException {
+        final PoseBus bus = new PoseBus(CAPACITY);
+        Reader[] readers = {
+                new Reader(bus, PoseBus.POLICY_DROP_OLDEST, false),
+                new Reader(bus, PoseBus.POLICY_DROP_OLDEST, true),
+                new Reader(bus, PoseBus.POLICY_BLOCK, false),
+                new Reader(bus, PoseBus.POLICY_BLOCK, true),
+        };
+        for (Reader reader : readers) {
+            reader.start();
+        }
+        for (int k = 0; k < POSE_COUNT; k++) {
+            publish(bus, k);
+        }
+        for (Reader reader : readers) {
+            reader.mProducerDone = true;
+        }
+        for (Reader reader : readers) {
+            reader.join(30000);
+            assertTrue(!reader.isAlive());
+        }
+
+        assertEquals(POSE_COUNT, bus.getPublishedCount());
+        for (Reader reader : readers) {
+            PoseBus.Consumer consumer = reader.mConsumer;
+            String name = consumer.toString();
+            assertNull(name, reader.mError);
+            assertEquals(name, reader.mRead, consumer.getConsumedCount());
+            assertEquals(name, reader.mSkipped, consumer.getDroppedCount());
+            assertEquals(name, POSE_COUNT, reader.mRead + reader.mSkipped);
+            assertEquals(name, POSE_COUNT - 1, reader.mLast);
+            assertEquals(name, 0, consumer.getLag());
+            assertTrue(name, consumer.getMaxLag() <= CAPACITY - 1);
+            if (reader.mPolicy == PoseBus.POLICY_BLOCK) {
+                assertEquals(name, 0, consumer.getDroppedCount());
+            }
+        }
+        // The slow readers fell a full ring behind; the producer waited for
+        // the blocking one with the ring full
+        assertTrue(readers[1].mConsumer.getDroppedCount() > 0);
+        assertTrue(readers[1].mConsumer.getMaxLag() > 0);
+        assertTrue(bus.getStallCount() > 0);
+        assertEquals(CAPACITY - 1, readers[3].mConsumer.getMaxLag());
+    }
+
+    /** Reads one consumer on its own thread and checks every pose. */
+    private static class Reader extends Thread {
+
+        final int mPolicy;
+        final boolean mSlow;
+        final PoseBus.Consumer mConsumer;
+        volatile boolean mProducerDone;
+        String mError;
+        long mRead;
+        long mSkipped;
+        long mLast = -1;
+
+        Reader(PoseBus bus, int policy, boolean slow) {
+            mPolicy = policy;
+            mSlow = slow;
+            mConsumer = bus.addConsumer((policy == PoseBus.POLICY_BLOCK
+                    ? "block" : "drop") + (slow ? " slow" : " fast"), policy);
+        }
+
+        @Override
+        public void run() {
+            PoseEvent pose = new PoseEvent();
+            while (mError == null) {
+                // Read the flag first so no pose published before it is lost
+                boolean done = mProducerDone;
+                if (!mConsumer.poll(pose)) {
+                    if (done) {
+                        return;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+                mError = check(pose, mLast);
+                mSkipped += pose.sequence - mLast - 1;
+                mLast = pose.sequence;
+                mRead++;
+                if (mSlow && mRead % 64 == 0) {
+                    try {
+                        Thread.sleep(0, 500000);
+                    } catch (InterruptedException e) {
+                        mError = e.toString();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns why pose is not the one expected after last, or null. */
+    private static String check(PoseEvent pose, long last) {
+        long k = pose.sequence;
+        if (k <= last) {
+            return "sequence " + k + " after " + last;
+        }
+        if (pose.timestamp != timestamp(k)
+                || pose.baseFrame != (int) (k % 3)
+                || pose.targetFrame != (int) (k % 5)
+                || pose.statusCode != (int) (k % 4)) {
+            return "header of pose " + k + " torn";
+        }
+        for (int i = 0; i < 3; i++) {
+            if (pose.translation[i] != component(k, i)) {
+                return "translation of pose " + k + " torn";
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            if (pose.rotation[i] != component(k, 3 + i)) {
+                return "rotation of pose " + k + " torn";
+            }
+        }
+        return null;
+    }
+
+    private static void publish(PoseBus bus, long k) {
+        double[] translation = new double[3];
+        double[] rotation = new double[4];
+        for (int i = 0; i < 3; i++) {
+            translation[i] = component(k, i);
+        }
+        for (int i = 0; i < 4; i++) {
+            rotation[i] = component(k, 3 + i);
+        }
+        bus.publish(timestamp(k), (int) (k % 3), (int) (k % 5), (int) (k % 4),
+                translation, rotation);
+    }
+
+    private static double timestamp(long k) {
+        return k * 0.001;
+    }
+
+    /** Every component of every pose differs, so a torn read shows. */
+    private static double component(long k, int i) {
+        return k * 8 + i;
+    }
+}
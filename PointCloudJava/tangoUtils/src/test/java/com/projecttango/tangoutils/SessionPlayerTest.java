@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.tangoutils.math.Quat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Replays a recorded {@link SyntheticSession} through a {@link SessionPlayer}.
+ */
+public class SessionPlayerTest {
+
+    private static final long SEED = 7;
+    private static final double DURATION = 4;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new RandomAccessFile(mFolder.newFile("session.log"), "rw");
+        mChannel = mFile.getChannel();
+        SessionRecorder recorder = new SessionRecorder(mChannel);
+        newSession().record(recorder);
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mFile.close();
+    }
+
+    @Test
+    public void replaysEveryRecordInOrder() throws IOException {
+        // The same seed and settings give the same session again
+        ArrayList<double[]> expected = new ArrayList<double[]>();
+        SyntheticSession session = newSession();
+        PoseEvent pose = new PoseEvent();
+        int type;
+        while ((type = session.next()) != -1) {
+            if (type == SessionRecorder.TYPE_POSE) {
+                session.readPose(pose);
+                expected.add(describe(pose));
+            } else {
+                expected.add(describe(session.getTimestamp(), session.getPoints(),
+                        session.getPointCount()));
+            }
+        }
+
+        final ArrayList<double[]> replayed = new ArrayList<double[]>();
+        SessionPlayer player = new SessionPlayer(new SessionReader(mChannel),
+                new SessionPlayer.Listener() {
+                    @Override
+                    public void onPose(PoseEvent pose) {
+                        assertEquals(countPoses(replayed), pose.sequence);
+                        replayed.add(describe(pose));
+                    }
+
+                    @Override
+                    public void onXyzIj(double timestamp, FloatBuffer points, int pointCount) {
+                        replayed.add(describe(timestamp, points, pointCount));
+                    }
+                });
+        player.setSpeed(SessionPlayer.SPEED_UNLIMITED);
+        player.play();
+
+        assertEquals(expected.size(), replayed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("record " + i, expected.get(i), replayed.get(i), 0);
+        }
+        int poseCount = countPoses(expected);
+        long pointCount = 0;
+        for (double[] record : expected) {
+            if (record[0] == SessionRecorder.TYPE_XYZ_IJ) {
+                pointCount += (long) record[2];
+            }
+        }
+        assertEquals(poseCount, player.getPoseCount());
+        assertEquals(expected.size() - poseCount, player.getXyzIjCount());
+        assertEquals(pointCount, player.getPointCount());
+        assertTrue(player.getXyzIjCount() >= DURATION * 5);
+    }
+
+    @Test
+    public void poseQueriesFollowTheReplay() throws IOException {
+        final SessionPlayer player = new SessionPlayer(new SessionReader(mChannel));
+        final int[] counts = new int[2];
+        player.setListener(new SessionPlayer.Listener() {
+            private final double[] mTranslation = new double[3];
+            private final float[] mRotation = new float[4];
+            private final float[] mExpectedRotation = new float[4];
+            private final PoseEvent[] mLastValid = new PoseEvent[32];
+
+            @Override
+            public void onPose(PoseEvent pose) {
+                int pair = pose.baseFrame * 5 + pose.targetFrame;
+                PoseEvent last = mLastValid[pair];
+                if (pose.statusCode != SessionPlayer.POSE_VALID) {
+                    // Tracking lost: no pose of the pair is known any more
+                    if (last != null) {
+                        assertTrue(!player.getPoseAtTime(last.timestamp, pose.baseFrame,
+                                pose.targetFrame, mTranslation, mRotation));
+                        counts[1]++;
+                    }
+                    mLastValid[pair] = null;
+                    return;
+                }
+                if (last != null && pose.timestamp - last.timestamp
+                        <= PoseHistory.MAX_INTERPOLATION_GAP) {
+                    double t = 0.25;
+                    double timestamp = last.timestamp + (pose.timestamp - last.timestamp) * t;
+                    assertTrue(player.getPoseAtTime(timestamp, pose.baseFrame,
+                            pose.targetFrame, mTranslation, mRotation));
+                    for (int i = 0; i < 3; i++) {
+                        double expected = last.translation[i]
+                                + (pose.translation[i] - last.translation[i]) * t;
+                        assertEquals(expected, mTranslation[i], 1e-9);
+                    }
+                    Quat.slerp(mExpectedRotation, 0, last.rotation, 0, pose.rotation, 0, t);
+                    assertArrayEquals(mExpectedRotation, mRotation, 1e-6f);
+                    counts[0]++;
+                }
+                if (last == null) {
+                    last = mLastValid[pair] = new PoseEvent();
+                }
+                last.set(pose.timestamp, pose.baseFrame, pose.targetFrame, pose.statusCode,
+                        pose.translation, pose.rotation);
+            }
+
+            @Override
+            public void onXyzIj(double timestamp, FloatBuffer points, int pointCount) {
+            }
+        });
+        player.setSpeed(SessionPlayer.SPEED_UNLIMITED);
+        player.play();
+        assertTrue(counts[0] > 100);
+        assertTrue(counts[1] > 0);
+    }
+
+    private static SyntheticSession newSession() {
+        SyntheticSession session = new SyntheticSession(SEED);
+        session.setMotion(SyntheticSession.MOTION_WALK);
+        session.setPointsPerFrame(500);
+        session.setDuration(DURATION);
+        session.setRelocalizationInterval(1.5);
+        return session;
+    }
+
+    private static double[] describe(PoseEvent pose) {
+        return new double[] {
+                SessionRecorder.TYPE_POSE, pose.timestamp, pose.baseFrame, pose.targetFrame,
+                pose.statusCode, pose.translation[0], pose.translation[1], pose.translation[2],
+                pose.rotation[0], pose.rotation[1], pose.rotation[2], pose.rotation[3] };
+    }
+
+    private static double[] describe(double timestamp, FloatBuffer points, int pointCount) {
+        double[] record = new double[3 + pointCount * 3];
+        record[0] = SessionRecorder.TYPE_XYZ_IJ;
+        record[1] = timestamp;
+        record[2] = pointCount;
+        for (int i = 0; i < pointCount * 3; i++) {
+            record[3 + i] = points.get(i);
+        }
+        return record;
+    }
+
+    private static int countPoses(ArrayList<double[]> records) {
+        int count = 0;
+        for (double[] record : records) {
+            if (record[0] == SessionRecorder.TYPE_POSE) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Round trip of session logs through {@link SessionRecorder} and
+ * {@link SessionReader}.
+ */
+public class SessionRecorderTest {
+
+    private static final int POSE_COUNT = 500;
+    private static final double POSE_INTERVAL = 0.01;
+    /** A depth frame follows every FRAME_INTERVAL-th pose. */
+    private static final int FRAME_INTERVAL = 20;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new RandomAccessFile(mFolder.newFile("session.log"), "rw");
+        mChannel = mFile.getChannel();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mFile.close();
+    }
+
+    @Test
+    public void recordsReadBackEqual() throws IOException {
+        record();
+        SessionReader reader = new SessionReader(mChannel);
+        PoseEvent pose = new PoseEvent();
+        for (int k = 0; k < POSE_COUNT; k++) {
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            reader.readPose(pose);
+            assertEquals(poseTimestamp(k), reader.getTimestamp(), 0);
+            assertEquals(poseTimestamp(k), pose.timestamp, 0);
+            assertEquals(k % 2 == 0 ? PoseEvent.COORDINATE_FRAME_START_OF_SERVICE
+                    : PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION, pose.baseFrame);
+            assertEquals(PoseEvent.COORDINATE_FRAME_DEVICE, pose.targetFrame);
+            assertEquals(k % 7 == 0 ? PoseEvent.POSE_INVALID : PoseEvent.POSE_VALID,
+                    pose.statusCode);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(translation(k, i), pose.translation[i], 0);
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals(rotation(k, i), pose.rotation[i], 0);
+            }
+            if (k % FRAME_INTERVAL == 0) {
+                assertEquals(SessionRecorder.TYPE_XYZ_IJ, reader.next());
+                assertEquals(poseTimestamp(k), reader.getTimestamp(), 0);
+                int pointCount = pointCount(k);
+                assertEquals(pointCount, reader.getPointCount());
+                FloatBuffer points = reader.getPoints();
+                for (int i = 0; i < pointCount * 3; i++) {
+                    assertEquals(point(k, i), points.get(i), 0f);
+                }
+            }
+        }
+        assertEquals(-1, reader.next());
+        assertEquals(-1, reader.next());
+    }
+
+    @Test
+    public void seekLandsOnTheLastIndexEntryBefore() throws IOException {
+        record();
+        SessionReader reader = new SessionReader(mChannel);
+
+        // The index entries the recorder makes for these timestamps
+        ArrayList<Double> entries = new ArrayList<Double>();
+        double nextEntry = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < POSE_COUNT; k++) {
+            if (poseTimestamp(k) >= nextEntry) {
+                entries.add(poseTimestamp(k));
+                nextEntry = poseTimestamp(k) + SessionRecorder.INDEX_SPACING;
+            }
+        }
+        assertEquals(entries.size(), reader.getIndexSize());
+
+        for (double t = -1; t < POSE_COUNT * POSE_INTERVAL + 1; t += 0.037) {
+            double expected = entries.get(0);
+            for (double entry : entries) {
+                if (entry <= t) {
+                    expected = entry;
+                }
+            }
+            reader.seek(t);
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            assertEquals("seek to " + t, expected, reader.getTimestamp(), 0);
+        }
+
+        // Reading goes on in order after a seek
+        reader.seek(poseTimestamp(250));
+        for (int k = 250; k < POSE_COUNT; k++) {
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            assertEquals(poseTimestamp(k), reader.getTimestamp(), 0);
+            if (k % FRAME_INTERVAL == 0) {
+                assertEquals(SessionRecorder.TYPE_XYZ_IJ, reader.next());
+            }
+        }
+        assertEquals(-1, reader.next());
+    }
+
+    @Test
+    public void truncatedLogEndsAtTheLastCompleteRecord() throws IOException {
+        record();
+        // Three poses and a depth frame, then part of the next pose
+        long poseBytes = SessionRecorder.RECORD_HEADER_BYTES
+                + SessionRecorder.POSE_PAYLOAD_BYTES;
+        long frameBytes = SessionRecorder.RECORD_HEADER_BYTES
+                + SessionRecorder.XYZ_IJ_HEADER_BYTES + pointCount(0) * 3 * 4;
+        long complete = SessionRecorder.HEADER_BYTES + 3 * poseBytes + frameBytes;
+        for (long cut = complete; cut < complete + poseBytes; cut += 7) {
+            mChannel.truncate(cut);
+            SessionReader reader = new SessionReader(mChannel);
+            assertEquals(0, reader.getIndexSize());
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            assertEquals(SessionRecorder.TYPE_XYZ_IJ, reader.next());
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+            assertEquals(poseTimestamp(2), reader.getTimestamp(), 0);
+            assertEquals("cut at " + cut, -1, reader.next());
+        }
+    }
+
+    @Test
+    public void logWithoutTrailerHasNoIndex() throws IOException {
+        record();
+        mChannel.truncate(mChannel.size() - 1);
+        SessionReader reader = new SessionReader(mChannel);
+        assertEquals(0, reader.getIndexSize());
+
+        // Without an index, seek goes back to the start
+        reader.seek(3);
+        assertEquals(SessionRecorder.TYPE_POSE, reader.next());
+        assertEquals(poseTimestamp(0), reader.getTimestamp(), 0);
+
+        // Every record is still read, then the index record is skipped
+        reader.seek(0);
+        int count = 0;
+        while (reader.next() >= 0) {
+            count++;
+        }
+        assertEquals(POSE_COUNT + (POSE_COUNT + FRAME_INTERVAL - 1) / FRAME_INTERVAL, count);
+    }
+
+    @Test
+    public void recorderCountsRecordsAndBytes() throws IOException {
+        SessionRecorder recorder = record();
+        int frames = (POSE_COUNT + FRAME_INTERVAL - 1) / FRAME_INTERVAL;
+        assertEquals(POSE_COUNT + frames, recorder.getRecordCount());
+        assertEquals(0, recorder.getDroppedCount());
+        assertTrue(mChannel.size() > recorder.getByteCount());
+        // Records after close are dropped
+        assertTrue(!recorder.recordPose(9, 0, 0, 0, new double[3], new double[4]));
+        assertEquals(1, recorder.getDroppedCount());
+    }
+
+    /** Records the test session and closes the recorder. */
+    private SessionRecorder record() throws IOException {
+        SessionRecorder recorder = new SessionRecorder(mChannel);
+        double[] translation = new double[3];
+        double[] rotation = new double[4];
+        FloatBuffer points = FloatBuffer.allocate(pointCount(POSE_COUNT) * 3);
+        for (int k = 0; k < POSE_COUNT; k++) {
+            for (int i = 0; i < 3; i++) {
+                translation[i] = translation(k, i);
+            }
+            for (int i = 0; i < 4; i++) {
+                rotation[i] = rotation(k, i);
+            }
+            assertTrue(recorder.recordPose(poseTimestamp(k),
+                    k % 2 == 0 ? PoseEvent.COORDINATE_FRAME_START_OF_SERVICE
+                            : PoseEvent.COORDINATE_FRAME_AREA_DESCRIPTION,
+                    PoseEvent.COORDINATE_FRAME_DEVICE,
+                    k % 7 == 0 ? PoseEvent.POSE_INVALID : PoseEvent.POSE_VALID,
+                    translation, rotation));
+            if (k % FRAME_INTERVAL == 0) {
+                int pointCount = pointCount(k);
+                for (int i = 0; i < pointCount * 3; i++) {
+                    points.put(i, point(k, i));
+                }
+                // The recorder reads from index 0 whatever the position
+                points.position(5);
+                assertTrue(recorder.recordXyzIj(poseTimestamp(k), points, pointCount));
+                assertEquals(5, points.position());
+            }
+        }
+        recorder.close();
+        return recorder;
+    }
+
+    private static double poseTimestamp(int k) {
+        return 100 + k * POSE_INTERVAL;
+    }
+
+    private static double translation(int k, int i) {
+        return Math.sin(k * 0.1 + i) * (i + 1);
+    }
+
+    private static double rotation(int k, int i) {
+        return Math.cos(k * 0.05 + i * 0.7);
+    }
+
+    private static int pointCount(int k) {
+        return 100 + k;
+    }
+
+    private static float point(int k, int i) {
+        return (float) Math.sin(k + i * 0.01);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Checks Mat4 against results of android.opengl.Matrix for the same inputs.
+ * Except for the inverse, which is compared with a double-precision
+ * reference, results must match bit for bit.
+ */
+public class Mat4Test {
+
+    private static final float[] A = {
+            1.5f, -0.25f, 0.75f, 0f,
+            0.5f, 2f, -1.25f, 0f,
+            -0.75f, 0.3f, 1.1f, 0f,
+            3f, -2f, 0.5f, 1f };
+    private static final float[] B = {
+            0.9f, 0.1f, -0.4f, 0.2f,
+            -0.3f, 1.2f, 0.6f, -0.1f,
+            0.7f, -0.5f, 0.8f, 0.3f,
+            -1.5f, 2.5f, 4f, 1.25f };
+
+    // android.opengl.Matrix results
+    private static final float[] A_TIMES_B = {
+            2.2999997f, -0.545f, 0.20999992f, 0.2f,
+            -0.6f, 2.8550003f, -1.115f, -0.1f,
+            1.0999999f, -1.535f, 2.18f, 0.3f,
+            -0.25f, 4.075f, 0.7750001f, 1.25f };
+    private static final float[] B_TIMES_V = {
+            0.8200002f, -0.61000013f, 4.62f, 2.14f };
+    private static final float[] LOOK_AT = {
+            0.97780246f, -0.049754515f, 0.20353606f, 0.0f,
+            0.0f, 0.97139764f, 0.23745874f, 0.0f,
+            -0.2095291f, -0.23218773f, 0.94983494f, 0.0f,
+            -0.34921515f, -1.1964777f, -3.5279584f, 1.0f };
+    private static final float[] PERSPECTIVE = {
+            1.5088834f, 0.0f, 0.0f, 0.0f,
+            0.0f, 2.4142134f, 0.0f, 0.0f,
+            0.0f, 0.0f, -1.002002f, -1.0f,
+            0.0f, 0.0f, -0.2002002f, 0.0f };
+    private static final float[] A_TRANSLATED = {
+            1.5f, -0.25f, 0.75f, 0.0f,
+            0.5f, 2.0f, -1.25f, 0.0f,
+            -0.75f, 0.3f, 1.1f, 0.0f,
+            2.325f, -2.91f, 2.98f, 1.0f };
+    // Cofactor inverse computed in double precision
+    private static final float[] B_INVERSE = {
+            0.4666035f, 0.6489815f, 0.698721f, -0.19043109f,
+            0.5376599f, 0.5447655f, -0.36238748f, 0.04452866f,
+            -0.60516346f, 0.5542397f, 0.87044054f, -0.06774041f,
+            1.4211274f, -2.08432f, -1.2221695f, 0.6991947f };
+
+    @Test
+    public void setIdentity() {
+        float[] m = new float[20];
+        Arrays.fill(m, 7f);
+        Mat4.setIdentityM(m, 2);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i % 5 == 0 ? 1f : 0f, m[2 + i], 0f);
+        }
+        assertEquals(7f, m[0], 0f);
+        assertEquals(7f, m[19], 0f);
+    }
+
+    @Test
+    public void multiplyMMMatchesMatrix() {
+        float[] result = new float[16];
+        Mat4.multiplyMM(result, 0, A, 0, B, 0);
+        assertBitsEqual(A_TIMES_B, result, 0);
+    }
+
+    @Test
+    public void multiplyMMHonoursOffsets() {
+        float[] lhs = new float[20];
+        float[] rhs = new float[24];
+        float[] result = new float[18];
+        System.arraycopy(A, 0, lhs, 4, 16);
+        System.arraycopy(B, 0, rhs, 8, 16);
+        Mat4.multiplyMM(result, 2, lhs, 4, rhs, 8);
+        assertBitsEqual(A_TIMES_B, result, 2);
+    }
+
+    @Test
+    public void multiplyMMMayOverwriteAnOperand() {
+        float[] lhs = A.clone();
+        Mat4.multiplyMM(lhs, 0, lhs, 0, B, 0);
+        assertBitsEqual(A_TIMES_B, lhs, 0);
+
+        float[] rhs = B.clone();
+        Mat4.multiplyMM(rhs, 0, A, 0, rhs, 0);
+        assertBitsEqual(A_TIMES_B, rhs, 0);
+    }
+
+    @Test
+    public void multiplyMVMatchesMatrix() {
+        float[] result = new float[4];
+        Mat4.multiplyMV(result, 0, B, 0, new float[] { 0.3f, -1.7f, 2.2f, 1f }, 0);
+        assertBitsEqual(B_TIMES_V, result, 0);
+    }
+
+    @Test
+    public void setLookAtMatchesMatrix() {
+        float[] result = new float[16];
+        Mat4.setLookAtM(result, 0, 1f, 2f, 3f, -0.5f, 0.25f, -4f, 0f, 1f, 0f);
+        assertBitsEqual(LOOK_AT, result, 0);
+    }
+
+    @Test
+    public void perspectiveMatchesMatrix() {
+        float[] result = new float[16];
+        Arrays.fill(result, 7f);
+        Mat4.perspectiveM(result, 0, 45f, 1.6f, 0.1f, 100f);
+        assertBitsEqual(PERSPECTIVE, result, 0);
+    }
+
+    @Test
+    public void translateMatchesMatrix() {
+        float[] result = A.clone();
+        Mat4.translateM(result, 0, 0.4f, -0.6f, 1.3f);
+        assertBitsEqual(A_TRANSLATED, result, 0);
+    }
+
+    @Test
+    public void invertMatchesReference() {
+        float[] result = new float[16];
+        assertTrue(Mat4.invertM(result, 0, B, 0));
+        for (int i = 0; i < 16; i++) {
+            assertEquals("element " + i, B_INVERSE[i], result[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void invertTimesOriginalIsIdentity() {
+        float[] inverse = new float[16];
+        float[] product = new float[16];
+        assertTrue(Mat4.invertM(inverse, 0, A, 0));
+        Mat4.multiplyMM(product, 0, A, 0, inverse, 0);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i % 5 == 0 ? 1f : 0f, product[i], 1e-6f);
+        }
+    }
+
+    @Test
+    public void singularMatrixIsNotInverted() {
+        float[] singular = A.clone();
+        // Third column equal to the first
+        System.arraycopy(singular, 0, singular, 8, 4);
+        float[] result = new float[16];
+        Arrays.fill(result, 7f);
+        assertFalse(Mat4.invertM(result, 0, singular, 0));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(7f, result[i], 0f);
+        }
+    }
+
+    @Test
+    public void rigidMultiplyMatchesGeneralMultiply() {
+        float[] lhs = rigid(0.18f, -0.42f, 0.07f, 0.886f, 1.5f, -0.25f, 2f);
+        float[] rhs = rigid(-0.3f, 0.1f, 0.6f, 0.7f, -4f, 0.5f, 0.125f);
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        Mat4.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+        Mat4.multiplyRigidMM(actual, 0, lhs, 0, rhs, 0);
+        // Only terms multiplied by the zero bottom row are skipped
+        assertBitsEqual(expected, actual, 0);
+    }
+
+    private static float[] rigid(float qx, float qy, float qz, float qw, float tx,
+            float ty, float tz) {
+        float[] q = { qx, qy, qz, qw };
+        float[] m = new float[16];
+        Quat.normalize(q, 0);
+        Quat.toMatrix(q, 0, m, 0);
+        m[12] = tx;
+        m[13] = ty;
+        m[14] = tz;
+        return m;
+    }
+
+    private static void assertBitsEqual(float[] expected, float[] actual, int offset) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("element " + i, Float.floatToIntBits(expected[i]),
+                    Float.floatToIntBits(actual[offset + i]));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class QuatTest {
+
+    private static final float EPSILON = 1e-6f;
+    private static final float SQRT_HALF = (float) Math.sqrt(0.5);
+
+    @Test
+    public void normalizeScalesToUnitLength() {
+        float[] q = { 1f, 2f, 2f, 4f };
+        Quat.normalize(q, 0);
+        assertQuatEquals(new float[] { 0.2f, 0.4f, 0.4f, 0.8f }, q, 0);
+    }
+
+    @Test
+    public void normalizeLeavesUnitAndZeroQuaternionsAlone() {
+        float[] unit = { 0f, 0f, SQRT_HALF, SQRT_HALF };
+        float[] copy = unit.clone();
+        Quat.normalize(unit, 0);
+        assertQuatEquals(copy, unit, 0);
+
+        float[] zero = new float[4];
+        Quat.normalize(zero, 0);
+        assertQuatEquals(new float[4], zero, 0);
+    }
+
+    @Test
+    public void toMatrixRotatesAboutTheAxis() {
+        // 90 degrees about z takes x to y and y to -x
+        float[] m = new float[16];
+        Quat.toMatrix(new float[] { 0f, 0f, SQRT_HALF, SQRT_HALF }, 0, m, 0);
+        float[] expected = {
+                0f, 1f, 0f, 0f,
+                -1f, 0f, 0f, 0f,
+                0f, 0f, 1f, 0f,
+                0f, 0f, 0f, 1f };
+        for (int i = 0; i < 16; i++) {
+            assertEquals("element " + i, expected[i], m[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyComposesRotations() {
+        float[] a = { 0.18f, -0.42f, 0.07f, 0.886f };
+        float[] b = { -0.3f, 0.1f, 0.6f, 0.7f };
+        Quat.normalize(a, 0);
+        Quat.normalize(b, 0);
+        float[] ab = new float[4];
+        Quat.multiply(ab, 0, a, 0, b, 0);
+
+        float[] ma = new float[16];
+        float[] mb = new float[16];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        Quat.toMatrix(a, 0, ma, 0);
+        Quat.toMatrix(b, 0, mb, 0);
+        Mat4.multiplyMM(expected, 0, ma, 0, mb, 0);
+        Quat.toMatrix(ab, 0, actual, 0);
+        for (int i = 0; i < 16; i++) {
+            assertEquals("element " + i, expected[i], actual[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyMayOverwriteAnOperand() {
+        float[] a = { 0.18f, -0.42f, 0.07f, 0.886f };
+        float[] b = { -0.3f, 0.1f, 0.6f, 0.7f };
+        float[] expected = new float[4];
+        Quat.multiply(expected, 0, a, 0, b, 0);
+        Quat.multiply(a, 0, a, 0, b, 0);
+        assertQuatEquals(expected, a, 0);
+    }
+
+    @Test
+    public void slerpEndpointsAndMidpoint() {
+        float[] identity = { 0f, 0f, 0f, 1f };
+        float[] quarterTurn = { 0f, 0f, SQRT_HALF, SQRT_HALF };
+        float[] result = new float[6];
+
+        Quat.slerp(result, 2, identity, 0, quarterTurn, 0, 0f);
+        assertQuatEquals(identity, result, 2);
+        Quat.slerp(result, 2, identity, 0, quarterTurn, 0, 1f);
+        assertQuatEquals(quarterTurn, result, 2);
+
+        // Half way is 45 degrees about z
+        Quat.slerp(result, 2, identity, 0, quarterTurn, 0, 0.5f);
+        float half = (float) Math.toRadians(22.5);
+        assertQuatEquals(new float[] { 0f, 0f, (float) Math.sin(half), (float) Math.cos(half) },
+                result, 2);
+    }
+
+    @Test
+    public void slerpTakesTheShortArc() {
+        float[] identity = { 0f, 0f, 0f, 1f };
+        float[] negatedQuarterTurn = { 0f, 0f, -SQRT_HALF, -SQRT_HALF };
+        float[] result = new float[4];
+        Quat.slerp(result, 0, identity, 0, negatedQuarterTurn, 0, 0.5f);
+        float half = (float) Math.toRadians(22.5);
+        assertQuatEquals(new float[] { 0f, 0f, (float) Math.sin(half), (float) Math.cos(half) },
+                result, 0);
+    }
+
+    @Test
+    public void slerpOfDoublesMatchesFloats() {
+        float[] a = { 0.18f, -0.42f, 0.07f, 0.886f };
+        float[] b = { -0.3f, 0.1f, 0.6f, 0.7f };
+        Quat.normalize(a, 0);
+        Quat.normalize(b, 0);
+        double[] da = { a[0], a[1], a[2], a[3] };
+        double[] db = { b[0], b[1], b[2], b[3] };
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+        for (float t = 0; t <= 1; t += 0.125f) {
+            Quat.slerp(expected, 0, a, 0, b, 0, t);
+            Quat.slerp(actual, 0, da, 0, db, 0, t);
+            assertQuatEquals(expected, actual, 0);
+        }
+    }
+
+    @Test
+    public void slerpOfNearlyEqualQuaternionsStaysUnitLength() {
+        float[] a = { 0f, 0f, 0f, 1f };
+        float[] b = { 0.001f, 0f, 0f, 1f };
+        Quat.normalize(b, 0);
+        float[] result = new float[4];
+        Quat.slerp(result, 0, a, 0, b, 0, 0.5f);
+        float length = (float) Math.sqrt(result[0] * result[0] + result[1] * result[1]
+                + result[2] * result[2] + result[3] * result[3]);
+        assertEquals(1f, length, EPSILON);
+        assertEquals(0.0005f, result[0], EPSILON);
+    }
+
+    private static void assertQuatEquals(float[] expected, float[] actual, int offset) {
+        for (int i = 0; i < 4; i++) {
+            assertEquals("component " + i, expected[i], actual[offset + i], EPSILON);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Accuracy of {@link Mat4#invertRigidM} against the general inverse, over
+ * random device poses up to 100 m from the origin.
+ */
+public class RigidInverseTest {
+
+    private static final int POSE_COUNT = 10000;
+    /** Allowed error per unit of magnitude of the compared value. */
+    private static final float RELATIVE_EPSILON = 5e-6f;
+
+    private final Random mRandom = new Random(5);
+
+    @Test
+    public void matchesGeneralInverse() {
+        float[] m = new float[16];
+        float[] rigid = new float[16];
+        float[] general = new float[16];
+        for (int n = 0; n < POSE_COUNT; n++) {
+            randomPose(m);
+            Mat4.invertRigidM(rigid, 0, m, 0);
+            assertTrue(Mat4.invertM(general, 0, m, 0));
+            float scale = 1 + Vec3.length(m[12], m[13], m[14]);
+            for (int i = 0; i < 16; i++) {
+                float tolerance = i >= 12 ? RELATIVE_EPSILON * scale : RELATIVE_EPSILON;
+                assertEquals("pose " + n + " element " + i, general[i], rigid[i], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void undoesTheTransform() {
+        float[] m = new float[16];
+        float[] inverse = new float[16];
+        float[] product = new float[16];
+        for (int n = 0; n < POSE_COUNT; n++) {
+            randomPose(m);
+            Mat4.invertRigidM(inverse, 0, m, 0);
+            Mat4.multiplyMM(product, 0, inverse, 0, m, 0);
+            float scale = 1 + Vec3.length(m[12], m[13], m[14]);
+            for (int i = 0; i < 16; i++) {
+                float tolerance = i >= 12 ? RELATIVE_EPSILON * scale : RELATIVE_EPSILON;
+                assertEquals("pose " + n + " element " + i, i % 5 == 0 ? 1f : 0f, product[i],
+                        tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void mayInvertInPlace() {
+        float[] m = new float[20];
+        float[] pose = new float[16];
+        float[] expected = new float[16];
+        randomPose(pose);
+        System.arraycopy(pose, 0, m, 4, 16);
+        Mat4.invertRigidM(expected, 0, pose, 0);
+        Mat4.invertRigidM(m, 4, m, 4);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], m[4 + i], 0f);
+        }
+    }
+
+    @Test
+    public void bottomRowIsExact() {
+        float[] m = new float[16];
+        float[] inverse = new float[16];
+        randomPose(m);
+        Mat4.invertRigidM(inverse, 0, m, 0);
+        assertEquals(0f, inverse[3], 0f);
+        assertEquals(0f, inverse[7], 0f);
+        assertEquals(0f, inverse[11], 0f);
+        assertEquals(1f, inverse[15], 0f);
+    }
+
+    /** A random rotation and a translation of up to 100 m on each axis. */
+    private void randomPose(float[] m) {
+        float[] q = { (float) mRandom.nextGaussian(), (float) mRandom.nextGaussian(),
+                (float) mRandom.nextGaussian(), (float) mRandom.nextGaussian() };
+        Quat.normalize(q, 0);
+        Quat.toMatrix(q, 0, m, 0);
+        for (int i = 12; i < 15; i++) {
+            m[i] = (mRandom.nextFloat() - 0.5f) * 200;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Vec3Test {
+
+    @Test
+    public void lengthMatchesMatrix() {
+        // android.opengl.Matrix.length(0.3f, -1.7f, 2.2f)
+        assertEquals(Float.floatToIntBits(2.7964263f),
+                Float.floatToIntBits(Vec3.length(0.3f, -1.7f, 2.2f)));
+        assertEquals(5f, Vec3.length(3f, 0f, -4f), 0f);
+    }
+
+    @Test
+    public void dotHonoursOffsets() {
+        float[] a = { 9f, 1f, 2f, 3f };
+        float[] b = { 4f, -5f, 6f };
+        assertEquals(12f, Vec3.dot(a, 1, b, 0), 0f);
+    }
+
+    @Test
+    public void crossFollowsTheRightHandRule() {
+        float[] x = { 1f, 0f, 0f };
+        float[] y = { 0f, 1f, 0f };
+        float[] result = new float[3];
+        Vec3.cross(result, 0, x, 0, y, 0);
+        assertVecEquals(new float[] { 0f, 0f, 1f }, result);
+        Vec3.cross(result, 0, y, 0, x, 0);
+        assertVecEquals(new float[] { 0f, 0f, -1f }, result);
+    }
+
+    @Test
+    public void crossMayOverwriteAnOperand() {
+        float[] a = { 1f, 2f, 3f };
+        float[] b = { -2f, 0.5f, 4f };
+        Vec3.cross(a, 0, a, 0, b, 0);
+        assertVecEquals(new float[] { 6.5f, -10f, 4.5f }, a);
+    }
+
+    @Test
+    public void normalizeScalesToUnitLength() {
+        float[] v = { 3f, 0f, -4f };
+        Vec3.normalize(v, 0);
+        assertVecEquals(new float[] { 0.6f, 0f, -0.8f }, v);
+    }
+
+    @Test
+    public void normalizeLeavesZeroAlone() {
+        float[] v = new float[3];
+        Vec3.normalize(v, 0);
+        assertVecEquals(new float[3], v);
+    }
+
+    private static void assertVecEquals(float[] expected, float[] actual) {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("component " + i, expected[i], actual[i], 1e-6f);
+        }
+    }
+}
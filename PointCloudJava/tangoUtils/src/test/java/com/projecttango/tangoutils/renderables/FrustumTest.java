@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrustumTest {
+
+    private final float[] mView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final Frustum mFrustum = new Frustum();
+
+    @Before
+    public void setUp() {
+        // Camera at the origin looking down -z, 60 degree vertical field of view
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0);
+        Mat4.perspectiveM(mProjection, 0, 60, 1, 0.1f, 100);
+        mFrustum.set(mView, mProjection);
+    }
+
+    @Test
+    public void boxInFrontIsVisible() {
+        assertTrue(mFrustum.intersects(box(0, 0, -5, 0.5f)));
+    }
+
+    @Test
+    public void boxBehindCameraIsCulled() {
+        assertFalse(mFrustum.intersects(box(0, 0, 5, 0.5f)));
+    }
+
+    @Test
+    public void boxOutsideSidePlanesIsCulled() {
+        // At a depth of 5 the frustum is about 2.9 m wide on either side
+        assertFalse(mFrustum.intersects(box(-10, 0, -5, 0.5f)));
+        assertFalse(mFrustum.intersects(box(10, 0, -5, 0.5f)));
+        assertFalse(mFrustum.intersects(box(0, 10, -5, 0.5f)));
+        assertFalse(mFrustum.intersects(box(0, -10, -5, 0.5f)));
+    }
+
+    @Test
+    public void boxBeyondFarPlaneIsCulled() {
+        assertFalse(mFrustum.intersects(box(0, 0, -150, 0.5f)));
+    }
+
+    @Test
+    public void boxStraddlingAPlaneIsVisible() {
+        assertTrue(mFrustum.intersects(box(3, 0, -5, 0.5f)));
+        assertTrue(mFrustum.intersects(box(0, 0, 0, 0.5f)));
+    }
+
+    @Test
+    public void precomputedViewProjectionGivesTheSamePlanes() {
+        Mat4.setLookAtM(mView, 0, 10, 0, 0, 0, 0, 0, 0, 1, 0);
+        float[] viewProjection = new float[16];
+        Mat4.multiplyMM(viewProjection, 0, mProjection, 0, mView, 0);
+        mFrustum.set(mView, mProjection, viewProjection);
+
+        assertTrue(mFrustum.intersects(box(0, 0, 0, 0.5f)));
+        assertFalse(mFrustum.intersects(box(20, 0, 0, 0.5f)));
+        assertFalse(mFrustum.intersects(box(0, 0, -10, 0.5f)));
+    }
+
+    @Test
+    public void projectedSizeIsRadiusOverDepthInViewportUnits() {
+        float[] bounds = box(0, 0, -5, 0.5f);
+        float radius = (float) Math.sqrt(3 * 0.5 * 0.5);
+        float expected = radius / (float) Math.tan(Math.toRadians(30)) / 5;
+        assertEquals(expected, mFrustum.projectedSize(bounds), 1e-5f);
+    }
+
+    @Test
+    public void projectedSizeHalvesWithDoubleDistance() {
+        float near = mFrustum.projectedSize(box(0, 0, -4, 0.5f));
+        float far = mFrustum.projectedSize(box(0, 0, -8, 0.5f));
+        assertEquals(0.5f, far / near, 1e-5f);
+    }
+
+    @Test
+    public void projectedSizeIsInfiniteInsideTheBox() {
+        assertEquals(Float.POSITIVE_INFINITY, mFrustum.projectedSize(box(0, 0, 0, 1)), 0f);
+        assertEquals(Float.POSITIVE_INFINITY, mFrustum.projectedSize(box(0, 0, -1, 1)), 0f);
+    }
+
+    private static float[] box(float x, float y, float z, float halfSize) {
+        return new float[] { x - halfSize, y - halfSize, z - halfSize, x + halfSize,
+                y + halfSize, z + halfSize };
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LevelOfDetailTest {
+
+    @Test
+    public void largeChunksAreDrawnInFull() {
+        assertEquals(1, LevelOfDetail.strideFor(LevelOfDetail.FULL_DETAIL_SIZE));
+        assertEquals(1, LevelOfDetail.strideFor(2));
+        assertEquals(1, LevelOfDetail.strideFor(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void strideDoublesEachTimeTheSizeHalves() {
+        assertEquals(2, LevelOfDetail.strideFor(0.25f));
+        assertEquals(2, LevelOfDetail.strideFor(0.49f));
+        assertEquals(4, LevelOfDetail.strideFor(0.2499f));
+        assertEquals(4, LevelOfDetail.strideFor(0.125f));
+        assertEquals(8, LevelOfDetail.strideFor(0.1249f));
+    }
+
+    @Test
+    public void strideIsCappedAtMaxStride() {
+        assertEquals(LevelOfDetail.MAX_STRIDE, LevelOfDetail.strideFor(0.01f));
+        assertEquals(LevelOfDetail.MAX_STRIDE, LevelOfDetail.strideFor(0));
+    }
+
+    @Test
+    public void strideNeverDecreasesAsChunksShrink() {
+        int previous = 1;
+        for (float size = 1; size > 0.001f; size *= 0.9f) {
+            int stride = LevelOfDetail.strideFor(size);
+            assertTrue(stride >= previous);
+            assertEquals(0, stride & (stride - 1));
+            previous = stride;
+        }
+    }
+
+    @Test
+    public void decimatedCountRoundsUp() {
+        assertEquals(10, LevelOfDetail.decimatedCount(10, 1));
+        assertEquals(5, LevelOfDetail.decimatedCount(10, 2));
+        assertEquals(4, LevelOfDetail.decimatedCount(10, 3));
+        assertEquals(2, LevelOfDetail.decimatedCount(10, 8));
+        assertEquals(1, LevelOfDetail.decimatedCount(1, 8));
+        assertEquals(0, LevelOfDetail.decimatedCount(0, 4));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Culling and decimation of a {@link PointCloud}'s bricks. GL calls are
+ * stubbed out, so only the bookkeeping of the draw is checked.
+ */
+public class PointCloudCullingTest {
+
+    private static final int CLUSTER_POINTS = 1000;
+
+    private final float[] mView = new float[16];
+    private final float[] mProjection = new float[16];
+    private PointCloud mPointCloud;
+
+    @Before
+    public void setUp() {
+        Mat4.perspectiveM(mProjection, 0, 60, 1, 0.1f, 1000);
+        mPointCloud = new PointCloud();
+    }
+
+    @Test
+    public void bricksBehindTheCameraAreNotDrawn() {
+        // One cluster in front of the camera and one behind it
+        addCluster(1, 1, -3);
+        addCluster(1, 1, 3);
+        assertEquals(2, mPointCloud.getBrickCount());
+
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(1, mPointCloud.getDrawnBrickCount());
+        assertEquals(CLUSTER_POINTS, mPointCloud.getDrawnPointCount());
+
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 0, 0, 1, 0, 1, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(1, mPointCloud.getDrawnBrickCount());
+
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 1, 0, 0, 0, 1, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(0, mPointCloud.getDrawnBrickCount());
+        assertEquals(0, mPointCloud.getDrawnPointCount());
+    }
+
+    @Test
+    public void distantBricksAreDecimated() {
+        addCluster(1, 1, -61);
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 1, 1, -61, 0, 1, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(1, mPointCloud.getDrawnBrickCount());
+        assertEquals(LevelOfDetail.decimatedCount(CLUSTER_POINTS, LevelOfDetail.MAX_STRIDE),
+                mPointCloud.getDrawnPointCount());
+    }
+
+    @Test
+    public void renderOriginShiftsTheCulledBounds() {
+        addCluster(1001, 1, -3);
+        Mat4.setLookAtM(mView, 0, 0, 0, 0, 0, 0, -1, 0, 1, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(0, mPointCloud.getDrawnBrickCount());
+
+        mPointCloud.setRenderOrigin(1000, 0, 0);
+        mPointCloud.draw(mView, mProjection);
+        assertEquals(1, mPointCloud.getDrawnBrickCount());
+    }
+
+    /**
+     * Adds points filling most of the brick centered on (x, y, z), which must
+     * be the center of a brick grid cell.
+     */
+    private void addCluster(double x, double y, double z) {
+        FloatBuffer points = FloatBuffer.allocate(CLUSTER_POINTS * 3);
+        Random random = new Random(11);
+        float extent = PointCloud.BRICK_SIZE * 0.9f;
+        for (int i = 0; i < CLUSTER_POINTS * 3; i++) {
+            points.put(i, (random.nextFloat() - 0.5f) * extent);
+        }
+        mPointCloud.addWorldPoints(points, CLUSTER_POINTS, x, y, z);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that pages of a {@link PointStore} captured by a snapshot keep
+ * their points and go back to the page pool once the snapshot closes.
+ */
+public class PointStoreTest {
+
+    private static final int PAGES = 3;
+
+    private final FloatBufferPool mPool = PointStore.getPagePool();
+    private SnapshotEpochs mEpochs;
+    private PointStore mStore;
+
+    @Before
+    public void setUp() {
+        mEpochs = new SnapshotEpochs(mPool);
+        mStore = new PointStore(mEpochs);
+        for (int i = 0; i < PAGES * PointStore.POINTS_PER_PAGE; i++) {
+            mStore.add(i, -i, 1);
+        }
+    }
+
+    @Test
+    public void clearWithoutSnapshotReleasesPages() {
+        int pooled = mPool.getPooledPageCount();
+        mStore.clear();
+        assertEquals(pooled + PAGES, mPool.getPooledPageCount());
+        assertEquals(0, mEpochs.getRetiredCount());
+    }
+
+    @Test
+    public void frozenPagesReturnWhenTheSnapshotCloses() {
+        int epoch = mEpochs.open();
+        mStore.freeze(epoch);
+        int pooled = mPool.getPooledPageCount();
+        mStore.clear();
+        assertEquals(pooled, mPool.getPooledPageCount());
+        assertEquals(PAGES, mEpochs.getRetiredCount());
+
+        mEpochs.close(epoch);
+        assertEquals(pooled + PAGES, mPool.getPooledPageCount());
+        assertEquals(0, mEpochs.getRetiredCount());
+    }
+
+    @Test
+    public void copiedPagesReturnWhenTheLastSnapshotCloses() {
+        int first = mEpochs.open();
+        mStore.freeze(first);
+        int second = mEpochs.open();
+        mStore.freeze(second);
+        float before = mStore.get(5, 0);
+
+        // The write copies the page; the snapshots keep the original
+        mStore.set(5, 0, 0, 0);
+        assertEquals(0, mStore.get(5, 0), 0);
+        assertEquals(5, before, 0);
+        assertEquals(1, mEpochs.getRetiredCount());
+
+        int pooled = mPool.getPooledPageCount();
+        mEpochs.close(second);
+        assertEquals(1, mEpochs.getRetiredCount());
+        mEpochs.close(first);
+        assertEquals(0, mEpochs.getRetiredCount());
+        assertEquals(pooled + 1, mPool.getPooledPageCount());
+
+        // The copy is private, so the next write does not copy again
+        mStore.set(6, 0, 0, 0);
+        assertEquals(0, mEpochs.getRetiredCount());
+    }
+
+    @Test
+    public void pagesOutsideOpenSnapshotsAreReleasedAtOnce() {
+        int epoch = mEpochs.open();
+        mStore.freeze(epoch);
+        mEpochs.close(epoch);
+        int later = mEpochs.open();
+        int pooled = mPool.getPooledPageCount();
+        mStore.clear();
+        assertEquals(pooled + PAGES, mPool.getPooledPageCount());
+        assertEquals(0, mEpochs.getRetiredCount());
+        mEpochs.close(later);
+    }
+}
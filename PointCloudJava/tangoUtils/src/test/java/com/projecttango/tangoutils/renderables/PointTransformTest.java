@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+
+import com.projecttango.tangoutils.math.Mat4;
+import com.projecttango.tangoutils.math.Quat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+public class PointTransformTest {
+
+    private static final int POINT_COUNT = 1000;
+
+    private final float[] mMatrix = new float[16];
+    private FloatBuffer mPoints;
+
+    @Before
+    public void setUp() {
+        float[] rotation = { 0.18f, -0.42f, 0.07f, 0.886f };
+        Quat.normalize(rotation, 0);
+        Quat.toMatrix(rotation, 0, mMatrix, 0);
+        mMatrix[12] = 1.5f;
+        mMatrix[13] = -0.25f;
+        mMatrix[14] = 2f;
+
+        mPoints = allocate(POINT_COUNT);
+        Random random = new Random(7);
+        for (int i = 0; i < POINT_COUNT * 3; i++) {
+            mPoints.put(i, random.nextFloat() * 8 - 4);
+        }
+    }
+
+    @Test
+    public void bufferToBufferMatchesMultiplyMV() {
+        FloatBuffer dst = allocate(POINT_COUNT);
+        PointTransform.transform(mMatrix, mPoints, 0, dst, 0, POINT_COUNT);
+
+        float[] expected = new float[4];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            multiplyPoint(i, expected);
+            for (int j = 0; j < 3; j++) {
+                // Same products summed in the same order, so bit-identical
+                assertEquals(expected[j], dst.get(i * 3 + j), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void bufferToArrayMatchesMultiplyMV() {
+        float[] dst = new float[POINT_COUNT * 3];
+        PointTransform.transform(mMatrix, mPoints, 0, dst, 0, POINT_COUNT);
+
+        float[] expected = new float[4];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            multiplyPoint(i, expected);
+            for (int j = 0; j < 3; j++) {
+                assertEquals(expected[j], dst[i * 3 + j], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void honoursPointOffsetsAndLeavesTheRestUntouched() {
+        float[] dst = new float[POINT_COUNT * 3];
+        PointTransform.transform(mMatrix, mPoints, 10, dst, 20, 5);
+
+        float[] expected = new float[4];
+        for (int i = 0; i < POINT_COUNT; i++) {
+            if (i >= 20 && i < 25) {
+                multiplyPoint(i - 10, expected);
+            } else {
+                expected[0] = expected[1] = expected[2] = 0f;
+            }
+            for (int j = 0; j < 3; j++) {
+                assertEquals(expected[j], dst[i * 3 + j], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void leavesBufferPositionsUntouched() {
+        FloatBuffer dst = allocate(POINT_COUNT);
+        mPoints.position(3);
+        dst.position(6);
+        PointTransform.transform(mMatrix, mPoints, 0, dst, 0, POINT_COUNT);
+        assertEquals(3, mPoints.position());
+        assertEquals(6, dst.position());
+    }
+
+    private void multiplyPoint(int point, float[] result) {
+        float[] vec = { mPoints.get(point * 3), mPoints.get(point * 3 + 1),
+                mPoints.get(point * 3 + 2), 1f };
+        Mat4.multiplyMV(result, 0, mMatrix, 0, vec, 0);
+    }
+
+    private static FloatBuffer allocate(int points) {
+        return ByteBuffer.allocateDirect(points * 3 * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
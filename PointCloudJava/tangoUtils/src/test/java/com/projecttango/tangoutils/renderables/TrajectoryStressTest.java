@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.tangoutils.math.Mat4;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Several trajectories fed from their own threads while another thread draws
+ * them, as ALRenderer does with its device and relocalized trajectories. Each
+ * must end up with exactly the path a single-threaded trajectory builds from
+ * the same poses.
+ */
+public class TrajectoryStressTest {
+
+    private static final int TRAJECTORY_COUNT = 4;
+    private static final long POSE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 100;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    @Test
+    public void paced100HzProducersWithConcurrentDraws() throws Exception {
+        // 3 s of poses at 100 Hz per trajectory
+        run(300, POSE_INTERVAL_NANOS);
+    }
+
+    @Test
+    public void unpacedProducersSpanSegments() throws Exception {
+        run(20000, 0);
+    }
+
+    private void run(int poseCount, long poseIntervalNanos) throws Exception {
+        final float[][] poses = new float[TRAJECTORY_COUNT][];
+        final Trajectory[] trajectories = new Trajectory[TRAJECTORY_COUNT];
+        for (int i = 0; i < TRAJECTORY_COUNT; i++) {
+            poses[i] = randomWalk(i, poseCount);
+            trajectories[i] = new Trajectory(3);
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch producersDone = new CountDownLatch(TRAJECTORY_COUNT);
+        Thread[] producers = new Thread[TRAJECTORY_COUNT];
+        for (int i = 0; i < TRAJECTORY_COUNT; i++) {
+            producers[i] = new Thread(new Producer(trajectories[i], poses[i],
+                    poseIntervalNanos, start, producersDone, failure));
+            producers[i].start();
+        }
+        Thread renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] view = new float[16];
+                float[] projection = new float[16];
+                Mat4.setLookAtM(view, 0, 5, 5, 5, 0, 0, 0, 0, 1, 0);
+                Mat4.perspectiveM(projection, 0, 45, 1, 0.1f, 100);
+                try {
+                    start.await();
+                    do {
+                        for (Trajectory trajectory : trajectories) {
+                            trajectory.draw(view, projection);
+                            trajectory.getVertexCount();
+                        }
+                        LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+                    } while (producersDone.getCount() > 0);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        renderer.start();
+
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        renderer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        for (int i = 0; i < TRAJECTORY_COUNT; i++) {
+            Trajectory reference = new Trajectory(3);
+            new Producer(reference, poses[i], 0, null, null, null).feed();
+            assertEquals("trajectory " + i, reference.getVertexCount(),
+                    trajectories[i].getVertexCount());
+            assertArrayEquals("trajectory " + i, path(reference), path(trajectories[i]), 0f);
+        }
+        if (poseIntervalNanos == 0) {
+            assertTrue(trajectories[0].getVertexCount() > Trajectory.SEGMENT_VERTICES);
+        }
+    }
+
+    /** Feeds one trajectory its poses, one every interval. */
+    private static final class Producer implements Runnable {
+        private final Trajectory mTrajectory;
+        private final float[] mPoses;
+        private final long mIntervalNanos;
+        private final CountDownLatch mStart;
+        private final CountDownLatch mDone;
+        private final AtomicReference<Throwable> mFailure;
+
+        Producer(Trajectory trajectory, float[] poses, long intervalNanos, CountDownLatch start,
+                CountDownLatch done, AtomicReference<Throwable> failure) {
+            mTrajectory = trajectory;
+            mPoses = poses;
+            mIntervalNanos = intervalNanos;
+            mStart = start;
+            mDone = done;
+            mFailure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+                feed();
+            } catch (Throwable e) {
+                mFailure.compareAndSet(null, e);
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        void feed() {
+            float[] translation = new float[3];
+            long next = System.nanoTime();
+            for (int i = 0; i < mPoses.length; i += 3) {
+                if (mIntervalNanos > 0) {
+                    next += mIntervalNanos;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                System.arraycopy(mPoses, i, translation, 0, 3);
+                mTrajectory.updateTrajectory(translation);
+            }
+        }
+    }
+
+    /**
+     * A walk in random 5 cm steps, different for each seed, so that a
+     * trajectory picking up another's points would show.
+     */
+    private static float[] randomWalk(long seed, int poseCount) {
+        Random random = new Random(seed);
+        float[] poses = new float[poseCount * 3];
+        poses[0] = seed;
+        for (int i = 3; i < poses.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                poses[i + j] = poses[i - 3 + j] + (random.nextFloat() - 0.5f) * 0.1f;
+            }
+        }
+        return poses;
+    }
+
+    private static float[] path(Trajectory trajectory) {
+        float[] path = new float[trajectory.getVertexCount() * 3];
+        int count = trajectory.getPath(path);
+        float[] result = new float[count * 3];
+        System.arraycopy(path, 0, result, 0, result.length);
+        return result;
+    }
+}
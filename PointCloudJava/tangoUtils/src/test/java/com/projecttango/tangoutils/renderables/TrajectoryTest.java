@@ -0,0 +1,292 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.renderables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.tangoutils.PoseEvent;
+import com.projecttango.tangoutils.SessionRecorder;
+import com.projecttango.tangoutils.SyntheticSession;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Path simplification of {@link Trajectory}, on walks recorded from
+ * {@link SyntheticSession} and on hand-made paths. GL calls are stubbed out.
+ */
+public class TrajectoryTest {
+
+    private static final int POSE_RATE = 100;
+    /** Slack for float rounding in distances of a few meters. */
+    private static final float EPSILON = 1e-4f;
+    /**
+     * A pose may be dropped for being within MIN_DISTANCE_CHECK of a vertex
+     * that the simplifier later moves within SIMPLIFY_TOLERANCE of the path.
+     */
+    private static final float MAX_DEVIATION = Trajectory.MIN_DISTANCE_CHECK
+            + Trajectory.SIMPLIFY_TOLERANCE + EPSILON;
+
+    @Test
+    public void corridorWalkIsSimplified() {
+        float[] poses = recordPoses(SyntheticSession.SCENE_CORRIDOR,
+                SyntheticSession.MOTION_WALK, 60);
+        Trajectory trajectory = feed(poses);
+        // The device bobs 2 cm at every step, twice the tolerance, so the
+        // path keeps about two vertices per step.
+        assertTrue(trajectory.getVertexCount() * 8 <= unsimplifiedCount(poses));
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void roomWalkIsSimplified() {
+        float[] poses = recordPoses(SyntheticSession.SCENE_ROOM, SyntheticSession.MOTION_WALK,
+                60);
+        Trajectory trajectory = feed(poses);
+        assertTrue(trajectory.getVertexCount() * 8 <= unsimplifiedCount(poses));
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void walkWithJumpsFollowsEveryPose() {
+        float[] poses = recordPoses(SyntheticSession.SCENE_ROOM,
+                SyntheticSession.MOTION_JUMPS, 60);
+        assertFollowsPoses(feed(poses), poses);
+    }
+
+    @Test
+    public void spinInPlaceKeepsASingleVertex() {
+        float[] poses = recordPoses(SyntheticSession.SCENE_ROOM, SyntheticSession.MOTION_SPIN,
+                10);
+        assertEquals(1, feed(poses).getVertexCount());
+    }
+
+    @Test
+    public void straightWalkWithJitterIsReducedUpToTheWindow() {
+        // 1 m/s for 60 s with 2 mm of tracking jitter
+        Random random = new Random(2);
+        float[] poses = new float[60 * POSE_RATE * 3];
+        for (int i = 0; i < poses.length; i += 3) {
+            poses[i] = (random.nextFloat() - 0.5f) * 0.004f;
+            poses[i + 1] = (float) i / 3 / POSE_RATE + (random.nextFloat() - 0.5f) * 0.004f;
+            poses[i + 2] = 1.4f + (random.nextFloat() - 0.5f) * 0.004f;
+        }
+        Trajectory trajectory = feed(poses);
+        int unsimplified = unsimplifiedCount(poses);
+        assertTrue(trajectory.getVertexCount() * 40 <= unsimplified);
+        // No vertex stands for more than a window of points
+        assertTrue(trajectory.getVertexCount() * Trajectory.SIMPLIFY_WINDOW >= unsimplified);
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void smoothCurveIsReducedTenfold() {
+        // 1 m/s around a circle of 1.5 m radius
+        float[] poses = new float[60 * POSE_RATE * 3];
+        for (int i = 0; i < poses.length; i += 3) {
+            double angle = (double) i / 3 / POSE_RATE / 1.5;
+            poses[i] = (float) (1.5 * Math.cos(angle));
+            poses[i + 1] = (float) (1.5 * Math.sin(angle));
+            poses[i + 2] = 1.4f;
+        }
+        Trajectory trajectory = feed(poses);
+        assertTrue(trajectory.getVertexCount() * 10 <= unsimplifiedCount(poses));
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void cornerIsKept() {
+        // 2 m along x, then 2 m along y
+        float[] poses = new float[400 * 3];
+        for (int i = 0; i < 400; i++) {
+            poses[i * 3] = i < 200 ? i * 0.01f : 2f;
+            poses[i * 3 + 1] = i < 200 ? 0f : (i - 200) * 0.01f;
+            poses[i * 3 + 2] = 1.4f;
+        }
+        Trajectory trajectory = feed(poses);
+        float[] path = new float[trajectory.getVertexCount() * 3];
+        int count = trajectory.getPath(path);
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0; i < count * 3; i += 3) {
+            // The corner (2, 0, 1.4) in OpenGL axes
+            float dx = path[i] - 2f;
+            float dy = path[i + 1] - 1.4f;
+            float dz = path[i + 2];
+            nearest = Math.min(nearest, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+        assertTrue(nearest <= MAX_DEVIATION);
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void pathSpansSegments() {
+        // A random walk in 5 cm steps, which leaves little to simplify
+        Random random = new Random(4);
+        float[] poses = new float[5000 * 3];
+        for (int i = 3; i < poses.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                poses[i + j] = poses[i - 3 + j] + (random.nextFloat() - 0.5f) * 0.1f;
+            }
+        }
+        Trajectory trajectory = feed(poses);
+        float[] path = new float[trajectory.getVertexCount() * 3];
+        int count = trajectory.getPath(path);
+        assertTrue(count > 2 * Trajectory.SEGMENT_VERTICES);
+        // Each segment after the first repeats the last vertex of the previous
+        int segments = (count - 2) / (Trajectory.SEGMENT_VERTICES - 1) + 1;
+        assertEquals(count + segments - 1, trajectory.getVertexCount());
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    @Test
+    public void clearPathStartsOver() {
+        Trajectory trajectory = feed(recordPoses(SyntheticSession.SCENE_CORRIDOR,
+                SyntheticSession.MOTION_WALK, 10));
+        trajectory.clearPath();
+        assertEquals(0, trajectory.getVertexCount());
+
+        float[] poses = { 5f, 5f, 1f, 5f, 6f, 1f };
+        trajectory = feedInto(trajectory, poses);
+        assertEquals(2, trajectory.getVertexCount());
+        assertFollowsPoses(trajectory, poses);
+    }
+
+    /**
+     * Returns the valid start of service to device positions of a synthetic
+     * session, in the Tango frame, as packed xyz floats.
+     */
+    private static float[] recordPoses(int scene, int motion, double duration) {
+        SyntheticSession session = new SyntheticSession(1);
+        session.setScene(scene);
+        session.setMotion(motion);
+        session.setPoseRate(POSE_RATE);
+        session.setDuration(duration);
+        PoseEvent pose = new PoseEvent();
+        float[] translation = new float[3];
+        float[] poses = new float[((int) duration * POSE_RATE + 1) * 3];
+        int count = 0;
+        int type;
+        while ((type = session.next()) >= 0) {
+            if (type != SessionRecorder.TYPE_POSE) {
+                continue;
+            }
+            session.readPose(pose);
+            if (pose.baseFrame != PoseEvent.COORDINATE_FRAME_START_OF_SERVICE
+                    || pose.targetFrame != PoseEvent.COORDINATE_FRAME_DEVICE
+                    || pose.statusCode != PoseEvent.POSE_VALID) {
+                continue;
+            }
+            if (count == poses.length) {
+                float[] grown = new float[poses.length * 2];
+                System.arraycopy(poses, 0, grown, 0, poses.length);
+                poses = grown;
+            }
+            pose.copyTranslation(translation);
+            System.arraycopy(translation, 0, poses, count, 3);
+            count += 3;
+        }
+        float[] result = new float[count];
+        System.arraycopy(poses, 0, result, 0, count);
+        return result;
+    }
+
+    private static Trajectory feed(float[] poses) {
+        return feedInto(new Trajectory(3), poses);
+    }
+
+    private static Trajectory feedInto(Trajectory trajectory, float[] poses) {
+        float[] translation = new float[3];
+        for (int i = 0; i < poses.length; i += 3) {
+            System.arraycopy(poses, i, translation, 0, 3);
+            trajectory.updateTrajectory(translation);
+        }
+        return trajectory;
+    }
+
+    /**
+     * Returns the number of vertices the path would have with only the
+     * minimum distance check.
+     */
+    private static int unsimplifiedCount(float[] poses) {
+        int count = 0;
+        float lastX = 0;
+        float lastY = 0;
+        float lastZ = 0;
+        for (int i = 0; i < poses.length; i += 3) {
+            float dx = poses[i] - lastX;
+            float dy = poses[i + 1] - lastY;
+            float dz = poses[i + 2] - lastZ;
+            if (count == 0 || dx * dx + dy * dy + dz * dz
+                    > Trajectory.MIN_DISTANCE_CHECK * Trajectory.MIN_DISTANCE_CHECK) {
+                count++;
+                lastX = poses[i];
+                lastY = poses[i + 1];
+                lastZ = poses[i + 2];
+            }
+        }
+        return count;
+    }
+
+    /** Asserts that every pose lies within MAX_DEVIATION of the drawn path. */
+    private static void assertFollowsPoses(Trajectory trajectory, float[] poses) {
+        float[] path = new float[trajectory.getVertexCount() * 3];
+        int count = trajectory.getPath(path);
+        for (int i = 0; i < poses.length; i += 3) {
+            // Tango frame to OpenGL axes, as updateTrajectory maps them
+            float x = poses[i];
+            float y = poses[i + 2];
+            float z = -poses[i + 1];
+            float distance = distanceToPath(path, count, x, y, z);
+            assertTrue("pose " + i / 3 + " is " + distance + " m from the path",
+                    distance <= MAX_DEVIATION);
+        }
+    }
+
+    private static float distanceToPath(float[] path, int count, float x, float y, float z) {
+        // Distances are compared squared
+        float nearest = distanceSquared(path, 0, x, y, z);
+        for (int v = 1; v < count; v++) {
+            int a = (v - 1) * 3;
+            int b = v * 3;
+            float ux = path[b] - path[a];
+            float uy = path[b + 1] - path[a + 1];
+            float uz = path[b + 2] - path[a + 2];
+            float lengthSquared = ux * ux + uy * uy + uz * uz;
+            float t = 0;
+            if (lengthSquared > 0) {
+                t = ((x - path[a]) * ux + (y - path[a + 1]) * uy + (z - path[a + 2]) * uz)
+                        / lengthSquared;
+                t = Math.max(0, Math.min(1, t));
+            }
+            float dx = path[a] + t * ux - x;
+            float dy = path[a + 1] + t * uy - y;
+            float dz = path[a + 2] + t * uz - z;
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return (float) Math.sqrt(nearest);
+    }
+
+    private static float distanceSquared(float[] path, int vertex, float x, float y,
+            float z) {
+        float dx = path[vertex * 3] - x;
+        float dy = path[vertex * 3 + 1] - y;
+        float dz = path[vertex * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -16,7 +16,8 @@
 
 package com.projecttango.tangoutils;
 
-import android.opengl.Matrix;
+import com.projecttango.tangoutils.math.Mat4;
+import com.projecttango.tangoutils.math.Quat;
 
 /**
  * Utility class to manage the calculation of a Model Matrix from the
@@ -25,10 +26,6 @@ import android.opengl.Matrix;
  */
 public class ModelMatCalculator {
 
-    private static float[] mConversionMatrix = new float[] { 1.0f, 0.0f, 0.0f,
-            0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
-            0.0f, 1.0f };
-
     private float[] mModelMatrix = new float[16];
     private float[] mPointCloudModelMatrix = new float[16];
     private float[] mDevice2IMUMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f,
@@ -41,9 +38,26 @@ public class ModelMatCalculator {
             0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f,
             0.0f, 1.0f };
 
+    /**
+     * Constant part of the pose chain, invert(device2IMU) * colorCamera2IMU *
+     * opengl2ColorCamera. Replaced as a whole when an extrinsic is set, so a
+     * pose being composed on another thread never sees half of it.
+     */
+    private volatile float[] mExtrinsicMatrix;
+
+    /*
+     * The device pose is composed on the render thread and depth frames on
+     * the Tango callback thread, so each path has its own scratch matrices.
+     */
+    private final float[] mModelQuaternionMatrix = new float[16];
+    private final float[] mModelTempMatrix = new float[16];
+    private final float[] mPointCloudQuaternionMatrix = new float[16];
+    private final float[] mPointCloudTempMatrix = new float[16];
+
     public ModelMatCalculator() {
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.setIdentityM(mPointCloudModelMatrix, 0);
+        Mat4.setIdentityM(mModelMatrix, 0);
+        Mat4.setIdentityM(mPointCloudModelMatrix, 0);
+        updateExtrinsicMatrix();
     }
 
     /**
@@ -56,32 +70,31 @@ public class ModelMatCalculator {
      */
     public void updatePointCloudModelMatrix(float[] translation,
             float[] quaternion) {
+        composePoseMatrix(mPointCloudModelMatrix, translation, quaternion,
+                mPointCloudQuaternionMatrix, mPointCloudTempMatrix);
+    }
 
-        float[] tempMultMatrix = new float[16];
-        Matrix.setIdentityM(tempMultMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix, 0, mColorCamera2IMUMatrix, 0,
-                mOpengl2ColorCameraMatrix, 0);
-        float[] tempInvertMatrix = new float[16];
-        Matrix.setIdentityM(tempInvertMatrix, 0);
-        Matrix.invertM(tempInvertMatrix, 0, mDevice2IMUMatrix, 0);
-        float[] tempMultMatrix2 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix2, 0);
-        Matrix.multiplyMM(tempMultMatrix2, 0, tempInvertMatrix, 0,
-                tempMultMatrix, 0);
-
-        float[] quaternionMatrix = new float[16];
-        Matrix.setIdentityM(quaternionMatrix, 0);
-        quaternionMatrix = quaternionMatrixOpenGL(quaternion);
-        float[] tempMultMatrix3 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix3, 0);
-        Matrix.setIdentityM(mPointCloudModelMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix3, 0, quaternionMatrix, 0,
-                tempMultMatrix2, 0);
-        Matrix.multiplyMM(mPointCloudModelMatrix, 0, mConversionMatrix, 0,
-                tempMultMatrix3, 0);
-        mPointCloudModelMatrix[12] += translation[0];
-        mPointCloudModelMatrix[13] += translation[2];
-        mPointCloudModelMatrix[14] += -1f * translation[1];
+    /**
+     * Computes the depth camera to world transform for a pose straight into
+     * result, as {@link #updatePointCloudModelMatrix} followed by
+     * {@link #getPointCloudModelMatrix(float[])} would, without going through
+     * the stored point cloud model matrix. Safe to call from the depth
+     * callback thread while the device pose is updated on another thread.
+     * 
+     * @param translation
+     *            a three-element array of translation data.
+     * @param quaternion
+     *            a four-element array of rotation data.
+     * @param result
+     *            a float[16] receiving the column-major matrix.
+     */
+    public void computePointCloudModelMatrix(float[] translation,
+            float[] quaternion, float[] result) {
+        composePoseMatrix(result, translation, quaternion,
+                mPointCloudQuaternionMatrix, mPointCloudTempMatrix);
+        for (int i = 4; i < 12; i++) {
+            result[i] = -result[i];
+        }
     }
 
     /**
@@ -93,42 +106,54 @@ public class ModelMatCalculator {
      *            a four-element array of rotation data.
      */
     public void updateModelMatrix(float[] translation, float[] quaternion) {
+        composePoseMatrix(mModelMatrix, translation, quaternion,
+                mModelQuaternionMatrix, mModelTempMatrix);
+    }
 
-        float[] tempMultMatrix = new float[16];
-        Matrix.setIdentityM(tempMultMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix, 0, mColorCamera2IMUMatrix, 0,
+    /**
+     * Computes conversion * quaternion * extrinsics plus the converted
+     * translation into result without allocating. The conversion matrix only
+     * swaps and negates axes, so it is applied as a row permutation of the
+     * product instead of a second matrix multiply. The scratch matrices
+     * belong to the calling path.
+     */
+    private void composePoseMatrix(float[] result, float[] translation,
+            float[] quaternion, float[] quaternionMatrix, float[] temp) {
+        quaternionMatrixOpenGL(quaternion, quaternionMatrix);
+        Mat4.multiplyMM(temp, 0, quaternionMatrix, 0, mExtrinsicMatrix, 0);
+        for (int column = 0; column < 16; column += 4) {
+            result[column] = temp[column];
+            result[column + 1] = temp[column + 2];
+            result[column + 2] = -temp[column + 1];
+            result[column + 3] = temp[column + 3];
+        }
+        result[12] += translation[0];
+        result[13] += translation[2];
+        result[14] += -1f * translation[1];
+    }
+
+    private void updateExtrinsicMatrix() {
+        float[] colorCamera = new float[16];
+        float[] inverseDevice2IMU = new float[16];
+        float[] extrinsic = new float[16];
+        Mat4.multiplyMM(colorCamera, 0, mColorCamera2IMUMatrix, 0,
                 mOpengl2ColorCameraMatrix, 0);
-        float[] tempInvertMatrix = new float[16];
-        Matrix.setIdentityM(tempInvertMatrix, 0);
-        Matrix.invertM(tempInvertMatrix, 0, mDevice2IMUMatrix, 0);
-        float[] tempMultMatrix2 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix2, 0);
-        Matrix.multiplyMM(tempMultMatrix2, 0, tempInvertMatrix, 0,
-                tempMultMatrix, 0);
-
-        float[] quaternionMatrix = new float[16];
-        Matrix.setIdentityM(quaternionMatrix, 0);
-        quaternionMatrix = quaternionMatrixOpenGL(quaternion);
-        float[] tempMultMatrix3 = new float[16];
-        Matrix.setIdentityM(tempMultMatrix3, 0);
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.multiplyMM(tempMultMatrix3, 0, quaternionMatrix, 0,
-                tempMultMatrix2, 0);
-        Matrix.multiplyMM(mModelMatrix, 0, mConversionMatrix, 0,
-                tempMultMatrix3, 0);
-        mModelMatrix[12] += translation[0];
-        mModelMatrix[13] += translation[2];
-        mModelMatrix[14] += -1f * translation[1];
-    }
-
-    public void SetDevice2IMUMatrix(float[] translation, float[] quaternion) {
+        Mat4.invertM(inverseDevice2IMU, 0, mDevice2IMUMatrix, 0);
+        Mat4.multiplyMM(extrinsic, 0, inverseDevice2IMU, 0, colorCamera, 0);
+        mExtrinsicMatrix = extrinsic;
+    }
+
+    public synchronized void SetDevice2IMUMatrix(float[] translation,
+            float[] quaternion) {
         mDevice2IMUMatrix = quaternionMatrixOpenGL(quaternion);
         mDevice2IMUMatrix[12] = translation[0];
         mDevice2IMUMatrix[13] = translation[1];
         mDevice2IMUMatrix[14] = translation[2];
+        updateExtrinsicMatrix();
     }
 
-    public void SetColorCamera2IMUMatrix(float[] translation, float[] quaternion) {
+    public synchronized void SetColorCamera2IMUMatrix(float[] translation,
+            float[] quaternion) {
         mOpengl2ColorCameraMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
                 -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
                 1.0f };
@@ -136,6 +161,7 @@ public class ModelMatCalculator {
         mColorCamera2IMUMatrix[12] = translation[0];
         mColorCamera2IMUMatrix[13] = translation[1];
         mColorCamera2IMUMatrix[14] = translation[2];
+        updateExtrinsicMatrix();
     }
 
     public float[] getModelMatrix() {
@@ -150,22 +176,45 @@ public class ModelMatCalculator {
 
     public float[] getPointCloudModelMatrixCopy() {
         float[] modelMatCopy = new float[16];
-        float[] tempMultMat = new float[16];
-        Matrix.setIdentityM(tempMultMat, 0);
-        float[] invertYandZMatrix = new float[] { 1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
-                -1.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f, 0.0f,
-                1.0f };
-        Matrix.multiplyMM(tempMultMat, 0, mPointCloudModelMatrix, 0,
-                invertYandZMatrix, 0);
-        System.arraycopy(tempMultMat, 0, modelMatCopy, 0, 16);
+        getPointCloudModelMatrix(modelMatCopy);
         return modelMatCopy;
     }
 
+    /**
+     * Writes the depth camera to world transform into result without
+     * allocating. This is the point cloud model matrix with its Y and Z axes
+     * inverted, done by negating columns instead of a matrix multiply.
+     * 
+     * @param result
+     *            a float[16] receiving the column-major matrix.
+     */
+    public void getPointCloudModelMatrix(float[] result) {
+        for (int i = 0; i < 4; i++) {
+            result[i] = mPointCloudModelMatrix[i];
+            result[4 + i] = -mPointCloudModelMatrix[4 + i];
+            result[8 + i] = -mPointCloudModelMatrix[8 + i];
+            result[12 + i] = mPointCloudModelMatrix[12 + i];
+        }
+    }
+
     public float[] getTranslation() {
         return new float[] { mModelMatrix[12], mModelMatrix[13],
                 mModelMatrix[14] };
     }
 
+    /**
+     * Writes the translation of the model matrix into result without
+     * allocating.
+     * 
+     * @param result
+     *            a float[3] receiving x, y, z.
+     */
+    public void getTranslation(float[] result) {
+        result[0] = mModelMatrix[12];
+        result[1] = mModelMatrix[13];
+        result[2] = mModelMatrix[14];
+    }
+
     /**
      * A function to convert a quaternion to quaternion Matrix. Please note that
      * Opengl.Matrix is Column Major and so we construct the matrix in Column
@@ -178,46 +227,24 @@ public class ModelMatCalculator {
      */
     public static float[] quaternionMatrixOpenGL(float[] quaternion) {
         float[] matrix = new float[16];
-        normalizeVector(quaternion);
-
-        float x = quaternion[0];
-        float y = quaternion[1];
-        float z = quaternion[2];
-        float w = quaternion[3];
-
-        float x2 = x * x;
-        float y2 = y * y;
-        float z2 = z * z;
-        float xy = x * y;
-        float xz = x * z;
-        float yz = y * z;
-        float wx = w * x;
-        float wy = w * y;
-        float wz = w * z;
-
-        matrix[0] = 1f - 2f * (y2 + z2);
-        matrix[4] = 2f * (xy - wz);
-        matrix[8] = 2f * (xz + wy);
-        matrix[12] = 0f;
-
-        matrix[1] = 2f * (xy + wz);
-        matrix[5] = 1f - 2f * (x2 + z2);
-        matrix[9] = 2f * (yz - wx);
-        matrix[13] = 0f;
-
-        matrix[2] = 2f * (xz - wy);
-        matrix[6] = 2f * (yz + wx);
-        matrix[10] = 1f - 2f * (x2 + y2);
-        matrix[14] = 0f;
-
-        matrix[3] = 0f;
-        matrix[7] = 0f;
-        matrix[11] = 0f;
-        matrix[15] = 1f;
-
+        quaternionMatrixOpenGL(quaternion, matrix);
         return matrix;
     }
 
+    /**
+     * Same as {@link #quaternionMatrixOpenGL(float[])}, writing into an
+     * existing matrix instead of allocating one.
+     * 
+     * @param quaternion
+     *            Input quaternion with float[4]
+     * @param matrix
+     *            Output Quaternion Matrix of float[16]
+     */
+    public static void quaternionMatrixOpenGL(float[] quaternion, float[] matrix) {
+        normalizeVector(quaternion);
+        Quat.toMatrix(quaternion, 0, matrix, 0);
+    }
+
     /**
      * Creates a unit vector in the direction of an arbitrary vector. The
      * original vector is modified in place.
@@ -226,13 +253,6 @@ public class ModelMatCalculator {
      *            the vector to normalize
      */
     public static void normalizeVector(float[] v) {
-        float mag2 = v[0] * v[0] + v[1] * v[1] + v[2] * v[2] + v[3] * v[3];
-        if (Math.abs(mag2) > 0.00001f && Math.abs(mag2 - 1.0f) > 0.00001f) {
-            float mag = (float) Math.sqrt(mag2);
-            v[0] = v[0] / mag;
-            v[1] = v[1] / mag;
-            v[2] = v[2] / mag;
-            v[3] = v[3] / mag;
-        }
+        Quat.normalize(v, 0);
     }
 }
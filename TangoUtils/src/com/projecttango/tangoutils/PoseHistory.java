@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import com.projecttango.tangoutils.math.Quat;
+
+/**
+ * Ring buffer of recent device poses keyed by timestamp, so that a depth
+ * frame can be registered against a pose interpolated locally instead of
+ * asking the service for the pose at the frame's timestamp. Poses are kept in
+ * primitive arrays and lookups do not allocate.
+ *
+ * Translations are (x, y, z) and rotations are quaternions in the Tango
+ * (x, y, z, w) order. Timestamps are in seconds and must be added in
+ * increasing order.
+ */
+public class PoseHistory {
+
+    /** Default number of poses kept, a few seconds at the pose rate. */
+    public static final int DEFAULT_CAPACITY = 256;
+    /**
+     * Largest gap, in seconds, between two poses that will be interpolated
+     * across; a wider gap usually means tracking was lost in between.
+     */
+    public static final double MAX_INTERPOLATION_GAP = 0.1;
+
+    private final int mMask;
+    private final double[] mTimestamps;
+    private final double[] mTranslations;
+    private final double[] mRotations;
+    private final double[] mTranslationScratch = new double[3];
+    /** Slot the next pose is written to. */
+    private int mHead;
+    private int mCount;
+
+    public PoseHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            number of poses kept, rounded up to a power of two.
+     */
+    public PoseHistory(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mTimestamps = new double[size];
+        mTranslations = new double[size * 3];
+        mRotations = new double[size * 4];
+    }
+
+    /**
+     * Records a pose. Poses not newer than the latest one are ignored.
+     *
+     * @param translation
+     *            at least 3 elements, x, y, z.
+     * @param rotation
+     *            at least 4 elements, quaternion x, y, z, w.
+     */
+    public synchronized void add(double timestamp, double[] translation, double[] rotation) {
+        if (mCount > 0 && timestamp <= mTimestamps[(mHead - 1) & mMask]) {
+            return;
+        }
+        int slot = mHead;
+        mTimestamps[slot] = timestamp;
+        System.arraycopy(translation, 0, mTranslations, slot * 3, 3);
+        System.arraycopy(rotation, 0, mRotations, slot * 4, 4);
+        mHead = (mHead + 1) & mMask;
+        if (mCount <= mMask) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Forgets all poses, e.g. after tracking was lost or reset.
+     */
+    public synchronized void clear() {
+        mCount = 0;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Computes the pose at a timestamp by linear interpolation of the
+     * translation and spherical interpolation of the rotation between the two
+     * surrounding poses.
+     *
+     * @param translationOut
+     *            receives x, y, z.
+     * @param rotationOut
+     *            receives quaternion x, y, z, w.
+     * @return false, leaving the outputs untouched, if the timestamp is outside
+     *         the buffered window or falls in a gap wider than
+     *         {@link #MAX_INTERPOLATION_GAP}.
+     */
+    public synchronized boolean getPoseAtTime(double timestamp, float[] translationOut,
+            float[] rotationOut) {
+        if (!getPoseAtTime(timestamp, mTranslationScratch, rotationOut)) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            translationOut[i] = (float) mTranslationScratch[i];
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #getPoseAtTime(double, float[], float[])}, but keeps the
+     * translation in double precision, for callers working far from the
+     * origin of the pose frame.
+     */
+    public synchronized boolean getPoseAtTime(double timestamp, double[] translationOut,
+            float[] rotationOut) {
+        if (mCount == 0) {
+            return false;
+        }
+        int first = (mHead - mCount) & mMask;
+        if (timestamp < mTimestamps[first]
+                || timestamp > mTimestamps[(mHead - 1) & mMask]) {
+            return false;
+        }
+        // Binary search for the last pose at or before the timestamp.
+        int low = 0;
+        int high = mCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mTimestamps[(first + mid) & mMask] <= timestamp) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int before = (first + low) & mMask;
+        if (low == mCount - 1 || mTimestamps[before] == timestamp) {
+            copyPose(before, translationOut, rotationOut);
+            return true;
+        }
+        int after = (before + 1) & mMask;
+        double gap = mTimestamps[after] - mTimestamps[before];
+        if (gap > MAX_INTERPOLATION_GAP) {
+            return false;
+        }
+        double t = (timestamp - mTimestamps[before]) / gap;
+        for (int i = 0; i < 3; i++) {
+            double a = mTranslations[before * 3 + i];
+            translationOut[i] = a + (mTranslations[after * 3 + i] - a) * t;
+        }
+        Quat.slerp(rotationOut, 0, mRotations, before * 4, mRotations, after * 4, t);
+        return true;
+    }
+
+    private void copyPose(int slot, double[] translationOut, float[] rotationOut) {
+        System.arraycopy(mTranslations, slot * 3, translationOut, 0, 3);
+        for (int i = 0; i < 4; i++) {
+            rotationOut[i] = (float) mRotations[slot * 4 + i];
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import android.content.Context;
+import android.widget.TextView;
+
+/**
+ * On-screen readout of the poses of one coordinate frame pair. The Tango
+ * callback thread calls {@link #update} for every pose, which keeps the pose
+ * count and the time delta exact, and publishes the values through a
+ * {@link TripleBuffer}. The UI thread calls {@link #show()} at the display
+ * rate to put the newest values in the text views. Neither side blocks or
+ * allocates.
+ */
+public class PoseReadout {
+
+    /*
+     * Status codes of TangoPoseData, mirrored so that this library does not
+     * depend on the Tango client library.
+     */
+    private static final int POSE_INITIALIZING = 0;
+    private static final int POSE_VALID = 1;
+    private static final int POSE_INVALID = 2;
+
+    private static final int SECONDS_TO_MILLI = 1000;
+    private static final int TEXT_CAPACITY = 128;
+
+    /** Values of one pose, as shown on screen. */
+    private static final class Sample {
+        final double[] translation = new double[3];
+        final double[] rotation = new double[4];
+        int statusCode;
+        int count;
+        double deltaMillis;
+    }
+
+    private final TripleBuffer<Sample> mSamples = new TripleBuffer<Sample>(
+            new Sample(), new Sample(), new Sample());
+
+    // Only used on the callback thread
+    private int mPoseCount;
+    private int mPreviousPoseStatus;
+    private double mPreviousPoseTimeStamp;
+
+    // Only used on the UI thread. TextView keeps a reference to the
+    // characters it is given, so each view has its own buffer.
+    private final TextView mTranslationTextView;
+    private final TextView mQuatTextView;
+    private final TextView mPoseStatusTextView;
+    private final TextView mPoseCountTextView;
+    private final TextView mPoseDeltaTextView;
+    private final char[] mTranslationText = new char[TEXT_CAPACITY];
+    private final char[] mQuatText = new char[TEXT_CAPACITY];
+    private final char[] mPoseCountText = new char[TEXT_CAPACITY];
+    private final char[] mPoseDeltaText = new char[TEXT_CAPACITY];
+    private final String mInitializing;
+    private final String mInvalid;
+    private final String mValid;
+    private final String mUnknown;
+    private int mShownPoseStatus = -1;
+
+    public PoseReadout(Context context, TextView translation, TextView quat,
+            TextView poseStatus, TextView poseCount, TextView poseDelta) {
+        this(translation, quat, poseStatus, poseCount, poseDelta,
+                context.getString(R.string.pose_initializing),
+                context.getString(R.string.pose_invalid),
+                context.getString(R.string.pose_valid),
+                context.getString(R.string.pose_unknown));
+    }
+
+    /**
+     * Creates a readout without a Context, as when a session is replayed
+     * offline. The views are only used by {@link #show()}, and may be null if
+     * it is never called.
+     */
+    public PoseReadout(TextView translation, TextView quat,
+            TextView poseStatus, TextView poseCount, TextView poseDelta,
+            String initializing, String invalid, String valid,
+            String unknown) {
+        mTranslationTextView = translation;
+        mQuatTextView = quat;
+        mPoseStatusTextView = poseStatus;
+        mPoseCountTextView = poseCount;
+        mPoseDeltaTextView = poseDelta;
+        mInitializing = initializing;
+        mInvalid = invalid;
+        mValid = valid;
+        mUnknown = unknown;
+    }
+
+    /**
+     * Counts the pose and publishes its values. Only call from the Tango
+     * callback thread.
+     * 
+     * @param timestamp
+     *            pose timestamp in seconds.
+     * @param statusCode
+     *            one of the TangoPoseData POSE_ constants.
+     * @param translation
+     *            x, y, z.
+     * @param rotation
+     *            quaternion x, y, z, w.
+     */
+    public void update(double timestamp, int statusCode, double[] translation,
+            double[] rotation) {
+        if (mPreviousPoseStatus != statusCode) {
+            mPoseCount = 0;
+        }
+        mPreviousPoseStatus = statusCode;
+        mPoseCount++;
+        double delta = (timestamp - mPreviousPoseTimeStamp) * SECONDS_TO_MILLI;
+        mPreviousPoseTimeStamp = timestamp;
+
+        Sample sample = mSamples.getBack();
+        System.arraycopy(translation, 0, sample.translation, 0, 3);
+        System.arraycopy(rotation, 0, sample.rotation, 0, 4);
+        sample.statusCode = statusCode;
+        sample.count = mPoseCount;
+        sample.deltaMillis = delta;
+        mSamples.publish();
+    }
+
+    /**
+     * Shows the newest published pose, if there is one that has not been
+     * shown yet. Only call from the UI thread.
+     */
+    public void show() {
+        Sample sample = mSamples.acquire();
+        if (sample == null) {
+            return;
+        }
+        int length = formatVector(mTranslationText, sample.translation);
+        mTranslationTextView.setText(mTranslationText, 0, length);
+        length = formatVector(mQuatText, sample.rotation);
+        mQuatTextView.setText(mQuatText, 0, length);
+        if (sample.statusCode != mShownPoseStatus) {
+            mShownPoseStatus = sample.statusCode;
+            mPoseStatusTextView.setText(getPoseStatus(sample.statusCode));
+        }
+        length = appendInteger(mPoseCountText, 0, sample.count);
+        mPoseCountTextView.setText(mPoseCountText, 0, length);
+        length = appendFixed3(mPoseDeltaText, 0, sample.deltaMillis);
+        mPoseDeltaTextView.setText(mPoseDeltaText, 0, length);
+    }
+
+    private String getPoseStatus(int statusCode) {
+        switch (statusCode) {
+        case POSE_INITIALIZING:
+            return mInitializing;
+        case POSE_INVALID:
+            return mInvalid;
+        case POSE_VALID:
+            return mValid;
+        default:
+            return mUnknown;
+        }
+    }
+
+    /**
+     * Writes the vector as "[x,y,z] " with three decimals and returns the
+     * number of characters.
+     */
+    private static int formatVector(char[] out, double[] values) {
+        int position = 0;
+        out[position++] = '[';
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out[position++] = ',';
+            }
+            position = appendFixed3(out, position, values[i]);
+        }
+        out[position++] = ']';
+        out[position++] = ' ';
+        return position;
+    }
+
+    /**
+     * Writes the value rounded to three decimals, as DecimalFormat("0.000")
+     * would, and returns the position after it.
+     */
+    private static int appendFixed3(char[] out, int position, double value) {
+        long thousandths = roundThousandthsHalfEven(Math.abs(value));
+        if (value < 0) {
+            out[position++] = '-';
+        }
+        position = appendInteger(out, position, thousandths / 1000);
+        out[position++] = '.';
+        long fraction = thousandths % 1000;
+        out[position++] = (char) ('0' + fraction / 100);
+        out[position++] = (char) ('0' + fraction / 10 % 10);
+        out[position++] = (char) ('0' + fraction % 10);
+        return position;
+    }
+
+    /**
+     * Rounds value * 1000 to the nearest integer, ties to even, like
+     * DecimalFormat's default HALF_EVEN mode. DecimalFormat rounds the exact
+     * binary value of the double, so a product that only lands on .5 through
+     * the rounding of the multiplication is settled by its exact error term,
+     * computed with Dekker's split.
+     */
+    private static long roundThousandthsHalfEven(double value) {
+        double product = value * 1000;
+        double floor = Math.floor(product);
+        double fraction = product - floor;
+        if (fraction != 0.5) {
+            return (long) (fraction < 0.5 ? floor : floor + 1);
+        }
+        double split = 134217729.0 * value;
+        double high = split - (split - value);
+        double low = value - high;
+        double error = (high * 1000 - product) + low * 1000;
+        if (error > 0) {
+            return (long) floor + 1;
+        } else if (error < 0) {
+            return (long) floor;
+        }
+        return (long) (floor % 2 == 0 ? floor : floor + 1);
+    }
+
+    /**
+     * Writes the non-negative value in decimal and returns the position after
+     * it.
+     */
+    private static int appendInteger(char[] out, int position, long value) {
+        int start = position;
+        do {
+            out[position++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // Digits were written least significant first
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            char digit = out[i];
+            out[i] = out[j];
+            out[j] = digit;
+        }
+        return position;
+    }
+}
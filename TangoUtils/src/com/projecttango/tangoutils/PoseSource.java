@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+/**
+ * Answers pose queries as Tango#getPoseAtTime does. Listeners that look up
+ * poses take one of these instead of the Tango service, so that the same
+ * listener runs against the service on a device and against a
+ * {@link SessionPlayer} offline.
+ */
+public interface PoseSource {
+
+    /**
+     * Gets the pose of a coordinate frame pair at a timestamp.
+     *
+     * @param baseFrame
+     *            one of the TangoPoseData COORDINATE_FRAME_ constants.
+     * @param targetFrame
+     *            one of the TangoPoseData COORDINATE_FRAME_ constants.
+     * @param translationOut
+     *            receives x, y, z.
+     * @param rotationOut
+     *            receives quaternion x, y, z, w.
+     * @return false if there is no valid pose of the pair at the timestamp.
+     */
+    boolean getPoseAtTime(double timestamp, int baseFrame, int targetFrame,
+            double[] translationOut, float[] rotationOut);
+}
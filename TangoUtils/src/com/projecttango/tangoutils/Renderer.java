@@ -1,9 +1,10 @@
 package com.projecttango.tangoutils;
 
-import android.opengl.Matrix;
 import android.util.Log;
 import android.view.MotionEvent;
 
+import com.projecttango.tangoutils.math.Mat4;
+
 public class Renderer {
 
     protected static final int FIRST_PERSON = 0;
@@ -32,6 +33,15 @@ public class Renderer {
     private float mPreviousRotationY;
     private float mPreviousTouchX;
     private float mPreviousTouchY;
+
+    private FrameScheduler mFrameScheduler;
+    /** Newest pose from the pose callback, applied when a frame starts. */
+    private final Object mPendingPoseLock = new Object();
+    private final float[] mPendingTranslation = new float[3];
+    private final float[] mPendingRotation = new float[4];
+    private boolean mPosePending;
+    private final float[] mLatchedTranslation = new float[3];
+    private final float[] mLatchedRotation = new float[4];
     private float mTouch1X, mTouch2X, mTouch1Y, mTouch2Y, mTouchStartDistance,
             mTouchMoveDistance, mStartCameraRadius;
 
@@ -50,39 +60,88 @@ public class Renderer {
         mDevicePosition[2] = 0;
     }
 
+    /**
+     * Sets the scheduler whose frame metrics {@link #beginFrame()} updates.
+     */
+    public void setFrameScheduler(FrameScheduler frameScheduler) {
+        mFrameScheduler = frameScheduler;
+    }
+
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
+    /**
+     * Stores the newest device pose. Called from the pose callback thread at
+     * any rate; only copies seven floats, so it never waits on rendering.
+     * The pose is applied to the model and view matrices by the next
+     * {@link #beginFrame()}, and poses replaced before that are skipped.
+     * 
+     * @param translation
+     *            a three-element array of translation data.
+     * @param rotation
+     *            a four-element array of rotation data.
+     */
+    public void setDevicePose(float[] translation, float[] rotation) {
+        synchronized (mPendingPoseLock) {
+            System.arraycopy(translation, 0, mPendingTranslation, 0, 3);
+            System.arraycopy(rotation, 0, mPendingRotation, 0, 4);
+            mPosePending = true;
+        }
+    }
+
+    /**
+     * Starts a frame: records it with the frame scheduler, if any, and
+     * applies the newest pose passed to {@link #setDevicePose}. Call on the
+     * GL thread at the top of onDrawFrame. The model matrix calculator may
+     * be used for depth frames on another thread at the same time; see
+     * {@link ModelMatCalculator#computePointCloudModelMatrix}.
+     * 
+     * @return true if a new pose was applied.
+     */
+    protected boolean beginFrame() {
+        if (mFrameScheduler != null) {
+            mFrameScheduler.onFrameStart();
+        }
+        synchronized (mPendingPoseLock) {
+            if (!mPosePending) {
+                return false;
+            }
+            System.arraycopy(mPendingTranslation, 0, mLatchedTranslation, 0, 3);
+            System.arraycopy(mPendingRotation, 0, mLatchedRotation, 0, 4);
+            mPosePending = false;
+        }
+        mModelMatCalculator.updateModelMatrix(mLatchedTranslation,
+                mLatchedRotation);
+        updateViewMatrix();
+        return true;
+    }
+
     /**
      * Update the view matrix of the Renderer to follow the position of the
      * device in the current perspective.
      */
     public void updateViewMatrix() {
-        mDevicePosition = mModelMatCalculator.getTranslation();
+        mModelMatCalculator.getTranslation(mDevicePosition);
 
         switch (viewId) {
         case FIRST_PERSON:
-            float[] invertModelMat = new float[MATRIX_4X4];
-            Matrix.setIdentityM(invertModelMat, 0);
-
-            float[] temporaryMatrix = new float[MATRIX_4X4];
-            Matrix.setIdentityM(temporaryMatrix, 0);
-
-            Matrix.setIdentityM(mViewMatrix, 0);
-            Matrix.invertM(invertModelMat, 0,
+            // The model matrix is a rigid transform, so its inverse is the
+            // transposed rotation and a rotated, negated translation.
+            Mat4.invertRigidM(mViewMatrix, 0,
                     mModelMatCalculator.getModelMatrix(), 0);
-            Matrix.multiplyMM(temporaryMatrix, 0, mViewMatrix, 0,
-                    invertModelMat, 0);
-            System.arraycopy(temporaryMatrix, 0, mViewMatrix, 0, 16);
             break;
         case THIRD_PERSON:
 
-            Matrix.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
+            Mat4.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
                     + mCameraPosition[0], mCameraPosition[1]
                     + mDevicePosition[1], mCameraPosition[2]
                     + mDevicePosition[2], mDevicePosition[0],
                     mDevicePosition[1], mDevicePosition[2], 0f, 1f, 0f);
             break;
         case TOP_DOWN:
-            // Matrix.setIdentityM(mViewMatrix, 0);
-            Matrix.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
+            // Mat4.setIdentityM(mViewMatrix, 0);
+            Mat4.setLookAtM(mViewMatrix, 0, mDevicePosition[0]
                     + mCameraPosition[0], mCameraPosition[1],
                     mCameraPosition[2] + mDevicePosition[2], mDevicePosition[0]
                             + mCameraPosition[0], mCameraPosition[1] - 5,
@@ -250,7 +309,7 @@ public class Renderer {
 
     public void setFirstPersonView() {
         viewId = FIRST_PERSON;
-        Matrix.perspectiveM(mProjectionMatrix, 0, CAMERA_FOV, mCameraAspect,
+        Mat4.perspectiveM(mProjectionMatrix, 0, CAMERA_FOV, mCameraAspect,
                 CAMERA_NEAR, CAMERA_FAR);
     }
 
@@ -261,7 +320,7 @@ public class Renderer {
         mCameraPosition[2] = 5;
         mRotationX = mRotationY = (float) (Math.PI / 4);
         mCameraOrbitRadius = 5.0f;
-        Matrix.perspectiveM(mProjectionMatrix, 0, THIRD_PERSON_FOV,
+        Mat4.perspectiveM(mProjectionMatrix, 0, THIRD_PERSON_FOV,
                 mCameraAspect, CAMERA_NEAR, CAMERA_FAR);
     }
 
@@ -270,7 +329,7 @@ public class Renderer {
         mCameraPosition[0] = 0;
         mCameraPosition[1] = 5;
         mCameraPosition[2] = 0;
-        Matrix.perspectiveM(mProjectionMatrix, 0, TOPDOWN_FOV, mCameraAspect,
+        Mat4.perspectiveM(mProjectionMatrix, 0, TOPDOWN_FOV, mCameraAspect,
                 CAMERA_NEAR, CAMERA_FAR);
     }
 
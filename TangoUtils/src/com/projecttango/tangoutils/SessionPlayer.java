@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * Replays a session log read by a {@link SessionReader} to a {@link Listener}, without a device
+ * or the Tango service, so that the code that handles Tango data can be exercised and timed
+ * offline. Records are delivered in the order they were recorded, on the thread that calls
+ * {@link #play()}, either at the recorded pace scaled by a speed factor or as fast as the
+ * listener takes them.
+ *
+ * Poses replayed so far are kept per coordinate frame pair, so that the player can stand in
+ * for the service as the {@link PoseSource} of the listener.
+ */
+public class SessionPlayer implements PoseSource {
+
+    /** Speed that delivers records as fast as the listener takes them. */
+    public static final double SPEED_UNLIMITED = 0;
+    /** Status code of a valid pose, as TangoPoseData.POSE_VALID. */
+    public static final int POSE_VALID = 1;
+    private static final int MAX_FRAME_PAIRS = 8;
+
+    /** Receives the replayed records. */
+    public interface Listener {
+        /**
+         * Called for each pose. The event is reused for the next pose.
+         */
+        void onPose(PoseEvent pose);
+
+        /**
+         * Called for each depth frame.
+         *
+         * @param points
+         *            packed xyz floats from index 0, only valid during the call.
+         */
+        void onXyzIj(double timestamp, FloatBuffer points, int pointCount);
+    }
+
+    private final SessionReader mReader;
+    private Listener mListener;
+    private final PoseEvent mPose = new PoseEvent();
+    private double mSpeed = 1;
+    private volatile boolean mStopped;
+
+    private final int[] mHistoryKeys = new int[MAX_FRAME_PAIRS];
+    private final PoseHistory[] mHistories = new PoseHistory[MAX_FRAME_PAIRS];
+    private int mHistoryCount;
+
+    private long mPoseCount;
+    private long mXyzIjCount;
+    private long mPointCount;
+    private long mElapsedNanos;
+
+    /**
+     * Creates a player whose listener is set later with {@link #setListener(Listener)}, typically
+     * a listener that takes this player as its {@link PoseSource}.
+     */
+    public SessionPlayer(SessionReader reader) {
+        mReader = reader;
+    }
+
+    public SessionPlayer(SessionReader reader, Listener listener) {
+        mReader = reader;
+        mListener = listener;
+    }
+
+    /** Sets the listener; call before {@link #play()}. */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the replay speed; call before {@link #play()}.
+     *
+     * @param speed
+     *            1 for the recorded pace, 2 for twice as fast and so on, or
+     *            {@link #SPEED_UNLIMITED}.
+     */
+    public void setSpeed(double speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Replays the log from the reader's current position until it ends or {@link #stop()} is
+     * called.
+     */
+    public void play() throws IOException {
+        mStopped = false;
+        long startNanos = System.nanoTime();
+        double startTimestamp = Double.NaN;
+        int type;
+        while (!mStopped && (type = mReader.next()) != -1) {
+            double timestamp = mReader.getTimestamp();
+            if (Double.isNaN(startTimestamp)) {
+                startTimestamp = timestamp;
+            }
+            waitUntil(startNanos, timestamp - startTimestamp);
+            if (type == SessionRecorder.TYPE_POSE) {
+                mReader.readPose(mPose);
+                mPose.sequence = mPoseCount++;
+                updateHistory(mPose);
+                mListener.onPose(mPose);
+            } else {
+                int pointCount = mReader.getPointCount();
+                mXyzIjCount++;
+                mPointCount += pointCount;
+                mListener.onXyzIj(timestamp, mReader.getPoints(), pointCount);
+            }
+        }
+        mElapsedNanos += System.nanoTime() - startNanos;
+    }
+
+    /** Makes {@link #play()} return after the record being delivered. */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /** Sleeps until a time into the session, scaled by the speed, has passed since the start. */
+    private void waitUntil(long startNanos, double sessionSeconds) {
+        if (mSpeed <= 0) {
+            return;
+        }
+        long due = startNanos + (long) (sessionSeconds / mSpeed * 1e9);
+        long wait;
+        while (!mStopped && (wait = due - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mStopped = true;
+            }
+        }
+    }
+
+    /**
+     * Keeps valid poses of each frame pair for the pose query, and forgets them when tracking is
+     * lost, as a service query would fail then.
+     */
+    private void updateHistory(PoseEvent pose) {
+        PoseHistory history = getHistory(pose.baseFrame, pose.targetFrame, true);
+        if (history == null) {
+            return;
+        }
+        if (pose.statusCode == POSE_VALID) {
+            history.add(pose.timestamp, pose.translation, pose.rotation);
+        } else {
+            history.clear();
+        }
+    }
+
+    private PoseHistory getHistory(int baseFrame, int targetFrame, boolean create) {
+        int key = (baseFrame << 16) | targetFrame;
+        for (int i = 0; i < mHistoryCount; i++) {
+            if (mHistoryKeys[i] == key) {
+                return mHistories[i];
+            }
+        }
+        if (!create || mHistoryCount == MAX_FRAME_PAIRS) {
+            return null;
+        }
+        mHistoryKeys[mHistoryCount] = key;
+        mHistories[mHistoryCount] = new PoseHistory();
+        return mHistories[mHistoryCount++];
+    }
+
+    /**
+     * Interpolates the pose of a frame pair at a timestamp from the poses replayed so far,
+     * standing in for the service's pose query. Call from the thread that runs {@link #play()}.
+     *
+     * @return false if no valid pose of the pair brackets the timestamp closely enough.
+     */
+    @Override
+    public boolean getPoseAtTime(double timestamp, int baseFrame, int targetFrame,
+            double[] translationOut, float[] rotationOut) {
+        PoseHistory history = getHistory(baseFrame, targetFrame, false);
+        return history != null && history.getPoseAtTime(timestamp, translationOut, rotationOut);
+    }
+
+    /** Returns the number of poses replayed. */
+    public long getPoseCount() {
+        return mPoseCount;
+    }
+
+    /** Returns the number of depth frames replayed. */
+    public long getXyzIjCount() {
+        return mXyzIjCount;
+    }
+
+    /** Returns the number of depth points replayed. */
+    public long getPointCount() {
+        return mPointCount;
+    }
+
+    /** Returns the time spent in {@link #play()}, including the listener's time. */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a session log written by {@link SessionRecorder}, one record at a time, through a large
+ * direct buffer. The timestamp index at the end of the log allows {@link #seek(double)}; a log
+ * whose recording was cut short has no index and is read up to its last complete record.
+ *
+ * Usage: call {@link #next()} until it returns -1, and read each record with
+ * {@link #getTimestamp()} and either {@link #readPose(PoseEvent)} or {@link #getPoints()}.
+ */
+public class SessionReader {
+
+    private static final int BUFFER_BYTES = 1 << 21;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    /** File offset of the byte after the last one read into the buffer. */
+    private long mReadOffset;
+    /** File offset where the records end. */
+    private final long mEnd;
+    private double[] mIndexTimestamps = new double[0];
+    private long[] mIndexOffsets = new long[0];
+
+    // Current record
+    private int mType = -1;
+    private double mTimestamp;
+    private int mPointCount;
+    /** Buffer positions of the current record's pose fields or points. */
+    private int mPoseOffset;
+    private int mPointsOffset;
+    private FloatBuffer mPoints;
+
+    /**
+     * Opens a log and reads its index.
+     *
+     * @throws IOException
+     *             if the channel does not hold a session log of a known version.
+     */
+    public SessionReader(FileChannel channel) throws IOException {
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long size = channel.size();
+        ByteBuffer header = readAt(0, SessionRecorder.HEADER_BYTES);
+        if (header == null || header.getInt(0) != SessionRecorder.MAGIC) {
+            throw new IOException("Not a session log");
+        }
+        if (header.getInt(4) != SessionRecorder.VERSION) {
+            throw new IOException("Unknown session log version: " + header.getInt(4));
+        }
+        mEnd = readIndex(size);
+        mReadOffset = SessionRecorder.HEADER_BYTES;
+        mBuffer.limit(0);
+    }
+
+    /**
+     * Reads the index through the trailer, if there is one.
+     *
+     * @return the file offset where the records end.
+     */
+    private long readIndex(long size) throws IOException {
+        long trailerOffset = size - SessionRecorder.TRAILER_BYTES;
+        if (trailerOffset < SessionRecorder.HEADER_BYTES) {
+            return size;
+        }
+        ByteBuffer trailer = readAt(trailerOffset, SessionRecorder.TRAILER_BYTES);
+        if (trailer.getInt(12) != SessionRecorder.TRAILER_MAGIC) {
+            return size;
+        }
+        long indexOffset = trailer.getLong(0);
+        int count = trailer.getInt(8);
+        long indexBytes = (long) count * SessionRecorder.INDEX_ENTRY_BYTES;
+        if (indexOffset < SessionRecorder.HEADER_BYTES
+                || indexOffset + SessionRecorder.RECORD_HEADER_BYTES + indexBytes
+                        != trailerOffset) {
+            throw new IOException("Corrupt session log index");
+        }
+        ByteBuffer index = readAt(indexOffset + SessionRecorder.RECORD_HEADER_BYTES,
+                (int) indexBytes);
+        mIndexTimestamps = new double[count];
+        mIndexOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            mIndexTimestamps[i] = index.getDouble();
+            mIndexOffsets[i] = index.getLong();
+        }
+        return indexOffset;
+    }
+
+    /** Reads byteCount bytes at a file offset, or returns null if the file is shorter. */
+    private ByteBuffer readAt(long offset, int byteCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(byteCount).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, offset + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Moves to the first record at or after the last index entry not later than the timestamp,
+     * so that the records of a stream up to the timestamp are skipped. Records of the other
+     * stream may start slightly earlier. Moves to the start if the log has no index.
+     */
+    public void seek(double timestamp) {
+        int low = 0;
+        int high = mIndexTimestamps.length - 1;
+        long offset = SessionRecorder.HEADER_BYTES;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (mIndexTimestamps[middle] <= timestamp) {
+                offset = mIndexOffsets[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        mReadOffset = offset;
+        mBuffer.clear();
+        mBuffer.limit(0);
+        mType = -1;
+    }
+
+    /**
+     * Advances to the next record. Invalidates the points of the current one.
+     *
+     * @return {@link SessionRecorder#TYPE_POSE}, {@link SessionRecorder#TYPE_XYZ_IJ}, or -1 at
+     *         the end of the log.
+     */
+    public int next() throws IOException {
+        mPoints = null;
+        while (true) {
+            long recordOffset = mReadOffset - mBuffer.remaining();
+            if (recordOffset + SessionRecorder.RECORD_HEADER_BYTES > mEnd
+                    || !fill(SessionRecorder.RECORD_HEADER_BYTES)) {
+                return mType = -1;
+            }
+            int type = mBuffer.getInt(mBuffer.position());
+            int length = mBuffer.getInt(mBuffer.position() + 4);
+            if (length < 0 || length > BUFFER_BYTES - SessionRecorder.RECORD_HEADER_BYTES) {
+                throw new IOException("Corrupt session log record at " + recordOffset);
+            }
+            int recordBytes = SessionRecorder.RECORD_HEADER_BYTES + length;
+            // A record cut short by an interrupted recording ends the log
+            if (recordOffset + recordBytes > mEnd || !fill(recordBytes)) {
+                return mType = -1;
+            }
+            int payload = mBuffer.position() + SessionRecorder.RECORD_HEADER_BYTES;
+            mBuffer.position(mBuffer.position() + recordBytes);
+            if (type == SessionRecorder.TYPE_POSE) {
+                mTimestamp = mBuffer.getDouble(payload);
+                mPoseOffset = payload;
+                return mType = type;
+            }
+            if (type == SessionRecorder.TYPE_XYZ_IJ) {
+                mTimestamp = mBuffer.getDouble(payload);
+                mPointCount = mBuffer.getInt(payload + 8);
+                mPointsOffset = payload + SessionRecorder.XYZ_IJ_HEADER_BYTES;
+                return mType = type;
+            }
+            // Skip record types this reader does not know
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least byteCount bytes from its position, reading more of
+     * the file if needed.
+     *
+     * @return false if the file ends first.
+     */
+    private boolean fill(int byteCount) throws IOException {
+        if (mBuffer.remaining() >= byteCount) {
+            return true;
+        }
+        mBuffer.compact();
+        while (mBuffer.position() < byteCount) {
+            int read = mChannel.read(mBuffer, mReadOffset);
+            if (read < 0) {
+                break;
+            }
+            mReadOffset += read;
+        }
+        mBuffer.flip();
+        return mBuffer.remaining() >= byteCount;
+    }
+
+    /** Returns the timestamp in seconds of the current record. */
+    public double getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Copies the current record, which must be a pose, into out. Its sequence is left as is.
+     */
+    public void readPose(PoseEvent out) {
+        if (mType != SessionRecorder.TYPE_POSE) {
+            throw new IllegalStateException("Current record is not a pose");
+        }
+        int offset = mPoseOffset;
+        out.timestamp = mBuffer.getDouble(offset);
+        out.baseFrame = mBuffer.getInt(offset + 8);
+        out.targetFrame = mBuffer.getInt(offset + 12);
+        out.statusCode = mBuffer.getInt(offset + 16);
+        offset += 20;
+        for (int i = 0; i < 3; i++, offset += 8) {
+            out.translation[i] = mBuffer.getDouble(offset);
+        }
+        for (int i = 0; i < 4; i++, offset += 8) {
+            out.rotation[i] = mBuffer.getDouble(offset);
+        }
+    }
+
+    /** Returns the number of points of the current record, which must be a depth frame. */
+    public int getPointCount() {
+        if (mType != SessionRecorder.TYPE_XYZ_IJ) {
+            throw new IllegalStateException("Current record is not a depth frame");
+        }
+        return mPointCount;
+    }
+
+    /**
+     * Returns the packed xyz points of the current record, which must be a depth frame, from
+     * index 0. The buffer is a view of the reader's buffer and is only valid until the next call
+     * to {@link #next()} or {@link #seek(double)}.
+     */
+    public FloatBuffer getPoints() {
+        int pointCount = getPointCount();
+        if (mPoints == null) {
+            ByteBuffer bytes = mBuffer.duplicate();
+            bytes.limit(mPointsOffset + pointCount * 3 * 4);
+            bytes.position(mPointsOffset);
+            mPoints = bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        return mPoints;
+    }
+
+    /** Returns the number of entries in the timestamp index, 0 if the log has none. */
+    public int getIndexSize() {
+        return mIndexTimestamps.length;
+    }
+}
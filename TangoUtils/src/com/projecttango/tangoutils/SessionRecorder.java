@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.projecttango.tangoutils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the poses and depth frames of a Tango session to an append-only binary log for later
+ * analysis or replay. Records are copied into large direct buffers on the calling thread, which
+ * never touches the file; full buffers are written to the {@link FileChannel} by a background
+ * writer thread, so a slow write does not delay the Tango callbacks.
+ *
+ * The log is little-endian:
+ * <ul>
+ * <li>a header: int {@link #MAGIC}, int {@link #VERSION};</li>
+ * <li>records, each an int type and an int payload length in bytes followed by the payload:
+ * <ul>
+ * <li>{@link #TYPE_POSE}: double timestamp, int base frame, int target frame, int status code,
+ * double[3] translation, double[4] rotation;</li>
+ * <li>{@link #TYPE_XYZ_IJ}: double timestamp, int point count, float[3 * count] xyz points in
+ * the depth camera frame;</li>
+ * </ul>
+ * </li>
+ * <li>on {@link #close()}, a {@link #TYPE_INDEX} record of (double timestamp, long file offset)
+ * entries, at most one per {@link #INDEX_SPACING} seconds, pointing at records;</li>
+ * <li>a trailer: long offset of the index record, int entry count, int {@link #TRAILER_MAGIC}.</li>
+ * </ul>
+ * Poses and depth frames arrive on separate streams, so record timestamps are only roughly
+ * increasing; index timestamps are strictly increasing.
+ *
+ * The recording methods may be called from several threads. If every buffer is waiting to be
+ * written, records are dropped and counted rather than blocking the caller; at the Tango data
+ * rates the buffers hold several seconds of data.
+ */
+public class SessionRecorder {
+
+    public static final int MAGIC = 0x31525354; // "TSR1"
+    public static final int VERSION = 1;
+    public static final int TRAILER_MAGIC = 0x58525354; // "TSRX"
+
+    public static final int TYPE_POSE = 1;
+    public static final int TYPE_XYZ_IJ = 2;
+    public static final int TYPE_INDEX = 3;
+
+    public static final int HEADER_BYTES = 8;
+    public static final int RECORD_HEADER_BYTES = 8;
+    public static final int POSE_PAYLOAD_BYTES = 8 + 3 * 4 + 7 * 8;
+    /** Payload bytes of a depth frame before its points. */
+    public static final int XYZ_IJ_HEADER_BYTES = 8 + 4;
+    public static final int INDEX_ENTRY_BYTES = 8 + 8;
+    public static final int TRAILER_BYTES = 8 + 4 + 4;
+
+    /** Smallest time in seconds between two index entries. */
+    public static final double INDEX_SPACING = 0.1;
+
+    private static final int BUFFER_BYTES = 1 << 21;
+    private static final int BUFFER_COUNT = 8;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    /** Tells the writer thread to stop. */
+    private static final ByteBuffer END_OF_LOG = ByteBuffer.allocate(0);
+
+    private final FileChannel mChannel;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers =
+            new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+    private final BlockingQueue<ByteBuffer> mFullBuffers =
+            new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT + 1);
+    private final Thread mWriterThread;
+    private volatile IOException mError;
+
+    // Guarded by this
+    private ByteBuffer mBuffer;
+    /** File offset of the next record. */
+    private long mOffset;
+    private double[] mIndexTimestamps = new double[INITIAL_INDEX_CAPACITY];
+    private long[] mIndexOffsets = new long[INITIAL_INDEX_CAPACITY];
+    private int mIndexCount;
+    private double mNextIndexTimestamp = Double.NEGATIVE_INFINITY;
+    private long mRecordCount;
+    private long mDroppedCount;
+    private boolean mClosed;
+
+    /**
+     * Starts a log at the current position of the channel, which should be at the start of an
+     * empty file, and starts the writer thread.
+     */
+    public SessionRecorder(FileChannel channel) {
+        mChannel = channel;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeBuffers.add(ByteBuffer.allocateDirect(BUFFER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+        mBuffer = mFreeBuffers.poll();
+        mBuffer.putInt(MAGIC);
+        mBuffer.putInt(VERSION);
+        mOffset = HEADER_BYTES;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBuffers();
+            }
+        }, SessionRecorder.class.getSimpleName());
+        mWriterThread.start();
+    }
+
+    /**
+     * Records a pose.
+     *
+     * @param translation
+     *            at least 3 elements, x, y, z.
+     * @param rotation
+     *            at least 4 elements, quaternion x, y, z, w.
+     * @return false if the pose was dropped.
+     */
+    public synchronized boolean recordPose(double timestamp, int baseFrame, int targetFrame,
+            int statusCode, double[] translation, double[] rotation) {
+        ByteBuffer buffer = beginRecord(TYPE_POSE, POSE_PAYLOAD_BYTES, timestamp);
+        if (buffer == null) {
+            return false;
+        }
+        buffer.putDouble(timestamp);
+        buffer.putInt(baseFrame);
+        buffer.putInt(targetFrame);
+        buffer.putInt(statusCode);
+        for (int i = 0; i < 3; i++) {
+            buffer.putDouble(translation[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            buffer.putDouble(rotation[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Records the points of a depth frame.
+     *
+     * @param points
+     *            packed xyz floats, read from index 0. Its position and limit are left untouched.
+     * @param pointCount
+     *            number of points to record.
+     * @return false if the frame was dropped.
+     */
+    public synchronized boolean recordXyzIj(double timestamp, FloatBuffer points,
+            int pointCount) {
+        int floatCount = pointCount * 3;
+        ByteBuffer buffer = beginRecord(TYPE_XYZ_IJ, XYZ_IJ_HEADER_BYTES + floatCount * 4,
+                timestamp);
+        if (buffer == null) {
+            return false;
+        }
+        buffer.putDouble(timestamp);
+        buffer.putInt(pointCount);
+        // Bulk copy through a float view of the record's bytes
+        FloatBuffer source = points.duplicate();
+        source.position(0);
+        source.limit(floatCount);
+        buffer.asFloatBuffer().put(source);
+        buffer.position(buffer.position() + floatCount * 4);
+        return true;
+    }
+
+    /**
+     * Reserves room for a record in the current buffer, writes its header and indexes it.
+     *
+     * @return the buffer to write the payload to, or null if the record is dropped.
+     */
+    private ByteBuffer beginRecord(int type, int payloadBytes, double timestamp) {
+        int recordBytes = RECORD_HEADER_BYTES + payloadBytes;
+        if (mClosed || mError != null || recordBytes > BUFFER_BYTES) {
+            mDroppedCount++;
+            return null;
+        }
+        if (mBuffer != null && mBuffer.remaining() < recordBytes) {
+            mBuffer.flip();
+            mFullBuffers.add(mBuffer);
+            mBuffer = null;
+        }
+        if (mBuffer == null) {
+            mBuffer = mFreeBuffers.poll();
+            if (mBuffer == null) {
+                mDroppedCount++;
+                return null;
+            }
+        }
+        if (timestamp >= mNextIndexTimestamp) {
+            addIndexEntry(timestamp, mOffset);
+            mNextIndexTimestamp = timestamp + INDEX_SPACING;
+        }
+        mBuffer.putInt(type);
+        mBuffer.putInt(payloadBytes);
+        mOffset += recordBytes;
+        mRecordCount++;
+        return mBuffer;
+    }
+
+    private void addIndexEntry(double timestamp, long offset) {
+        if (mIndexCount == mIndexOffsets.length) {
+            mIndexTimestamps = Arrays.copyOf(mIndexTimestamps, mIndexCount * 2);
+            mIndexOffsets = Arrays.copyOf(mIndexOffsets, mIndexCount * 2);
+        }
+        mIndexTimestamps[mIndexCount] = timestamp;
+        mIndexOffsets[mIndexCount] = offset;
+        mIndexCount++;
+    }
+
+    /** Body of the writer thread. */
+    private void writeBuffers() {
+        while (true) {
+            ByteBuffer buffer;
+            try {
+                buffer = mFullBuffers.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (buffer == END_OF_LOG) {
+                return;
+            }
+            try {
+                if (mError == null) {
+                    writeFully(buffer);
+                }
+            } catch (IOException e) {
+                mError = e;
+            }
+            buffer.clear();
+            mFreeBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * Writes the remaining records, the index and the trailer, and stops the writer thread. Later
+     * records are dropped. Blocks until everything is written; does not close or force the
+     * channel.
+     *
+     * @throws IOException
+     *             if a write failed, now or on the writer thread.
+     */
+    public void close() throws IOException {
+        long indexOffset;
+        double[] indexTimestamps;
+        long[] indexOffsets;
+        int indexCount;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mBuffer != null) {
+                mBuffer.flip();
+                mFullBuffers.add(mBuffer);
+                mBuffer = null;
+            }
+            mFullBuffers.add(END_OF_LOG);
+            indexOffset = mOffset;
+            indexTimestamps = mIndexTimestamps;
+            indexOffsets = mIndexOffsets;
+            indexCount = mIndexCount;
+        }
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the session log");
+        }
+        if (mError != null) {
+            throw mError;
+        }
+
+        // The writer thread is done, so its buffers are free to write the index with
+        ByteBuffer buffer = mFreeBuffers.poll();
+        buffer.putInt(TYPE_INDEX);
+        buffer.putInt(indexCount * INDEX_ENTRY_BYTES);
+        for (int i = 0; i < indexCount; i++) {
+            if (buffer.remaining() < INDEX_ENTRY_BYTES) {
+                buffer.flip();
+                writeFully(buffer);
+                buffer.clear();
+            }
+            buffer.putDouble(indexTimestamps[i]);
+            buffer.putLong(indexOffsets[i]);
+        }
+        if (buffer.remaining() < TRAILER_BYTES) {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+        buffer.putLong(indexOffset);
+        buffer.putInt(indexCount);
+        buffer.putInt(TRAILER_MAGIC);
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+        mFreeBuffers.add(buffer);
+    }
+
+    /** Returns the number of records accepted so far. */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /** Returns the number of records dropped so far. */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** Returns the size in bytes of the log so far, not counting the index and trailer. */
+    public synchronized long getByteCount() {
+        return mOffset;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
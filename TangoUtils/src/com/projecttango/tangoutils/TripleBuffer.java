@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer handing the latest complete value from one producer
+ * thread to one consumer thread. The producer fills {@link #getBack()} and
+ * calls {@link #publish()}; the consumer calls {@link #acquire()} to take the
+ * most recently published slot. Neither side ever waits for the other, and a
+ * slot is never written while the consumer holds it.
+ *
+ * @param <T>
+ *            slot type. Slots are pre-allocated and reused, never copied.
+ */
+public class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Object[] mSlots;
+    /** Index of the shared middle slot, plus FRESH if it holds unread data. */
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    /** Slot owned by the producer. */
+    private int mBack = 0;
+    /** Slot owned by the consumer. */
+    private int mFront = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        mSlots = new Object[] { first, second, third };
+    }
+
+    /**
+     * Returns the slot the producer may fill. Only call from the producer
+     * thread.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Publishes the back slot to the consumer. Only call from the producer
+     * thread.
+     *
+     * @return true if the previously published slot was never acquired, i.e.
+     *         it has now been superseded.
+     */
+    public boolean publish() {
+        int previous = mMiddle.getAndSet(mBack | FRESH);
+        mBack = previous & INDEX_MASK;
+        return (previous & FRESH) != 0;
+    }
+
+    /**
+     * Takes the most recently published slot. Only call from the consumer
+     * thread. The returned slot stays valid until the next call.
+     *
+     * @return the latest published slot, or null if nothing was published
+     *         since the last call.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return null;
+        }
+        int previous = mMiddle.getAndSet(mFront);
+        mFront = previous & INDEX_MASK;
+        return (T) mSlots[mFront];
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+/**
+ * Column-major 4x4 matrix operations on float arrays, written in plain Java
+ * so that tangoutils math runs on a desktop JVM as well as on a device.
+ * Methods mirror the names, signatures and arithmetic of android.opengl.Matrix
+ * (same operation order, all in float) so results are bit-compatible with it.
+ *
+ * Rigid-transform variants assume rotation plus translation with a bottom row
+ * of (0, 0, 0, 1) and skip the work that implies.
+ */
+public final class Mat4 {
+
+    private Mat4() {
+    }
+
+    public static void setIdentityM(float[] m, int mOffset) {
+        for (int i = 0; i < 16; i++) {
+            m[mOffset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            m[mOffset + i] = 1.0f;
+        }
+    }
+
+    /**
+     * Computes result = lhs * rhs. The result may share storage with either
+     * operand.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs,
+            int lhsOffset, float[] rhs, int rhsOffset) {
+        final float l0 = lhs[lhsOffset], l1 = lhs[lhsOffset + 1];
+        final float l2 = lhs[lhsOffset + 2], l3 = lhs[lhsOffset + 3];
+        final float l4 = lhs[lhsOffset + 4], l5 = lhs[lhsOffset + 5];
+        final float l6 = lhs[lhsOffset + 6], l7 = lhs[lhsOffset + 7];
+        final float l8 = lhs[lhsOffset + 8], l9 = lhs[lhsOffset + 9];
+        final float l10 = lhs[lhsOffset + 10], l11 = lhs[lhsOffset + 11];
+        final float l12 = lhs[lhsOffset + 12], l13 = lhs[lhsOffset + 13];
+        final float l14 = lhs[lhsOffset + 14], l15 = lhs[lhsOffset + 15];
+        for (int i = 0; i < 16; i += 4) {
+            final float r0 = rhs[rhsOffset + i];
+            final float r1 = rhs[rhsOffset + i + 1];
+            final float r2 = rhs[rhsOffset + i + 2];
+            final float r3 = rhs[rhsOffset + i + 3];
+            // Accumulate in the same order as the platform implementation.
+            float c0 = l0 * r0;
+            float c1 = l1 * r0;
+            float c2 = l2 * r0;
+            float c3 = l3 * r0;
+            c0 += l4 * r1;
+            c1 += l5 * r1;
+            c2 += l6 * r1;
+            c3 += l7 * r1;
+            c0 += l8 * r2;
+            c1 += l9 * r2;
+            c2 += l10 * r2;
+            c3 += l11 * r2;
+            c0 += l12 * r3;
+            c1 += l13 * r3;
+            c2 += l14 * r3;
+            c3 += l15 * r3;
+            result[resultOffset + i] = c0;
+            result[resultOffset + i + 1] = c1;
+            result[resultOffset + i + 2] = c2;
+            result[resultOffset + i + 3] = c3;
+        }
+    }
+
+    /**
+     * Computes resultVec = lhsMat * rhsVec for a 4-element vector.
+     */
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat,
+            int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        final float x = rhsVec[rhsVecOffset];
+        final float y = rhsVec[rhsVecOffset + 1];
+        final float z = rhsVec[rhsVecOffset + 2];
+        final float w = rhsVec[rhsVecOffset + 3];
+        for (int i = 0; i < 4; i++) {
+            int m = lhsMatOffset + i;
+            resultVec[resultVecOffset + i] = lhsMat[m] * x + lhsMat[m + 4] * y
+                    + lhsMat[m + 8] * z + lhsMat[m + 12] * w;
+        }
+    }
+
+    /**
+     * Inverts a general 4x4 matrix with Cramer's rule.
+     *
+     * @return false, leaving mInv untouched, if the matrix is singular.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        // Transpose the source.
+        final float src0 = m[mOffset];
+        final float src4 = m[mOffset + 1];
+        final float src8 = m[mOffset + 2];
+        final float src12 = m[mOffset + 3];
+        final float src1 = m[mOffset + 4];
+        final float src5 = m[mOffset + 5];
+        final float src9 = m[mOffset + 6];
+        final float src13 = m[mOffset + 7];
+        final float src2 = m[mOffset + 8];
+        final float src6 = m[mOffset + 9];
+        final float src10 = m[mOffset + 10];
+        final float src14 = m[mOffset + 11];
+        final float src3 = m[mOffset + 12];
+        final float src7 = m[mOffset + 13];
+        final float src11 = m[mOffset + 14];
+        final float src15 = m[mOffset + 15];
+
+        // Pairs for the first 8 cofactors.
+        final float atmp0 = src10 * src15;
+        final float atmp1 = src11 * src14;
+        final float atmp2 = src9 * src15;
+        final float atmp3 = src11 * src13;
+        final float atmp4 = src9 * src14;
+        final float atmp5 = src10 * src13;
+        final float atmp6 = src8 * src15;
+        final float atmp7 = src11 * src12;
+        final float atmp8 = src8 * src14;
+        final float atmp9 = src10 * src12;
+        final float atmp10 = src8 * src13;
+        final float atmp11 = src9 * src12;
+
+        final float dst0 = (atmp0 * src5 + atmp3 * src6 + atmp4 * src7)
+                - (atmp1 * src5 + atmp2 * src6 + atmp5 * src7);
+        final float dst1 = (atmp1 * src4 + atmp6 * src6 + atmp9 * src7)
+                - (atmp0 * src4 + atmp7 * src6 + atmp8 * src7);
+        final float dst2 = (atmp2 * src4 + atmp7 * src5 + atmp10 * src7)
+                - (atmp3 * src4 + atmp6 * src5 + atmp11 * src7);
+        final float dst3 = (atmp5 * src4 + atmp8 * src5 + atmp11 * src6)
+                - (atmp4 * src4 + atmp9 * src5 + atmp10 * src6);
+        final float dst4 = (atmp1 * src1 + atmp2 * src2 + atmp5 * src3)
+                - (atmp0 * src1 + atmp3 * src2 + atmp4 * src3);
+        final float dst5 = (atmp0 * src0 + atmp7 * src2 + atmp8 * src3)
+                - (atmp1 * src0 + atmp6 * src2 + atmp9 * src3);
+        final float dst6 = (atmp3 * src0 + atmp6 * src1 + atmp11 * src3)
+                - (atmp2 * src0 + atmp7 * src1 + atmp10 * src3);
+        final float dst7 = (atmp4 * src0 + atmp9 * src1 + atmp10 * src2)
+                - (atmp5 * src0 + atmp8 * src1 + atmp11 * src2);
+
+        // Pairs for the second 8 cofactors.
+        final float btmp0 = src2 * src7;
+        final float btmp1 = src3 * src6;
+        final float btmp2 = src1 * src7;
+        final float btmp3 = src3 * src5;
+        final float btmp4 = src1 * src6;
+        final float btmp5 = src2 * src5;
+        final float btmp6 = src0 * src7;
+        final float btmp7 = src3 * src4;
+        final float btmp8 = src0 * src6;
+        final float btmp9 = src2 * src4;
+        final float btmp10 = src0 * src5;
+        final float btmp11 = src1 * src4;
+
+        final float dst8 = (btmp0 * src13 + btmp3 * src14 + btmp4 * src15)
+                - (btmp1 * src13 + btmp2 * src14 + btmp5 * src15);
+        final float dst9 = (btmp1 * src12 + btmp6 * src14 + btmp9 * src15)
+                - (btmp0 * src12 + btmp7 * src14 + btmp8 * src15);
+        final float dst10 = (btmp2 * src12 + btmp7 * src13 + btmp10 * src15)
+                - (btmp3 * src12 + btmp6 * src13 + btmp11 * src15);
+        final float dst11 = (btmp5 * src12 + btmp8 * src13 + btmp11 * src14)
+                - (btmp4 * src12 + btmp9 * src13 + btmp10 * src14);
+        final float dst12 = (btmp2 * src10 + btmp5 * src11 + btmp1 * src9)
+                - (btmp4 * src11 + btmp0 * src9 + btmp3 * src10);
+        final float dst13 = (btmp8 * src11 + btmp0 * src8 + btmp7 * src10)
+                - (btmp6 * src10 + btmp9 * src11 + btmp1 * src8);
+        final float dst14 = (btmp6 * src9 + btmp11 * src11 + btmp3 * src8)
+                - (btmp10 * src11 + btmp2 * src8 + btmp7 * src9);
+        final float dst15 = (btmp10 * src10 + btmp4 * src8 + btmp9 * src9)
+                - (btmp8 * src9 + btmp11 * src10 + btmp5 * src8);
+
+        final float det = src0 * dst0 + src1 * dst1 + src2 * dst2 + src3 * dst3;
+        if (det == 0.0f) {
+            return false;
+        }
+        final float invdet = 1.0f / det;
+        mInv[mInvOffset] = dst0 * invdet;
+        mInv[mInvOffset + 1] = dst1 * invdet;
+        mInv[mInvOffset + 2] = dst2 * invdet;
+        mInv[mInvOffset + 3] = dst3 * invdet;
+        mInv[mInvOffset + 4] = dst4 * invdet;
+        mInv[mInvOffset + 5] = dst5 * invdet;
+        mInv[mInvOffset + 6] = dst6 * invdet;
+        mInv[mInvOffset + 7] = dst7 * invdet;
+        mInv[mInvOffset + 8] = dst8 * invdet;
+        mInv[mInvOffset + 9] = dst9 * invdet;
+        mInv[mInvOffset + 10] = dst10 * invdet;
+        mInv[mInvOffset + 11] = dst11 * invdet;
+        mInv[mInvOffset + 12] = dst12 * invdet;
+        mInv[mInvOffset + 13] = dst13 * invdet;
+        mInv[mInvOffset + 14] = dst14 * invdet;
+        mInv[mInvOffset + 15] = dst15 * invdet;
+        return true;
+    }
+
+    /**
+     * Inverts a rigid transform: the rotation is transposed and the
+     * translation becomes -R^T * t. The result may share storage with the
+     * source.
+     */
+    public static void invertRigidM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        final float r0 = m[mOffset], r1 = m[mOffset + 1], r2 = m[mOffset + 2];
+        final float r4 = m[mOffset + 4], r5 = m[mOffset + 5], r6 = m[mOffset + 6];
+        final float r8 = m[mOffset + 8], r9 = m[mOffset + 9], r10 = m[mOffset + 10];
+        final float tx = m[mOffset + 12], ty = m[mOffset + 13], tz = m[mOffset + 14];
+        mInv[mInvOffset] = r0;
+        mInv[mInvOffset + 1] = r4;
+        mInv[mInvOffset + 2] = r8;
+        mInv[mInvOffset + 3] = 0;
+        mInv[mInvOffset + 4] = r1;
+        mInv[mInvOffset + 5] = r5;
+        mInv[mInvOffset + 6] = r9;
+        mInv[mInvOffset + 7] = 0;
+        mInv[mInvOffset + 8] = r2;
+        mInv[mInvOffset + 9] = r6;
+        mInv[mInvOffset + 10] = r10;
+        mInv[mInvOffset + 11] = 0;
+        mInv[mInvOffset + 12] = -(r0 * tx + r1 * ty + r2 * tz);
+        mInv[mInvOffset + 13] = -(r4 * tx + r5 * ty + r6 * tz);
+        mInv[mInvOffset + 14] = -(r8 * tx + r9 * ty + r10 * tz);
+        mInv[mInvOffset + 15] = 1.0f;
+    }
+
+    /**
+     * Computes result = lhs * rhs for two rigid transforms, skipping the
+     * bottom row. The result may share storage with either operand.
+     */
+    public static void multiplyRigidMM(float[] result, int resultOffset, float[] lhs,
+            int lhsOffset, float[] rhs, int rhsOffset) {
+        final float l0 = lhs[lhsOffset], l1 = lhs[lhsOffset + 1], l2 = lhs[lhsOffset + 2];
+        final float l4 = lhs[lhsOffset + 4], l5 = lhs[lhsOffset + 5], l6 = lhs[lhsOffset + 6];
+        final float l8 = lhs[lhsOffset + 8], l9 = lhs[lhsOffset + 9], l10 = lhs[lhsOffset + 10];
+        final float l12 = lhs[lhsOffset + 12], l13 = lhs[lhsOffset + 13];
+        final float l14 = lhs[lhsOffset + 14];
+        for (int i = 0; i < 16; i += 4) {
+            final float r0 = rhs[rhsOffset + i];
+            final float r1 = rhs[rhsOffset + i + 1];
+            final float r2 = rhs[rhsOffset + i + 2];
+            // Column 3 carries the translation, columns 0-2 have w = 0.
+            final float w = i == 12 ? 1.0f : 0.0f;
+            result[resultOffset + i] = l0 * r0 + l4 * r1 + l8 * r2 + l12 * w;
+            result[resultOffset + i + 1] = l1 * r0 + l5 * r1 + l9 * r2 + l13 * w;
+            result[resultOffset + i + 2] = l2 * r0 + l6 * r1 + l10 * r2 + l14 * w;
+            result[resultOffset + i + 3] = w;
+        }
+    }
+
+    /**
+     * Translates the matrix in place by (x, y, z), i.e. m = m * T.
+     */
+    public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    /**
+     * Defines a viewing transformation in terms of an eye point, a center of
+     * view and an up vector.
+     */
+    public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY,
+            float eyeZ, float centerX, float centerY, float centerZ, float upX, float upY,
+            float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / Vec3.length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / Vec3.length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+        rm[rmOffset + 12] = 0.0f;
+        rm[rmOffset + 13] = 0.0f;
+        rm[rmOffset + 14] = 0.0f;
+        rm[rmOffset + 15] = 1.0f;
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * Defines a perspective projection.
+     *
+     * @param fovy
+     *            vertical field of view in degrees.
+     */
+    public static void perspectiveM(float[] m, int offset, float fovy, float aspect,
+            float zNear, float zFar) {
+        float f = 1.0f / (float) Math.tan(fovy * (Math.PI / 360.0));
+        float rangeReciprocal = 1.0f / (zNear - zFar);
+        m[offset] = f / aspect;
+        m[offset + 1] = 0.0f;
+        m[offset + 2] = 0.0f;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = 0.0f;
+        m[offset + 5] = f;
+        m[offset + 6] = 0.0f;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = 0.0f;
+        m[offset + 9] = 0.0f;
+        m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+        m[offset + 11] = -1.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 2.0f * zFar * zNear * rangeReciprocal;
+        m[offset + 15] = 0.0f;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+/**
+ * Quaternion helpers on float arrays in the Tango (x, y, z, w) order, in
+ * plain Java.
+ */
+public final class Quat {
+
+    private Quat() {
+    }
+
+    /**
+     * Scales the quaternion in place to unit length, unless it is already
+     * within 1e-5 of unit length or close to zero.
+     */
+    public static void normalize(float[] q, int offset) {
+        float x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+        float mag2 = x * x + y * y + z * z + w * w;
+        if (Math.abs(mag2) > 0.00001f && Math.abs(mag2 - 1.0f) > 0.00001f) {
+            float mag = (float) Math.sqrt(mag2);
+            q[offset] = x / mag;
+            q[offset + 1] = y / mag;
+            q[offset + 2] = z / mag;
+            q[offset + 3] = w / mag;
+        }
+    }
+
+    /**
+     * Writes the rotation matrix of a unit quaternion into a column-major
+     * 4x4 matrix with no translation.
+     */
+    public static void toMatrix(float[] q, int qOffset, float[] m, int mOffset) {
+        float x = q[qOffset];
+        float y = q[qOffset + 1];
+        float z = q[qOffset + 2];
+        float w = q[qOffset + 3];
+
+        float x2 = x * x;
+        float y2 = y * y;
+        float z2 = z * z;
+        float xy = x * y;
+        float xz = x * z;
+        float yz = y * z;
+        float wx = w * x;
+        float wy = w * y;
+        float wz = w * z;
+
+        m[mOffset] = 1f - 2f * (y2 + z2);
+        m[mOffset + 4] = 2f * (xy - wz);
+        m[mOffset + 8] = 2f * (xz + wy);
+        m[mOffset + 12] = 0f;
+
+        m[mOffset + 1] = 2f * (xy + wz);
+        m[mOffset + 5] = 1f - 2f * (x2 + z2);
+        m[mOffset + 9] = 2f * (yz - wx);
+        m[mOffset + 13] = 0f;
+
+        m[mOffset + 2] = 2f * (xz - wy);
+        m[mOffset + 6] = 2f * (yz + wx);
+        m[mOffset + 10] = 1f - 2f * (x2 + y2);
+        m[mOffset + 14] = 0f;
+
+        m[mOffset + 3] = 0f;
+        m[mOffset + 7] = 0f;
+        m[mOffset + 11] = 0f;
+        m[mOffset + 15] = 1f;
+    }
+
+    /**
+     * Computes the Hamilton product result = a * b. The result may share
+     * storage with either operand.
+     */
+    public static void multiply(float[] result, int resultOffset, float[] a, int aOffset,
+            float[] b, int bOffset) {
+        final float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2];
+        final float aw = a[aOffset + 3];
+        final float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2];
+        final float bw = b[bOffset + 3];
+        result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Spherically interpolates between two unit quaternions along the
+     * shorter arc and writes the normalized result.
+     *
+     * @param t
+     *            0 gives a, 1 gives b.
+     */
+    public static void slerp(float[] result, int resultOffset, float[] a, int aOffset,
+            float[] b, int bOffset, float t) {
+        slerp(result, resultOffset, a[aOffset], a[aOffset + 1], a[aOffset + 2],
+                a[aOffset + 3], b[bOffset], b[bOffset + 1], b[bOffset + 2],
+                b[bOffset + 3], t);
+    }
+
+    /**
+     * Same as {@link #slerp(float[], int, float[], int, float[], int, float)}
+     * for quaternions kept in double precision, such as Tango pose data.
+     */
+    public static void slerp(float[] result, int resultOffset, double[] a, int aOffset,
+            double[] b, int bOffset, double t) {
+        slerp(result, resultOffset, a[aOffset], a[aOffset + 1], a[aOffset + 2],
+                a[aOffset + 3], b[bOffset], b[bOffset + 1], b[bOffset + 2],
+                b[bOffset + 3], t);
+    }
+
+    private static void slerp(float[] result, int resultOffset, double ax,
+            double ay, double az, double aw, double bx, double by, double bz,
+            double bw, double t) {
+        double dot = ax * bx + ay * by + az * bz + aw * bw;
+        // Take the short way round.
+        if (dot < 0) {
+            dot = -dot;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+        double wa;
+        double wb;
+        if (dot > 0.9995) {
+            // Nearly parallel: normalized lerp avoids dividing by sin(~0).
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double theta = Math.acos(dot);
+            double sinTheta = Math.sin(theta);
+            wa = Math.sin((1 - t) * theta) / sinTheta;
+            wb = Math.sin(t * theta) / sinTheta;
+        }
+        double x = wa * ax + wb * bx;
+        double y = wa * ay + wb * by;
+        double z = wa * az + wb * bz;
+        double w = wa * aw + wb * bw;
+        double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+        result[resultOffset] = (float) (x / norm);
+        result[resultOffset + 1] = (float) (y / norm);
+        result[resultOffset + 2] = (float) (z / norm);
+        result[resultOffset + 3] = (float) (w / norm);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.projecttango.tangoutils.math;
+
+/**
+ * Small 3-vector helpers on float arrays, in plain Java.
+ */
+public final class Vec3 {
+
+    private Vec3() {
+    }
+
+    /**
+     * Returns the length of (x, y, z), computed as android.opengl.Matrix does.
+     */
+    public static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        return a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1]
+                + a[aOffset + 2] * b[bOffset + 2];
+    }
+
+    /**
+     * Computes result = a x b. The result may share storage with either
+     * operand.
+     */
+    public static void cross(float[] result, int resultOffset, float[] a, int aOffset,
+            float[] b, int bOffset) {
+        final float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2];
+        final float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2];
+        result[resultOffset] = ay * bz - az * by;
+        result[resultOffset + 1] = az * bx - ax * bz;
+        result[resultOffset + 2] = ax * by - ay * bx;
+    }
+
+    /**
+     * Scales the vector in place to unit length. Zero vectors are left as
+     * they are.
+     */
+    public static void normalize(float[] v, int offset) {
+        float length = length(v[offset], v[offset + 1], v[offset + 2]);
+        if (length > 0) {
+            float inverse = 1.0f / length;
+            v[offset] *= inverse;
+            v[offset + 1] *= inverse;
+            v[offset + 2] *= inverse;
+        }
+    }
+}
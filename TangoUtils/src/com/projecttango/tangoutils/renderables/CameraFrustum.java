@@ -21,7 +21,8 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
+
+import com.projecttango.tangoutils.math.Mat4;
 
 /**
  * {@link Renderable} OpenGL object showing the Camera Frustum in 3D. This shows
@@ -81,7 +82,7 @@ public class CameraFrustum extends Renderable {
 
     public CameraFrustum() {
         // Reset the model matrix to the identity
-        Matrix.setIdentityM(getModelMatrix(), 0);
+        Mat4.setIdentityM(getModelMatrix(), 0);
 
         // Load the vertices into a vertex buffer
         ByteBuffer byteBuf = ByteBuffer.allocateDirect(mVertices.length * 4);
@@ -97,15 +98,13 @@ public class CameraFrustum extends Renderable {
         mColorBuffer.put(mColors);
         mColorBuffer.position(0);
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(sVertexShaderCode,
                 sFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mColorHandle = program.getAttribLocation("aColor");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
     }
 
     @Override
@@ -118,19 +117,16 @@ public class CameraFrustum extends Renderable {
         updateMvpMatrix(viewMatrix, projectionMatrix);
 
         // Load vertex attribute data
-        mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
         GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
                 GLES20.GL_FLOAT, false, 0, mVertexBuffer);
         GLES20.glEnableVertexAttribArray(mPosHandle);
 
         // Load color attribute data
-        mColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
         GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false,
                 0, mColorBuffer);
         GLES20.glEnableVertexAttribArray(mColorHandle);
 
         // Draw the CameraFrustum
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
         GLES20.glLineWidth(1);
         GLES20.glDrawArrays(GLES20.GL_LINES, 0, 16);
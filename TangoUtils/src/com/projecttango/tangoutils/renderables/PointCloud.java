@@ -21,7 +21,8 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
+
+import com.projecttango.tangoutils.math.Mat4;
 
 /**
  * {@link Renderable} OpenGL showing a PointCloud obtained from Tango XyzIj
@@ -52,15 +53,13 @@ public class PointCloud extends Renderable {
 
     public PointCloud(int maxDepthPoints) {
         mAverageZ = 0;
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                sVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(sVertexShaderCode,
                 sFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
-        Matrix.setIdentityM(getModelMatrix(), 0);
+        mProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+        Mat4.setIdentityM(getModelMatrix(), 0);
         mVertexBuffer = ByteBuffer
                 .allocateDirect(maxDepthPoints * BYTES_PER_FLOAT * POINT_TO_XYZ)
                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
@@ -87,12 +86,9 @@ public class PointCloud extends Renderable {
             mVertexBuffer.position(0);
             GLES20.glUseProgram(mProgram);
             updateMvpMatrix(viewMatrix, projectionMatrix);
-            mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
             GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
                     GLES20.GL_FLOAT, false, 0, mVertexBuffer);
             GLES20.glEnableVertexAttribArray(mPosHandle);
-            mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram,
-                    "uMVPMatrix");
             GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false,
                     getMvpMatrix(), 0);
             GLES20.glDrawArrays(GLES20.GL_POINTS, 0, mPointCount);
@@ -16,17 +16,30 @@
 
 package com.projecttango.tangoutils.renderables;
 
-import android.opengl.Matrix;
+import java.util.Arrays;
+
+import com.projecttango.tangoutils.math.Mat4;
 
 /**
  * Base class for all self-drawing OpenGL objects used in Tango Java examples.
  * Contains common logic for handling the MVP matrices.
+ * 
+ * The MVP matrix is only recomputed when the model matrix or the shared
+ * view-projection product has changed since the last frame, so static objects
+ * under a still camera cost no matrix work at all.
  */
 public abstract class Renderable {
 
     private float[] mModelMatrix = new float[16];
     private float[] mMvMatrix = new float[16];
     private float[] mMvpMatrix = new float[16];
+    /** Model matrix the MVP matrix was last computed from. */
+    private final float[] mLastModelMatrix = new float[16];
+    /** Version of the view-projection product the MVP matrix was built on. */
+    private int mViewProjectionVersion;
+    /** View matrix the MVP matrix was built on, for the model-view matrix. */
+    private final float[] mLastViewMatrix = new float[16];
+    private boolean mMvMatrixStale = true;
 
     /**
      * Applies the view and projection matrices and draws the Renderable.
@@ -39,14 +52,53 @@ public abstract class Renderable {
      */
     public abstract void draw(float[] viewMatrix, float[] projectionMatrix);
 
-    public synchronized void updateMvpMatrix(float[] viewMatrix,
+    /**
+     * Composes the model, view, and projection matrices into a single mvp
+     * matrix, skipping the work when none of them changed. Must be called on
+     * the GL thread.
+     */
+    public void updateMvpMatrix(float[] viewMatrix, float[] projectionMatrix) {
+        ViewProjection viewProjection = updateViewProjection(viewMatrix,
+                projectionMatrix);
+        boolean modelChanged = !Arrays.equals(mModelMatrix, mLastModelMatrix);
+        if (!modelChanged
+                && viewProjection.getVersion() == mViewProjectionVersion) {
+            return;
+        }
+        if (modelChanged) {
+            System.arraycopy(mModelMatrix, 0, mLastModelMatrix, 0, 16);
+        }
+        if (viewProjection.getVersion() != mViewProjectionVersion) {
+            System.arraycopy(viewProjection.getViewMatrix(), 0,
+                    mLastViewMatrix, 0, 16);
+            mViewProjectionVersion = viewProjection.getVersion();
+        }
+        Mat4.multiplyMM(mMvpMatrix, 0,
+                viewProjection.getViewProjectionMatrix(), 0, mLastModelMatrix,
+                0);
+        mMvMatrixStale = true;
+    }
+
+    /**
+     * Brings the view-projection product shared by the renderables of this
+     * thread up to date.
+     */
+    private static ViewProjection updateViewProjection(float[] viewMatrix,
+            float[] projectionMatrix) {
+        ViewProjection viewProjection = ViewProjection.current();
+        viewProjection.update(viewMatrix, projectionMatrix);
+        return viewProjection;
+    }
+
+    /**
+     * Returns the projection times view matrix, for renderables that keep
+     * their points in world space or compose per-part transforms themselves.
+     * The product is shared and computed once per camera change.
+     */
+    protected float[] getViewProjectionMatrix(float[] viewMatrix,
             float[] projectionMatrix) {
-        // Compose the model, view, and projection matrices into a single mvp
-        // matrix
-        Matrix.setIdentityM(mMvMatrix, 0);
-        Matrix.setIdentityM(mMvpMatrix, 0);
-        Matrix.multiplyMM(mMvMatrix, 0, viewMatrix, 0, mModelMatrix, 0);
-        Matrix.multiplyMM(mMvpMatrix, 0, projectionMatrix, 0, mMvMatrix, 0);
+        return updateViewProjection(viewMatrix, projectionMatrix)
+                .getViewProjectionMatrix();
     }
 
     public float[] getModelMatrix() {
@@ -57,7 +109,16 @@ public abstract class Renderable {
         mModelMatrix = modelMatrix;
     }
 
+    /**
+     * Returns the model-view matrix of the last {@link #updateMvpMatrix} call.
+     * It is only needed by few renderables, so it is computed on demand.
+     */
     public float[] getMvMatrix() {
+        if (mMvMatrixStale) {
+            Mat4.multiplyMM(mMvMatrix, 0, mLastViewMatrix, 0,
+                    mLastModelMatrix, 0);
+            mMvMatrixStale = false;
+        }
         return mMvMatrix;
     }
 
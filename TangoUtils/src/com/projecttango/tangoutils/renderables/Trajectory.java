@@ -19,25 +19,41 @@ package com.projecttango.tangoutils.renderables;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
-import android.util.Log;
+
+import com.projecttango.tangoutils.math.Mat4;
 
 /**
  * {@link Renderable} OpenGL object showing the Trajectory of the Project Tango
  * device in 3D space. Points are added when the trajectory is updated by
  * passing translation data obtained from Tango Pose Data.
+ * 
+ * The path is stored in fixed-size segments that are appended as it grows, so
+ * it is never truncated and adding a point never copies earlier ones. Each
+ * segment starts with the last vertex of the previous one, so that the line
+ * strips drawn per segment join up.
+ * 
+ * Points are simplified as they arrive. The newest vertex is provisional: it
+ * is moved to each new point as long as the line from the last kept vertex
+ * still passes within {@link #SIMPLIFY_TOLERANCE} of every point skipped
+ * since, and kept for good otherwise. At most {@link #SIMPLIFY_WINDOW}
+ * points are skipped in a row, which bounds the work per update.
  */
 public class Trajectory extends Renderable {
 
     private static final int COORDS_PER_VERTEX = 3;
-    private static final float MIN_DISTANCE_CHECK = 0.025f;
+    static final float MIN_DISTANCE_CHECK = 0.025f;
+
+    /** Largest distance in meters between a skipped point and the path. */
+    static final float SIMPLIFY_TOLERANCE = 0.01f;
+    /** Largest number of points a single path vertex may stand for. */
+    static final int SIMPLIFY_WINDOW = 64;
 
-    /** Note: due to resetPath() logic, keep this as a multiple of 9 **/
-    private static final int MAX_VERTICES = 9000;
+    /** Vertices per buffer segment, including the joining vertex. */
+    static final int SEGMENT_VERTICES = 1024;
     private static final int BYTES_PER_FLOAT = 4;
-    private static int mTrajectoryCount = 0;
 
     private static final String TAG = Trajectory.class.getSimpleName();
     private String mVertexShaderCode = "uniform mat4 uMVPMatrix;"
@@ -47,7 +63,21 @@ public class Trajectory extends Renderable {
     private String mFragmentShaderCode = "precision mediump float;"
             + "varying vec4 vColor;" + "void main() {"
             + "gl_FragColor = vColor;" + "}";
+    private final ArrayList<FloatBuffer> mSegments =
+            new ArrayList<FloatBuffer>();
+    /** Last segment, the one points are appended to. */
     private FloatBuffer mVertexBuffer;
+    /** Number of vertices in the last segment. */
+    private int mSegmentVertexCount;
+    /** Last vertex that is kept for good. */
+    private final float[] mAnchor = new float[COORDS_PER_VERTEX];
+    /**
+     * Points accepted since the anchor; the last one is the provisional
+     * vertex.
+     */
+    private final float[] mWindow = new float[SIMPLIFY_WINDOW
+            * COORDS_PER_VERTEX];
+    private int mWindowCount;
     private float[] mColor = { 0.22f, 0.28f, 0.67f, 1.0f };
     private final int mProgram;
     private int mPosHandle;
@@ -58,23 +88,18 @@ public class Trajectory extends Renderable {
     public Trajectory(int lineWidth) {
         mLineWidth = lineWidth;
         // Reset the model matrix to the identity
-        Matrix.setIdentityM(getModelMatrix(), 0);
+        Mat4.setIdentityM(getModelMatrix(), 0);
 
-        // Allocate a vertex buffer
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
-        vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
+        // Allocate the first vertex buffer segment
+        addSegment();
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                mVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(mVertexShaderCode,
                 mFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+        mColorHandle = program.getUniformLocation("aColor");
     }
 
     // float[] color should contain only 4 elements.
@@ -82,96 +107,221 @@ public class Trajectory extends Renderable {
         mLineWidth = lineWidth;
         mColor = color;
         // Reset the model matrix to the identity
-        Matrix.setIdentityM(getModelMatrix(), 0);
+        Mat4.setIdentityM(getModelMatrix(), 0);
 
-        // Allocate a vertex buffer
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
-        vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
+        // Allocate the first vertex buffer segment
+        addSegment();
 
-        // Load the vertex and fragment shaders, then link the program
-        int vertexShader = RenderUtils.loadShader(GLES20.GL_VERTEX_SHADER,
-                mVertexShaderCode);
-        int fragShader = RenderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,
+        // Get the shared program for these shaders and its locations
+        ShaderProgram program = RenderUtils.getProgram(mVertexShaderCode,
                 mFragmentShaderCode);
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, vertexShader);
-        GLES20.glAttachShader(mProgram, fragShader);
-        GLES20.glLinkProgram(mProgram);
+        mProgram = program.getId();
+        mPosHandle = program.getAttribLocation("vPosition");
+        mMVPMatrixHandle = program.getUniformLocation("uMVPMatrix");
+        mColorHandle = program.getUniformLocation("aColor");
     }
 
-    public void updateTrajectory(float[] translation) {
-        mVertexBuffer.position(mTrajectoryCount * 3);
-        if (((mTrajectoryCount + 1) * 3) >= MAX_VERTICES) {
-            Log.w(TAG, "Clearing float buffer");
-            resetPath();
+    /**
+     * Adds a device position to the path. Allocation free; positions closer
+     * than {@link #MIN_DISTANCE_CHECK} to the newest vertex are ignored.
+     * 
+     * @param translation
+     *            device position in the Tango frame.
+     */
+    public synchronized void updateTrajectory(float[] translation) {
+        // Tango frame to OpenGL axes
+        float x = translation[0];
+        float y = translation[2];
+        float z = -translation[1];
+        if (mSegmentVertexCount == 0) {
+            // First point of the path
+            appendVertex(x, y, z);
+            mAnchor[0] = x;
+            mAnchor[1] = y;
+            mAnchor[2] = z;
+            mWindowCount = 0;
+            return;
         }
-        float dx = 0, dy = 0, dz = 0;
-        try {
-            dx = mVertexBuffer.get(mVertexBuffer.position() - 3)
-                    - translation[0];
-            dy = mVertexBuffer.get(mVertexBuffer.position() - 2)
-                    - translation[2];
-            dz = mVertexBuffer.get(mVertexBuffer.position() - 1)
-                    - (-translation[1]);
-        } catch (IndexOutOfBoundsException e) {
-            mVertexBuffer.put(new float[] { translation[0], translation[2],
-                    -translation[1] });
-            mTrajectoryCount++;
-        }
-        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
-        if (distance > MIN_DISTANCE_CHECK) {
-            mVertexBuffer.put(new float[] { translation[0], translation[2],
-                    -translation[1] });
-            mTrajectoryCount++;
+        int last = (mSegmentVertexCount - 1) * COORDS_PER_VERTEX;
+        float dx = mVertexBuffer.get(last) - x;
+        float dy = mVertexBuffer.get(last + 1) - y;
+        float dz = mVertexBuffer.get(last + 2) - z;
+        if (dx * dx + dy * dy + dz * dz > MIN_DISTANCE_CHECK
+                * MIN_DISTANCE_CHECK) {
+            addSimplified(x, y, z);
         }
     }
 
-    public void resetPath() {
-        int currentPosition = mVertexBuffer.position();
-        int pointsToGet = (MAX_VERTICES / 3);
-        mVertexBuffer.position(currentPosition - pointsToGet);
+    /**
+     * Moves the provisional vertex to the point if the path from the anchor
+     * still covers the skipped points, and otherwise keeps it and appends the
+     * point as the new provisional vertex.
+     */
+    private void addSimplified(float x, float y, float z) {
+        if (mWindowCount > 0 && mWindowCount < SIMPLIFY_WINDOW
+                && coversWindow(x, y, z)) {
+            setVertex(mSegmentVertexCount - 1, x, y, z);
+        } else {
+            if (mWindowCount > 0) {
+                System.arraycopy(mWindow, (mWindowCount - 1)
+                        * COORDS_PER_VERTEX, mAnchor, 0, COORDS_PER_VERTEX);
+                mWindowCount = 0;
+            }
+            appendVertex(x, y, z);
+        }
+        int i = mWindowCount * COORDS_PER_VERTEX;
+        mWindow[i] = x;
+        mWindow[i + 1] = y;
+        mWindow[i + 2] = z;
+        mWindowCount++;
+    }
 
-        float[] tail = new float[pointsToGet];
-        mVertexBuffer.get(tail, 0, pointsToGet);
+    /**
+     * Returns true if every point in the window lies within the tolerance of
+     * the segment from the anchor to the given end point.
+     */
+    private boolean coversWindow(float endX, float endY, float endZ) {
+        float ax = mAnchor[0];
+        float ay = mAnchor[1];
+        float az = mAnchor[2];
+        float ux = endX - ax;
+        float uy = endY - ay;
+        float uz = endZ - az;
+        float lengthSquared = ux * ux + uy * uy + uz * uz;
+        float toleranceSquared = SIMPLIFY_TOLERANCE * SIMPLIFY_TOLERANCE;
+        for (int i = 0; i < mWindowCount * COORDS_PER_VERTEX;
+                i += COORDS_PER_VERTEX) {
+            float px = mWindow[i] - ax;
+            float py = mWindow[i + 1] - ay;
+            float pz = mWindow[i + 2] - az;
+            float t = 0;
+            if (lengthSquared > 0) {
+                t = (px * ux + py * uy + pz * uz) / lengthSquared;
+                t = Math.max(0, Math.min(1, t));
+            }
+            float ex = px - t * ux;
+            float ey = py - t * uy;
+            float ez = pz - t * uz;
+            if (ex * ex + ey * ey + ez * ez > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        mVertexBuffer.clear();
-        mVertexBuffer.put(tail);
+    private void appendVertex(float x, float y, float z) {
+        if (mSegmentVertexCount == SEGMENT_VERTICES) {
+            addSegment();
+        }
+        setVertex(mSegmentVertexCount, x, y, z);
+        mSegmentVertexCount++;
+    }
 
-        mTrajectoryCount = pointsToGet / 3;
+    /** Writes a vertex of the last segment with absolute puts. */
+    private void setVertex(int index, float x, float y, float z) {
+        int i = index * COORDS_PER_VERTEX;
+        mVertexBuffer.put(i, x);
+        mVertexBuffer.put(i + 1, y);
+        mVertexBuffer.put(i + 2, z);
     }
 
-    public void clearPath() {
-        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(MAX_VERTICES
-                * BYTES_PER_FLOAT);
+    /**
+     * Appends an empty segment, seeded with the last vertex of the current
+     * one if there is one.
+     */
+    private void addSegment() {
+        ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(
+                SEGMENT_VERTICES * COORDS_PER_VERTEX * BYTES_PER_FLOAT);
         vertexByteBuffer.order(ByteOrder.nativeOrder());
-        mVertexBuffer = vertexByteBuffer.asFloatBuffer();
+        FloatBuffer segment = vertexByteBuffer.asFloatBuffer();
+        int count = 0;
+        if (mVertexBuffer != null && mSegmentVertexCount > 0) {
+            int last = (mSegmentVertexCount - 1) * COORDS_PER_VERTEX;
+            for (int i = 0; i < COORDS_PER_VERTEX; i++) {
+                segment.put(i, mVertexBuffer.get(last + i));
+            }
+            count = 1;
+        }
+        mSegments.add(segment);
+        mVertexBuffer = segment;
+        mSegmentVertexCount = count;
+    }
+
+    /**
+     * Drops every segment but the last, keeping the most recent part of the
+     * path.
+     */
+    public synchronized void resetPath() {
+        mSegments.clear();
+        mSegments.add(mVertexBuffer);
+    }
+
+    public synchronized void clearPath() {
+        mSegments.clear();
+        mVertexBuffer = null;
+        mWindowCount = 0;
+        addSegment();
+    }
+
+    /** Returns the number of vertices drawn, counting joining vertices. */
+    public synchronized int getVertexCount() {
+        return (mSegments.size() - 1) * SEGMENT_VERTICES + mSegmentVertexCount;
+    }
+
+    /**
+     * Copies the path into result as packed xyz floats, without the vertex
+     * repeated at the start of each segment, and returns the number of
+     * vertices copied.
+     */
+    synchronized int getPath(float[] result) {
+        int count = 0;
+        int lastSegment = mSegments.size() - 1;
+        for (int i = 0; i <= lastSegment; i++) {
+            FloatBuffer segment = mSegments.get(i);
+            int segmentCount = i == lastSegment ? mSegmentVertexCount
+                    : SEGMENT_VERTICES;
+            // Segments after the first start with the joining vertex
+            int first = i == 0 ? 0 : 1;
+            for (int v = first; v < segmentCount; v++) {
+                for (int c = 0; c < COORDS_PER_VERTEX; c++) {
+                    result[count * COORDS_PER_VERTEX + c] = segment.get(v
+                            * COORDS_PER_VERTEX + c);
+                }
+                count++;
+            }
+        }
+        return count;
     }
 
     @Override
-    public void draw(float[] viewMatrix, float[] projectionMatrix) {
+    public synchronized void draw(float[] viewMatrix,
+            float[] projectionMatrix) {
         GLES20.glUseProgram(mProgram);
-        mVertexBuffer.position(0);
 
         // Compose the model, view, and projection matrices into a single m-v-p
         // matrix
         updateMvpMatrix(viewMatrix, projectionMatrix);
 
-        // Load vertex attribute data
-        mPosHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT, false, 0, mVertexBuffer);
         GLES20.glEnableVertexAttribArray(mPosHandle);
-
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, getMvpMatrix(), 0);
-
-        mColorHandle = GLES20.glGetUniformLocation(mProgram, "aColor");
         GLES20.glUniform4f(mColorHandle, mColor[0], mColor[1], mColor[2],
                 mColor[3]);
         GLES20.glLineWidth(mLineWidth);
-        GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, mTrajectoryCount);
+
+        // One line strip per segment; the last one may be partly filled
+        int lastSegment = mSegments.size() - 1;
+        for (int i = 0; i <= lastSegment; i++) {
+            FloatBuffer segment = mSegments.get(i);
+            int count = i == lastSegment ? mSegmentVertexCount
+                    : SEGMENT_VERTICES;
+            if (count < 2) {
+                continue;
+            }
+            segment.position(0);
+            GLES20.glVertexAttribPointer(mPosHandle, COORDS_PER_VERTEX,
+                    GLES20.GL_FLOAT, false, 0, segment);
+            GLES20.glDrawArrays(GLES20.GL_LINE_STRIP, 0, count);
+        }
     }
 
     public void setColor(float[] color) {